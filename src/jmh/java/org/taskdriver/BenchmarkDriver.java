@@ -0,0 +1,92 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Driver with a configurable number of options, tasks and task arguments
+ * used by the benchmarks. The tasks do nothing.
+ * @author Chad Juliano
+ */
+public class BenchmarkDriver extends TaskDriver<BenchmarkTaskEnum>
+{
+    private final List<TaskDefinition<BenchmarkTaskEnum>> _taskList = new ArrayList<>();
+    private final int                                     _optionCount;
+    private final int                                     _argCount;
+
+    /**
+     * Constructor
+     * @param _optionCount Number of options with an argument to add.
+     * @param _taskCount Number of tasks to add.
+     * @param _argCount Number of arguments of each task.
+     */
+    public BenchmarkDriver(int _optionCount, int _taskCount, int _argCount)
+    {
+        this._optionCount = _optionCount;
+        this._argCount = _argCount;
+
+        for(int _idx = 0; _idx < _optionCount; _idx++)
+        {
+            addOption("option-" + _idx, "Benchmark option " + _idx, null, true);
+        }
+
+        BenchmarkTaskEnum[] _tasks = BenchmarkTaskEnum.values();
+        for(int _idx = 0; _idx < _taskCount; _idx++)
+        {
+            TaskDefinition<BenchmarkTaskEnum> _taskDef = addTask(_tasks[_idx], "Benchmark task " + _idx);
+            for(int _argIdx = 0; _argIdx < _argCount; _argIdx++)
+            {
+                _taskDef.addArg("ARG-" + _argIdx);
+            }
+            _taskList.add(_taskDef);
+        }
+    }
+
+    /**
+     * Build a command line that sets every option and runs the task with
+     * integer arguments.
+     * @param _taskIdx
+     * @return
+     */
+    public String[] createArgs(int _taskIdx)
+    {
+        List<String> _args = new ArrayList<>();
+        for(int _idx = 0; _idx < _optionCount; _idx++)
+        {
+            _args.add("--option-" + _idx);
+            _args.add("value-" + _idx);
+        }
+
+        _args.add(_taskList.get(_taskIdx).toString());
+        for(int _idx = 0; _idx < _argCount; _idx++)
+        {
+            _args.add(Integer.toString(_idx));
+        }
+        return _args.toArray(new String[0]);
+    }
+
+    @Override
+    protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+    {}
+
+    @Override
+    protected void handleDoTask(BenchmarkTaskEnum _task, TaskInvocation<BenchmarkTaskEnum> _invocation)
+    {}
+
+    @Override
+    protected void printHelpFooter(PrintWriter _pw)
+    {
+        _pw.println("Benchmark driver.");
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of resolving a task name to its definition. The names are visited in
+ * a shuffled order so the lookups do not always hit the same entries.
+ * @author Chad Juliano
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark
+{
+    // limited by the size of BenchmarkTaskEnum.
+    @Param({ "10", "100", "1000", "2000" })
+    private int                              _taskCount;
+
+    private TaskDriverMap<BenchmarkTaskEnum> _taskDefs;
+    private BenchmarkTaskEnum[]              _tasks;
+    private String[]                         _names;
+    private int                              _next = 0;
+
+    @Setup
+    public void setup()
+    {
+        _taskDefs = new TaskDriverMap<>();
+        _tasks = new BenchmarkTaskEnum[_taskCount];
+        for(int _idx = 0; _idx < _taskCount; _idx++)
+        {
+            _tasks[_idx] = BenchmarkTaskEnum.values()[_idx];
+            _taskDefs.add(_tasks[_idx], "Benchmark task " + _idx);
+        }
+        _taskDefs.seal();
+
+        // a fixed seed keeps the order the same between runs.
+        Random _random = new Random(_taskCount);
+        _names = new String[_taskCount];
+        for(int _idx = 0; _idx < _taskCount; _idx++)
+        {
+            _names[_idx] = _taskDefs.get(_tasks[_random.nextInt(_taskCount)]).toString();
+        }
+    }
+
+    @Benchmark
+    public TaskDefinition<BenchmarkTaskEnum> getByName()
+    {
+        String _name = _names[_next];
+        _next = (_next + 1) % _names.length;
+        return _taskDefs.get(_name);
+    }
+
+    @Benchmark
+    public TaskDefinition<BenchmarkTaskEnum> getByEnum()
+    {
+        BenchmarkTaskEnum _task = _tasks[_next];
+        _next = (_next + 1) % _tasks.length;
+        return _taskDefs.get(_task);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+package org.taskdriver;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of rendering the help screen and of building the task summary and
+ * details when the definitions are sealed.
+ * @author Chad Juliano
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelpBenchmark
+{
+    @Param({ "10", "100" })
+    private int             _taskCount;
+
+    private BenchmarkDriver _driver;
+
+    @Setup
+    public void setup()
+    {
+        _driver = new BenchmarkDriver(8, _taskCount, 2);
+        _driver.seal();
+    }
+
+    @Benchmark
+    public String printHelp()
+    {
+        StringWriter _sw = new StringWriter();
+        _driver.printHelp(new PrintWriter(_sw));
+        return _sw.toString();
+    }
+
+    @Benchmark
+    public String getDetails()
+    {
+        BenchmarkTaskEnum[] _tasks = BenchmarkTaskEnum.values();
+        TaskDriverMap<BenchmarkTaskEnum> _taskDefs = new TaskDriverMap<>();
+        for(int _idx = 0; _idx < _taskCount; _idx++)
+        {
+            _taskDefs.add(_tasks[_idx], "Benchmark task " + _idx).addArg("ARG");
+        }
+        return _taskDefs.getDetails();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of parsing a command line into options and task invocations. The
+ * command line sets every option and passes every task argument.
+ * @author Chad Juliano
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+    @Param({ "0", "8", "32" })
+    private int               _optionCount;
+
+    @Param({ "1", "8", "32" })
+    private int               _argCount;
+
+    private BenchmarkDriver   _driver;
+    private String[]          _args;
+    private TaskDriverOptions _cmd;
+
+    @Setup
+    public void setup()
+            throws Exception
+    {
+        _driver = new BenchmarkDriver(_optionCount, 10, _argCount);
+        _driver.seal();
+        _args = _driver.createArgs(0);
+        _cmd = _driver.parseOptions(_args);
+    }
+
+    @Benchmark
+    public TaskDriverOptions parseOptions()
+            throws Exception
+    {
+        return _driver.parseOptions(_args);
+    }
+
+    @Benchmark
+    public List<TaskInvocation<BenchmarkTaskEnum>> parseArgs()
+            throws Exception
+    {
+        return _driver.parseArgs(_cmd, null, null);
+    }
+
+    @Benchmark
+    public List<TaskInvocation<BenchmarkTaskEnum>> parseAll()
+            throws Exception
+    {
+        return _driver.parseArgs(_driver.parseOptions(_args), null, null);
+    }
+
+    /**
+     * The ARGS debug string that parseOptions only builds when debug logging
+     * is enabled.
+     */
+    @Benchmark
+    public String formatArgs()
+    {
+        return TaskDriver.formatArgs(_args);
+    }
+}
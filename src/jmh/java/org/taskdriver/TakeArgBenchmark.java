@@ -0,0 +1,102 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+package org.taskdriver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of creating an invocation and taking all of its arguments.
+ * @author Chad Juliano
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TakeArgBenchmark
+{
+    @Param({ "1", "8", "32" })
+    private int                                _argCount;
+
+    private TaskDefinition<BenchmarkTaskEnum>  _taskDef;
+    private List<String>                       _argValues;
+    private List<String>                       _badValues;
+
+    @Setup
+    public void setup()
+    {
+        _taskDef = new TaskDefinition<>(BenchmarkTaskEnum.TASK_0000, "Benchmark task");
+        _argValues = new ArrayList<>();
+        _badValues = new ArrayList<>();
+        for(int _idx = 0; _idx < _argCount; _idx++)
+        {
+            _taskDef.addArg("ARG-" + _idx);
+            _argValues.add(Integer.toString(_idx * 1000));
+            _badValues.add(_idx * 1000 + "x");
+        }
+        _taskDef.seal();
+    }
+
+    @Benchmark
+    public void takeArg(Blackhole _bh)
+            throws Exception
+    {
+        TaskInvocation<BenchmarkTaskEnum> _invocation = new TaskInvocation<>(_taskDef, null, _argValues, null, null);
+        for(int _idx = 0; _idx < _argCount; _idx++)
+        {
+            _bh.consume(_invocation.takeArg());
+        }
+    }
+
+    @Benchmark
+    public void takeArgInt(Blackhole _bh)
+            throws Exception
+    {
+        TaskInvocation<BenchmarkTaskEnum> _invocation = new TaskInvocation<>(_taskDef, null, _argValues, null, null);
+        for(int _idx = 0; _idx < _argCount; _idx++)
+        {
+            _bh.consume(_invocation.takeArgInt());
+        }
+    }
+
+    @Benchmark
+    public void takeArgIntMalformed(Blackhole _bh)
+    {
+        for(int _idx = 0; _idx < _argCount; _idx++)
+        {
+            TaskInvocation<BenchmarkTaskEnum> _invocation = new TaskInvocation<>(_taskDef, null, _badValues, null, null);
+            try
+            {
+                _invocation.takeArgInt();
+            }
+            catch(ParseException _ex)
+            {
+                _bh.consume(_ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+/**
+ * Converts a task argument from a string. A converter returns null for a
+ * value it can not convert instead of throwing so malformed input does not
+ * take the slow exception path.
+ * @author Chad Juliano
+ * @param <T> Type of the converted value.
+ * @see ArgConverters
+ */
+public interface ArgConverter<T>
+{
+    /**
+     * Get the type of the converted values.
+     * @return
+     */
+    Class<T> getType();
+
+    /**
+     * Get the name of the type used in error messages.
+     * @return
+     */
+    String getTypeName();
+
+    /**
+     * Convert an argument value.
+     * @param _value
+     * @return the converted value or null if the value is not valid.
+     */
+    T convert(String _value);
+}
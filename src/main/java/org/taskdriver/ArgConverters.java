@@ -0,0 +1,382 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Registry of the converters used by typed task arguments. Numbers and
+ * durations are parsed by hand so a malformed value is reported without an
+ * exception being thrown.
+ * @author Chad Juliano
+ */
+public final class ArgConverters
+{
+    /** Signed decimal int. */
+    public static final ArgConverter<Integer>              INTEGER  = create(Integer.class, "integer",
+            ArgConverters::parseInteger);
+
+    /** Signed decimal long. */
+    public static final ArgConverter<Long>                 LONG     = create(Long.class, "long",
+            ArgConverters::parseLong);
+
+    /** Decimal number with an optional exponent. */
+    public static final ArgConverter<Double>               DOUBLE   = create(Double.class, "number",
+            ArgConverters::parseDouble);
+
+    /** File path. Relative paths are resolved against the working directory by the invocation. */
+    public static final ArgConverter<Path>                 PATH     = create(Path.class, "path",
+            ArgConverters::parsePath);
+
+    /** Duration like 1h30m, 500ms or an ISO-8601 duration like PT5S. */
+    public static final ArgConverter<Duration>             DURATION = create(Duration.class, "duration",
+            ArgConverters::parseDuration);
+
+    /** The argument string. */
+    public static final ArgConverter<String>               STRING   = create(String.class, "string",
+            _value -> _value);
+
+    private static final Map<Class<?>, ArgConverter<?>>    REGISTRY = new ConcurrentHashMap<>();
+
+    static
+    {
+        register(int.class, INTEGER);
+        register(long.class, LONG);
+        register(double.class, DOUBLE);
+        for(ArgConverter<?> _converter : new ArgConverter<?>[] { INTEGER, LONG, DOUBLE, PATH, DURATION, STRING })
+        {
+            register(_converter);
+        }
+    }
+
+    private ArgConverters()
+    {}
+
+    /**
+     * Register a converter for its type. This replaces an existing converter
+     * for the type.
+     * @param _converter
+     */
+    public static void register(ArgConverter<?> _converter)
+    {
+        register(_converter.getType(), _converter);
+    }
+
+    private static void register(Class<?> _type, ArgConverter<?> _converter)
+    {
+        REGISTRY.put(_type, _converter);
+    }
+
+    /**
+     * Get the registered converter for a type. Converters for enums are
+     * created on first use.
+     * @param _type
+     * @return
+     * @throws IllegalArgumentException if no converter is registered for the type.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static <T> ArgConverter<T> forClass(Class<T> _type)
+    {
+        ArgConverter<?> _converter = REGISTRY.get(_type);
+        if(_converter == null && _type.isEnum())
+        {
+            _converter = REGISTRY.computeIfAbsent(_type, _key -> forEnum((Class)_key));
+        }
+
+        if(_converter == null)
+        {
+            throw new IllegalArgumentException("No argument converter registered for: " + _type.getName());
+        }
+        return (ArgConverter<T>)_converter;
+    }
+
+    /**
+     * Create a converter for the constants of an enum. Names are matched
+     * without case and a dash matches an underscore the same as task names.
+     * @param _enumClass
+     * @return
+     */
+    public static <T extends Enum<T>> ArgConverter<T> forEnum(Class<T> _enumClass)
+    {
+        Map<String, T> _byName = new HashMap<>();
+        for(T _constant : _enumClass.getEnumConstants())
+        {
+            _byName.put(toEnumKey(_constant.name()), _constant);
+        }
+
+        String _typeName = Stream.of(_enumClass.getEnumConstants())
+                .map(_constant -> toEnumKey(_constant.name()))
+                .collect(Collectors.joining("|", "one of ", ""));
+
+        return create(_enumClass, _typeName, _value -> _byName.get(toEnumKey(_value)));
+    }
+
+    /**
+     * Create a converter from a function that returns null for values that
+     * are not valid.
+     * @param _type
+     * @param _typeName Name of the type used in error messages.
+     * @param _function
+     * @return
+     */
+    public static <T> ArgConverter<T> create(Class<T> _type, String _typeName, Function<String, T> _function)
+    {
+        return new ArgConverter<T>()
+        {
+            @Override
+            public Class<T> getType()
+            {
+                return _type;
+            }
+
+            @Override
+            public String getTypeName()
+            {
+                return _typeName;
+            }
+
+            @Override
+            public T convert(String _value)
+            {
+                return _function.apply(_value);
+            }
+
+            @Override
+            public String toString()
+            {
+                return _typeName;
+            }
+        };
+    }
+
+    /**
+     * @return the name of an enum constant as it is given on the command line.
+     */
+    static String toEnumKey(String _name)
+    {
+        return _name.toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    private static Integer parseInteger(String _value)
+    {
+        Long _long = parseLong(_value);
+        if(_long == null || _long < Integer.MIN_VALUE || _long > Integer.MAX_VALUE)
+        {
+            return null;
+        }
+        return (int)_long.longValue();
+    }
+
+    private static Long parseLong(String _value)
+    {
+        int _length = _value.length();
+        int _pos = 0;
+        boolean _negative = false;
+        if(_length > 0 && (_value.charAt(0) == '-' || _value.charAt(0) == '+'))
+        {
+            _negative = (_value.charAt(0) == '-');
+            _pos++;
+        }
+
+        if(_pos == _length)
+        {
+            return null;
+        }
+
+        // accumulate negative so Long.MIN_VALUE can be parsed.
+        long _result = 0;
+        for(; _pos < _length; _pos++)
+        {
+            int _digit = _value.charAt(_pos) - '0';
+            if(_digit < 0 || _digit > 9 || _result < (Long.MIN_VALUE + _digit) / 10)
+            {
+                return null;
+            }
+            _result = _result * 10 - _digit;
+        }
+
+        if(!_negative)
+        {
+            if(_result == Long.MIN_VALUE)
+            {
+                return null;
+            }
+            _result = -_result;
+        }
+        return _result;
+    }
+
+    private static Double parseDouble(String _value)
+    {
+        // only call parseDouble() for values it will accept.
+        int _length = _value.length();
+        int _pos = 0;
+        if(_pos < _length && (_value.charAt(_pos) == '-' || _value.charAt(_pos) == '+'))
+        {
+            _pos++;
+        }
+
+        int _digits = 0;
+        for(; _pos < _length && isDigit(_value.charAt(_pos)); _pos++)
+        {
+            _digits++;
+        }
+
+        if(_pos < _length && _value.charAt(_pos) == '.')
+        {
+            for(_pos++; _pos < _length && isDigit(_value.charAt(_pos)); _pos++)
+            {
+                _digits++;
+            }
+        }
+
+        if(_digits == 0)
+        {
+            return null;
+        }
+
+        if(_pos < _length && (_value.charAt(_pos) == 'e' || _value.charAt(_pos) == 'E'))
+        {
+            _pos++;
+            if(_pos < _length && (_value.charAt(_pos) == '-' || _value.charAt(_pos) == '+'))
+            {
+                _pos++;
+            }
+
+            int _expStart = _pos;
+            for(; _pos < _length && isDigit(_value.charAt(_pos)); _pos++)
+            {}
+
+            if(_pos == _expStart)
+            {
+                return null;
+            }
+        }
+
+        if(_pos != _length)
+        {
+            return null;
+        }
+        return Double.parseDouble(_value);
+    }
+
+    private static Path parsePath(String _value)
+    {
+        if(_value.isEmpty() || _value.indexOf('\0') >= 0)
+        {
+            return null;
+        }
+
+        try
+        {
+            return Paths.get(_value);
+        }
+        catch(InvalidPathException _ex)
+        {
+            // only reached for characters that are not valid on the platform.
+            return null;
+        }
+    }
+
+    private static Duration parseDuration(String _value)
+    {
+        if(_value.startsWith("P") || _value.startsWith("p") || _value.startsWith("-P")
+                || _value.startsWith("-p"))
+        {
+            try
+            {
+                return Duration.parse(_value);
+            }
+            catch(DateTimeParseException _ex)
+            {
+                return null;
+            }
+        }
+
+        // sequence of amounts and units like 1h30m.
+        int _length = _value.length();
+        int _pos = 0;
+        Duration _result = Duration.ZERO;
+        while(_pos < _length)
+        {
+            long _amount = 0;
+            int _start = _pos;
+            for(; _pos < _length && isDigit(_value.charAt(_pos)); _pos++)
+            {
+                if(_amount > (Long.MAX_VALUE - 9) / 10)
+                {
+                    return null;
+                }
+                _amount = _amount * 10 + (_value.charAt(_pos) - '0');
+            }
+
+            int _unitStart = _pos;
+            for(; _pos < _length && Character.isLetter(_value.charAt(_pos)); _pos++)
+            {}
+
+            ChronoUnit _unit = getDurationUnit(_value, _unitStart, _pos);
+            if(_pos == _start || _unitStart == _start || _unit == null)
+            {
+                return null;
+            }
+
+            try
+            {
+                _result = _result.plus(_amount, _unit);
+            }
+            catch(ArithmeticException _ex)
+            {
+                return null;
+            }
+        }
+        return (_length == 0) ? null : _result;
+    }
+
+    private static ChronoUnit getDurationUnit(String _value, int _start, int _end)
+    {
+        switch(_value.substring(_start, _end).toLowerCase(Locale.ROOT))
+        {
+            case "ns":
+                return ChronoUnit.NANOS;
+            case "us":
+                return ChronoUnit.MICROS;
+            case "ms":
+                return ChronoUnit.MILLIS;
+            case "s":
+                return ChronoUnit.SECONDS;
+            case "m":
+                return ChronoUnit.MINUTES;
+            case "h":
+                return ChronoUnit.HOURS;
+            case "d":
+                return ChronoUnit.DAYS;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isDigit(char _char)
+    {
+        return _char >= '0' && _char <= '9';
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Layout;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * Console appender that formats and writes events on a separate thread. The
+ * events are kept in a ring buffer and the writer takes everything that is
+ * waiting so a task that logs many lines is not slowed by formatting and a
+ * flush for each of them. Events are written in the order they were logged.
+ * <p>
+ * The console of the logging thread is resolved when the event is logged so
+ * each daemon client still gets its own output. The driver waits for the
+ * buffer to be written before a run returns. The events of a run with --debug
+ * are written on the logging thread so they line up with errors.
+ * <p>
+ * The console of a daemon client is buffered by a FrameSender, which drops
+ * output when the client does not keep up, so a slow client does not block
+ * the writer while it holds the lock.
+ * @author Chad Juliano
+ */
+public class AsyncConsoleAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+{
+    private static final int                       DEFAULT_CAPACITY   = 8192;
+    private static final long                      FLUSH_TIMEOUT_MS   = 5000;
+    private static final Set<AsyncConsoleAppender> STARTED            = ConcurrentHashMap.newKeySet();
+
+    private Layout<ILoggingEvent>                  _layout;
+    private Charset                                _charset           = StandardCharsets.UTF_8;
+    private int                                    _capacity          = DEFAULT_CAPACITY;
+    private boolean                                _includeCallerData = false;
+
+    private BlockingQueue<Entry>                   _queue;
+    private Thread                                 _writer;
+    private final Object                           _writeLock         = new Object();
+
+    /**
+     * Wait until the events logged before this call have been written by all
+     * of the started appenders.
+     */
+    static void flushAll()
+    {
+        for(AsyncConsoleAppender _appender : STARTED)
+        {
+            _appender.flush();
+        }
+    }
+
+    /**
+     * @param _layout Formats the events.
+     */
+    public void setLayout(Layout<ILoggingEvent> _layout)
+    {
+        this._layout = _layout;
+    }
+
+    /**
+     * @param _charset Charset of the formatted events. The default is UTF-8.
+     */
+    public void setCharset(Charset _charset)
+    {
+        this._charset = _charset;
+    }
+
+    /**
+     * @param _capacity Number of events that can be buffered before logging
+     * threads have to wait for the writer.
+     */
+    public void setCapacity(int _capacity)
+    {
+        this._capacity = _capacity;
+    }
+
+    /**
+     * @param _includeCallerData True if the layout shows the method or line
+     * that logged the event.
+     */
+    public void setIncludeCallerData(boolean _includeCallerData)
+    {
+        this._includeCallerData = _includeCallerData;
+    }
+
+    @Override
+    public void start()
+    {
+        if(_layout == null)
+        {
+            addError("No layout set for the appender named [" + name + "].");
+            return;
+        }
+
+        if(_charset == null)
+        {
+            addError("No charset set for the appender named [" + name + "].");
+            return;
+        }
+
+        if(_capacity < 1)
+        {
+            addError("Invalid capacity [" + _capacity + "] for the appender named [" + name + "].");
+            return;
+        }
+
+        _queue = new ArrayBlockingQueue<>(_capacity);
+        _writer = new Thread(this::writeLoop, "task-driver-console");
+        _writer.setDaemon(true);
+        _writer.start();
+
+        STARTED.add(this);
+        Hook.install();
+        super.start();
+    }
+
+    @Override
+    public void stop()
+    {
+        if(!isStarted())
+        {
+            return;
+        }
+
+        super.stop();
+        STARTED.remove(this);
+        enqueue(Entry.STOP);
+
+        try
+        {
+            _writer.join(FLUSH_TIMEOUT_MS);
+        }
+        catch(InterruptedException _ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent _event)
+    {
+        // values that depend on the logging thread are captured now.
+        _event.prepareForDeferredProcessing();
+        if(_includeCallerData)
+        {
+            _event.getCallerData();
+        }
+
+        Entry _entry = new Entry(_event, ConsoleRouter.currentOut(), null);
+        if(!ConsoleRouter.isDebug())
+        {
+            enqueue(_entry);
+            return;
+        }
+
+        // events that are already buffered are written first.
+        if(!_queue.isEmpty())
+        {
+            flush();
+        }
+
+        synchronized(_writeLock)
+        {
+            List<Entry> _batch = new ArrayList<>(1);
+            _batch.add(_entry);
+            writeBatch(_batch);
+        }
+    }
+
+    /**
+     * Wait until the events that were logged before this call are written.
+     */
+    void flush()
+    {
+        if(!isStarted())
+        {
+            return;
+        }
+
+        CountDownLatch _flushed = new CountDownLatch(1);
+        enqueue(new Entry(null, null, _flushed));
+
+        boolean _interrupted = false;
+        while(true)
+        {
+            try
+            {
+                if(!_flushed.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                {
+                    addWarn("Timed out waiting for console output to be written.");
+                }
+                break;
+            }
+            catch(InterruptedException _ex)
+            {
+                _interrupted = true;
+            }
+        }
+
+        if(_interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add an entry to the buffer and wait for space if it is full. Interrupts
+     * are deferred so a cancelled task does not lose its output.
+     */
+    private void enqueue(Entry _entry)
+    {
+        if(_queue.offer(_entry))
+        {
+            return;
+        }
+
+        boolean _interrupted = false;
+        while(true)
+        {
+            try
+            {
+                _queue.put(_entry);
+                break;
+            }
+            catch(InterruptedException _ex)
+            {
+                _interrupted = true;
+            }
+        }
+
+        if(_interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop()
+    {
+        List<Entry> _batch = new ArrayList<>();
+        while(true)
+        {
+            try
+            {
+                _batch.add(_queue.take());
+            }
+            catch(InterruptedException _ex)
+            {
+                // only stop() ends the writer.
+                continue;
+            }
+
+            _queue.drainTo(_batch);
+            synchronized(_writeLock)
+            {
+                writeBatch(_batch);
+            }
+
+            if(_batch.contains(Entry.STOP))
+            {
+                return;
+            }
+            _batch.clear();
+        }
+    }
+
+    /**
+     * Format the batch and write each run of events that go to the same
+     * console in one call. The consoles are flushed at the end of the batch
+     * and before a flush request is released.
+     */
+    private void writeBatch(List<Entry> _batch)
+    {
+        StringBuilder _text = new StringBuilder();
+        List<PrintStream> _targets = new ArrayList<>(1);
+        PrintStream _target = null;
+
+        for(Entry _entry : _batch)
+        {
+            if(_entry._event == null)
+            {
+                write(_target, _text);
+                flushTargets(_targets);
+                if(_entry._flushed != null)
+                {
+                    _entry._flushed.countDown();
+                }
+                continue;
+            }
+
+            if(_entry._target != _target)
+            {
+                write(_target, _text);
+                _target = _entry._target;
+                if(!_targets.contains(_target))
+                {
+                    _targets.add(_target);
+                }
+            }
+
+            try
+            {
+                _text.append(_layout.doLayout(_entry._event));
+            }
+            catch(RuntimeException _ex)
+            {
+                addError("Could not format event.", _ex);
+            }
+        }
+
+        write(_target, _text);
+        flushTargets(_targets);
+    }
+
+    private void write(PrintStream _target, StringBuilder _text)
+    {
+        if(_text.length() > 0)
+        {
+            byte[] _bytes = _text.toString().getBytes(_charset);
+            _target.write(_bytes, 0, _bytes.length);
+            _text.setLength(0);
+        }
+    }
+
+    private static void flushTargets(List<PrintStream> _targets)
+    {
+        for(PrintStream _target : _targets)
+        {
+            _target.flush();
+        }
+        _targets.clear();
+    }
+
+    /**
+     * Event with the console it goes to or a request to flush.
+     */
+    private static class Entry
+    {
+        static final Entry           STOP = new Entry(null, null, null);
+
+        private final ILoggingEvent  _event;
+        private final PrintStream    _target;
+        private final CountDownLatch _flushed;
+
+        Entry(ILoggingEvent _event, PrintStream _target, CountDownLatch _flushed)
+        {
+            this._event = _event;
+            this._target = _target;
+            this._flushed = _flushed;
+        }
+    }
+
+    /**
+     * Holds the shutdown hook that writes the buffered events when the JVM
+     * exits.
+     */
+    private static class Hook
+    {
+        static
+        {
+            Runtime.getRuntime().addShutdownHook(new Thread(AsyncConsoleAppender::flushAll, "task-driver-console-flush"));
+        }
+
+        static void install()
+        {
+            // hook is added by the class initializer.
+        }
+    }
+}
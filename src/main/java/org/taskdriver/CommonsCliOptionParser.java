@@ -0,0 +1,65 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Parser that uses the commons-cli DefaultParser and copies the result into
+ * the index addressed form.
+ * @author Chad Juliano
+ */
+class CommonsCliOptionParser implements OptionParser
+{
+    private final Options         _optionDefs;
+    private final CompiledOptions _spec;
+
+    /**
+     * Constructor
+     * @param _optionDefs
+     * @param _spec
+     */
+    CommonsCliOptionParser(Options _optionDefs, CompiledOptions _spec)
+    {
+        this._optionDefs = _optionDefs;
+        this._spec = _spec;
+    }
+
+    @Override
+    public TaskDriverOptions parse(String[] _args)
+            throws ParseException
+    {
+        CommandLine _cmd = new DefaultParser().parse(_optionDefs, _args);
+
+        String[] _values = new String[_spec.size()];
+        boolean[] _present = new boolean[_spec.size()];
+        for(Option _opt : _cmd.getOptions())
+        {
+            String _key = CompiledOptions.getKey(_opt);
+            int _idx = _spec.indexOfKey(_key, 0, _key.length());
+            _present[_idx] = true;
+            if(_values[_idx] == null)
+            {
+                _values[_idx] = _opt.getValue();
+            }
+        }
+
+        List<String> _argList = _cmd.getArgList();
+        return new TaskDriverOptions(_spec, _values, _present,
+                _argList.toArray(new String[0]), _argList.size());
+    }
+}
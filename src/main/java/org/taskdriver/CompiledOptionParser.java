@@ -0,0 +1,392 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import org.apache.commons.cli.AmbiguousOptionException;
+import org.apache.commons.cli.MissingArgumentException;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.UnrecognizedOptionException;
+
+/**
+ * Parser that works directly on the compiled option index. It follows the
+ * rules and error messages of the commons-cli DefaultParser for the options
+ * a TaskDriver can define (flags and options with a single argument) but
+ * stores the result in arrays instead of cloning Option objects into
+ * collections.
+ * @author Chad Juliano
+ */
+class CompiledOptionParser implements OptionParser
+{
+    private static final int      NONE = -1;
+
+    private final CompiledOptions _spec;
+
+    /**
+     * Constructor
+     * @param _spec
+     */
+    CompiledOptionParser(CompiledOptions _spec)
+    {
+        this._spec = _spec;
+    }
+
+    @Override
+    public TaskDriverOptions parse(String[] _args)
+            throws ParseException
+    {
+        ParseState _state = new ParseState(_args.length);
+        for(String _token : _args)
+        {
+            _state.handleToken(_token);
+        }
+        _state.checkRequiredArg();
+
+        return new TaskDriverOptions(_spec, _state._values, _state._present, _state._args, _state._argCount);
+    }
+
+    /**
+     * Holds the result of a single parse. The methods mirror the ones in
+     * DefaultParser.
+     */
+    private class ParseState
+    {
+        private final String[]  _values      = new String[_spec.size()];
+        private final boolean[] _present     = new boolean[_spec.size()];
+        private final String[]  _args;
+        private int             _argCount    = 0;
+
+        // option waiting for its argument.
+        private int             _current     = NONE;
+        private boolean         _skipParsing = false;
+
+        public ParseState(int _tokenCount)
+        {
+            this._args = new String[_tokenCount];
+        }
+
+        private void handleToken(String _token)
+                throws ParseException
+        {
+            if(_skipParsing)
+            {
+                _args[_argCount++] = _token;
+            }
+            else if("--".equals(_token))
+            {
+                _skipParsing = true;
+            }
+            else if(_current != NONE && isArgument(_token))
+            {
+                setValue(stripQuotes(_token));
+            }
+            else if(_token.startsWith("--"))
+            {
+                handleLongOption(_token);
+            }
+            else if(_token.startsWith("-") && _token.length() > 1)
+            {
+                handleShortAndLongOption(_token);
+            }
+            else
+            {
+                handleUnknownToken(_token);
+            }
+        }
+
+        private boolean isArgument(String _token)
+        {
+            return !isOption(_token) || isNegativeNumber(_token);
+        }
+
+        private boolean isOption(String _token)
+        {
+            return isLongOption(_token) || isShortOption(_token);
+        }
+
+        private boolean isShortOption(String _token)
+        {
+            return _token.startsWith("-") && _token.length() >= 2 && _spec.indexOfKey(_token, 1, 2) != NONE;
+        }
+
+        private boolean isLongOption(String _token)
+        {
+            if(!_token.startsWith("-") || _token.length() == 1)
+            {
+                return false;
+            }
+
+            int _pos = _token.indexOf('=');
+            int _end = (_pos == -1) ? _token.length() : _pos;
+            int _off = CompiledOptions.hyphenCount(_token);
+
+            if(_spec.matchLong(_token, Math.min(_off, _end), _end) != NONE)
+            {
+                return true;
+            }
+            return !_token.startsWith("--") && getLongPrefix(_token) != NONE;
+        }
+
+        private void handleUnknownToken(String _token)
+                throws ParseException
+        {
+            if(_token.startsWith("-") && _token.length() > 1)
+            {
+                throw new UnrecognizedOptionException("Unrecognized option: " + _token, _token);
+            }
+            _args[_argCount++] = _token;
+        }
+
+        private void handleLongOption(String _token)
+                throws ParseException
+        {
+            if(_token.indexOf('=') == -1)
+            {
+                handleLongOptionWithoutEqual(_token);
+            }
+            else
+            {
+                handleLongOptionWithEqual(_token);
+            }
+        }
+
+        private void handleLongOptionWithoutEqual(String _token)
+                throws ParseException
+        {
+            int _off = CompiledOptions.hyphenCount(_token);
+            int _idx = _spec.matchLong(_token, _off, _token.length());
+            if(_idx == NONE)
+            {
+                handleUnknownToken(_token);
+            }
+            else if(_idx == CompiledOptions.AMBIGUOUS)
+            {
+                throw new AmbiguousOptionException(_token, _spec.getMatchingLong(_token.substring(_off)));
+            }
+            else
+            {
+                handleOption(_idx);
+            }
+        }
+
+        private void handleLongOptionWithEqual(String _token)
+                throws ParseException
+        {
+            int _pos = _token.indexOf('=');
+            int _off = Math.min(CompiledOptions.hyphenCount(_token), _pos);
+
+            int _idx = _spec.matchLong(_token, _off, _pos);
+            if(_idx == NONE)
+            {
+                handleUnknownToken(_token);
+            }
+            else if(_idx == CompiledOptions.AMBIGUOUS)
+            {
+                String _opt = _token.substring(0, _pos);
+                throw new AmbiguousOptionException(_opt, _spec.getMatchingLong(_token.substring(_off, _pos)));
+            }
+            else if(_spec.get(_idx).hasArg())
+            {
+                handleOption(_idx);
+                setValue(_token.substring(_pos + 1));
+            }
+            else
+            {
+                handleUnknownToken(_token);
+            }
+        }
+
+        private void handleShortAndLongOption(String _token)
+                throws ParseException
+        {
+            int _off = CompiledOptions.hyphenCount(_token);
+            int _len = _token.length() - _off;
+            int _pos = _token.indexOf('=', _off);
+
+            if(_len == 1)
+            {
+                // -S
+                int _idx = _spec.indexOfKey(_token, _off, _token.length());
+                if(_idx != NONE)
+                {
+                    handleOption(_idx);
+                }
+                else
+                {
+                    handleUnknownToken(_token);
+                }
+            }
+            else if(_pos == -1)
+            {
+                // no equal sign found (-xxx)
+                int _idx = _spec.indexOfKey(_token, _off, _token.length());
+                if(_idx != NONE)
+                {
+                    handleOption(_idx);
+                }
+                else if(_spec.matchLong(_token, _off, _token.length()) != NONE)
+                {
+                    // -L or -l
+                    handleLongOptionWithoutEqual(_token);
+                }
+                else
+                {
+                    // look for a long prefix (-Xmx512m)
+                    int _prefixIdx = getLongPrefix(_token);
+                    if(_prefixIdx != NONE && _spec.get(_prefixIdx).hasArg())
+                    {
+                        handleOption(_prefixIdx);
+                        setValue(_token.substring(_off + _spec.get(_prefixIdx).getLongOpt().length()));
+                    }
+                    else
+                    {
+                        // -S1S2S3 or -S1S2V
+                        handleConcatenatedOptions(_token);
+                    }
+                }
+            }
+            else if(_pos - _off == 1)
+            {
+                // -S=V
+                int _idx = _spec.indexOfKey(_token, _off, _pos);
+                if(_idx == NONE)
+                {
+                    _idx = _spec.indexOfLong(_token, _off, _pos);
+                }
+
+                if(_idx != NONE && _spec.get(_idx).hasArg())
+                {
+                    handleOption(_idx);
+                    setValue(_token.substring(_pos + 1));
+                }
+                else
+                {
+                    handleUnknownToken(_token);
+                }
+            }
+            else
+            {
+                // -L=V or -l=V
+                handleLongOptionWithEqual(_token);
+            }
+        }
+
+        /**
+         * @return index of the longest long option that is a prefix of the
+         * token without its last character or -1.
+         */
+        private int getLongPrefix(String _token)
+        {
+            int _off = CompiledOptions.hyphenCount(_token);
+            for(int _end = _token.length() - 2; _end > _off + 1; _end--)
+            {
+                int _idx = _spec.indexOfLong(_token, _off, _end);
+                if(_idx != NONE)
+                {
+                    return _idx;
+                }
+            }
+            return NONE;
+        }
+
+        private void handleConcatenatedOptions(String _token)
+                throws ParseException
+        {
+            for(int _pos = 1; _pos < _token.length(); _pos++)
+            {
+                int _idx = _spec.indexOfKey(_token, _pos, _pos + 1);
+                if(_idx == NONE)
+                {
+                    _idx = _spec.indexOfLong(_token, _pos, _pos + 1);
+                }
+
+                if(_idx == NONE)
+                {
+                    handleUnknownToken(_token);
+                    break;
+                }
+
+                handleOption(_idx);
+                if(_current != NONE && _token.length() != _pos + 1)
+                {
+                    // add the trail as an argument of the option
+                    setValue(_token.substring(_pos + 1));
+                    break;
+                }
+            }
+        }
+
+        private void handleOption(int _idx)
+                throws ParseException
+        {
+            // check the previous option before handling the next one
+            checkRequiredArg();
+
+            _present[_idx] = true;
+            _current = _spec.get(_idx).hasArg() ? _idx : NONE;
+        }
+
+        private void setValue(String _value)
+        {
+            // like CommandLine.getOptionValue() the first occurrence wins.
+            if(_values[_current] == null)
+            {
+                _values[_current] = _value;
+            }
+            _current = NONE;
+        }
+
+        private void checkRequiredArg()
+                throws MissingArgumentException
+        {
+            if(_current != NONE)
+            {
+                Option _option = _spec.get(_current);
+                throw new MissingArgumentException(_option);
+            }
+        }
+    }
+
+    /**
+     * Remove a pair of surrounding double quotes as done by commons-cli.
+     * @param _token
+     * @return
+     */
+    private static String stripQuotes(String _token)
+    {
+        int _len = _token.length();
+        if(_len > 1 && _token.charAt(0) == '"' && _token.charAt(_len - 1) == '"'
+                && _token.indexOf('"', 1) == _len - 1)
+        {
+            return _token.substring(1, _len - 1);
+        }
+        return _token;
+    }
+
+    /**
+     * Only reached when an option that looks like an option follows one that
+     * needs an argument, so the exception is not on the common path.
+     * @param _token
+     * @return
+     */
+    private static boolean isNegativeNumber(String _token)
+    {
+        try
+        {
+            Double.parseDouble(_token);
+            return true;
+        }
+        catch(NumberFormatException _ex)
+        {
+            return false;
+        }
+    }
+}
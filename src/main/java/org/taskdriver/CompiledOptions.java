@@ -0,0 +1,289 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+/**
+ * Immutable index of the option definitions that is built once when the
+ * driver is sealed. Each option is identified by its position so parse
+ * results can be stored in arrays. Single character names are found with an
+ * array lookup and long names with a binary search of the sorted names, which
+ * also gives the range of names that start with a prefix.
+ * <p>
+ * The lookups follow the rules of commons-cli Options: the key of an option
+ * is its short name or its long name if there is no short name.
+ * @author Chad Juliano
+ */
+final class CompiledOptions
+{
+    private static final int           ASCII_SIZE = 128;
+    private static final int           NOT_FOUND  = -1;
+
+    /** Returned by matchLong() when more than one long name matches. */
+    static final int                   AMBIGUOUS  = -2;
+
+    private final Option[]             _options;
+    private final int[]                _asciiKeys = new int[ASCII_SIZE];
+    private final Map<String, Integer> _otherKeys = new HashMap<>();
+    private final String[]             _sortedLong;
+    private final int[]                _sortedLongIdx;
+
+    /**
+     * Constructor
+     * @param _optionDefs Option definitions to index.
+     */
+    CompiledOptions(Options _optionDefs)
+    {
+        // Options.getOptions() preserves the order the options were added.
+        this._options = _optionDefs.getOptions().toArray(new Option[0]);
+        Arrays.fill(_asciiKeys, NOT_FOUND);
+
+        List<String> _longNames = new ArrayList<>();
+        for(int _idx = 0; _idx < _options.length; _idx++)
+        {
+            String _key = getKey(_options[_idx]);
+            if(_key.length() == 1 && _key.charAt(0) < ASCII_SIZE)
+            {
+                _asciiKeys[_key.charAt(0)] = _idx;
+            }
+            else
+            {
+                _otherKeys.put(_key, _idx);
+            }
+
+            if(_options[_idx].hasLongOpt())
+            {
+                _longNames.add(_options[_idx].getLongOpt());
+            }
+        }
+
+        this._sortedLong = _longNames.toArray(new String[0]);
+        Arrays.sort(_sortedLong);
+        this._sortedLongIdx = new int[_sortedLong.length];
+        for(int _pos = 0; _pos < _sortedLong.length; _pos++)
+        {
+            _sortedLongIdx[_pos] = findLongOpt(_sortedLong[_pos]);
+        }
+    }
+
+    /**
+     * @return number of options.
+     */
+    int size()
+    {
+        return _options.length;
+    }
+
+    /**
+     * @param _idx
+     * @return the option definition at the index.
+     */
+    Option get(int _idx)
+    {
+        return _options[_idx];
+    }
+
+    /**
+     * Find an option by short or long name with optional leading hyphens. Like
+     * Options.getOption() the key is checked before the long name.
+     * @param _opt
+     * @return index or -1 if not found.
+     */
+    int indexOf(String _opt)
+    {
+        int _off = hyphenCount(_opt);
+        int _idx = indexOfKey(_opt, _off, _opt.length());
+        if(_idx < 0)
+        {
+            _idx = indexOfLong(_opt, _off, _opt.length());
+        }
+        return _idx;
+    }
+
+    /**
+     * Find an option by key. The name is the region of the token from _off to
+     * _end.
+     * @return index or -1 if not found.
+     */
+    int indexOfKey(String _token, int _off, int _end)
+    {
+        if(_end - _off == 1)
+        {
+            char _ch = _token.charAt(_off);
+            if(_ch < ASCII_SIZE)
+            {
+                return _asciiKeys[_ch];
+            }
+        }
+
+        if(_otherKeys.isEmpty())
+        {
+            return NOT_FOUND;
+        }
+
+        Integer _idx = _otherKeys.get(_token.substring(_off, _end));
+        return (_idx != null) ? _idx : NOT_FOUND;
+    }
+
+    /**
+     * Find an option with exactly the given long name.
+     * @return index or -1 if not found.
+     */
+    int indexOfLong(String _token, int _off, int _end)
+    {
+        int _pos = searchLong(_token, _off, _end);
+        return (_pos >= 0) ? _sortedLongIdx[_pos] : NOT_FOUND;
+    }
+
+    /**
+     * Find the long option matched by a name or unique prefix of a name. This
+     * is the rule of Options.getMatchingOptions().
+     * @return index, -1 if nothing matched, or AMBIGUOUS.
+     */
+    int matchLong(String _token, int _off, int _end)
+    {
+        int _pos = searchLong(_token, _off, _end);
+        if(_pos >= 0)
+        {
+            return _sortedLongIdx[_pos];
+        }
+
+        // names with the prefix are sorted after the insertion point.
+        _pos = -_pos - 1;
+        if(_pos >= _sortedLong.length || !startsWith(_sortedLong[_pos], _token, _off, _end))
+        {
+            return NOT_FOUND;
+        }
+
+        if(_pos + 1 < _sortedLong.length && startsWith(_sortedLong[_pos + 1], _token, _off, _end))
+        {
+            return AMBIGUOUS;
+        }
+        return _sortedLongIdx[_pos];
+    }
+
+    /**
+     * Get the long names that start with the prefix in the order the options
+     * were added. This is only needed for error messages.
+     * @return
+     */
+    List<String> getMatchingLong(String _prefix)
+    {
+        List<String> _result = new ArrayList<>();
+        for(Option _option : _options)
+        {
+            if(_option.hasLongOpt() && _option.getLongOpt().startsWith(_prefix))
+            {
+                _result.add(_option.getLongOpt());
+            }
+        }
+        return _result;
+    }
+
+    /**
+     * Get the name commons-cli uses to identify an option.
+     * @param _option
+     * @return short name or the long name if there is no short name.
+     */
+    static String getKey(Option _option)
+    {
+        return (_option.getOpt() != null) ? _option.getOpt() : _option.getLongOpt();
+    }
+
+    /**
+     * @return the number of leading hyphens stripped by commons-cli.
+     */
+    static int hyphenCount(String _token)
+    {
+        if(_token.startsWith("--"))
+        {
+            return 2;
+        }
+        return _token.startsWith("-") ? 1 : 0;
+    }
+
+    /**
+     * Binary search of the sorted long names for a region of the token.
+     * @return position or (-(insertion point) - 1) as in Arrays.binarySearch().
+     */
+    private int searchLong(String _token, int _off, int _end)
+    {
+        int _low = 0;
+        int _high = _sortedLong.length - 1;
+
+        while(_low <= _high)
+        {
+            int _mid = (_low + _high) >>> 1;
+            int _cmp = compareRegion(_sortedLong[_mid], _token, _off, _end);
+            if(_cmp < 0)
+            {
+                _low = _mid + 1;
+            }
+            else if(_cmp > 0)
+            {
+                _high = _mid - 1;
+            }
+            else
+            {
+                return _mid;
+            }
+        }
+        return -(_low + 1);
+    }
+
+    /**
+     * Compare a name with a region of a token like String.compareTo().
+     */
+    private static int compareRegion(String _name, String _token, int _off, int _end)
+    {
+        int _len = Math.min(_name.length(), _end - _off);
+        for(int _idx = 0; _idx < _len; _idx++)
+        {
+            int _diff = _name.charAt(_idx) - _token.charAt(_off + _idx);
+            if(_diff != 0)
+            {
+                return _diff;
+            }
+        }
+        return _name.length() - (_end - _off);
+    }
+
+    /**
+     * @return true if the name starts with the region of the token.
+     */
+    private static boolean startsWith(String _name, String _token, int _off, int _end)
+    {
+        return _name.length() >= _end - _off && _name.regionMatches(0, _token, _off, _end - _off);
+    }
+
+    /**
+     * @return index of the option with the long name.
+     */
+    private int findLongOpt(String _longOpt)
+    {
+        for(int _idx = 0; _idx < _options.length; _idx++)
+        {
+            if(_longOpt.equals(_options[_idx].getLongOpt()))
+            {
+                return _idx;
+            }
+        }
+        return NOT_FOUND;
+    }
+}
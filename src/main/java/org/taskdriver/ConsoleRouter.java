@@ -0,0 +1,381 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Replaces System.out, System.err and System.in with streams that forward to
+ * a per-thread target. This lets the daemon give each client its own console
+ * while Logback and the tasks keep writing to System.out.
+ * <p>
+ * The route is not inherited by new threads because pooled threads outlive
+ * the client that started them. Code that hands work to another thread sets
+ * the route of the work explicitly with wrap(), newThread() or newPool().
+ * Threads without a route write to the system console.
+ * <p>
+ * A route also holds the packages that log debug messages for a run, so
+ * --debug only applies to the threads of the run that gave it, and what the
+ * watchdog does when a task of the route does not stop.
+ * @author Chad Juliano
+ */
+final class ConsoleRouter
+{
+    private static final PrintStream        SYSTEM_OUT = System.out;
+    private static final PrintStream        SYSTEM_ERR = System.err;
+    private static final InputStream        SYSTEM_IN  = System.in;
+
+    private static final ThreadLocal<Route> ROUTE      = new ThreadLocal<>();
+
+    private static boolean                  _installed = false;
+
+    private ConsoleRouter()
+    {}
+
+    /**
+     * The console of a daemon client or a run.
+     */
+    static final class Route
+    {
+        private final PrintStream _out;
+        private final PrintStream _err;
+        private final InputStream _in;
+        private final Set<String> _debugPackages = ConcurrentHashMap.newKeySet();
+        private volatile Runnable _stuckHandler  = null;
+
+        private Route(PrintStream _out, PrintStream _err, InputStream _in)
+        {
+            this._out = _out;
+            this._err = _err;
+            this._in = _in;
+        }
+    }
+
+    /**
+     * Replace the system streams with routing streams. This only needs to be
+     * called once.
+     */
+    static synchronized void install()
+    {
+        if(_installed)
+        {
+            return;
+        }
+
+        System.setOut(new PrintStream(new RoutedOutputStream(false), true));
+        System.setErr(new PrintStream(new RoutedOutputStream(true), true));
+        System.setIn(new RoutedInputStream());
+        _installed = true;
+    }
+
+    /**
+     * Route the console of the current thread.
+     * @param _out
+     * @param _err
+     * @param _in
+     */
+    static void route(PrintStream _out, PrintStream _err, InputStream _in)
+    {
+        ROUTE.set(new Route(_out, _err, _in));
+    }
+
+    /**
+     * Give the current thread a route to the system console if it has none,
+     * so the settings of a run end with the run.
+     * @return true if a route was created and must be cleared.
+     */
+    static boolean enter()
+    {
+        if(ROUTE.get() != null)
+        {
+            return false;
+        }
+
+        ROUTE.set(new Route(SYSTEM_OUT, SYSTEM_ERR, SYSTEM_IN));
+        return true;
+    }
+
+    /**
+     * Restore the system console for the current thread.
+     */
+    static void clear()
+    {
+        ROUTE.remove();
+    }
+
+    /**
+     * @return the route of the current thread or null for the system console.
+     */
+    static Route current()
+    {
+        return ROUTE.get();
+    }
+
+    /**
+     * Wrap work that runs on another thread so it uses the console of the
+     * current thread. The route of the thread that runs it is restored when
+     * it is done, so a pooled thread does not keep the route.
+     * @param _runnable
+     * @return
+     */
+    static Runnable wrap(Runnable _runnable)
+    {
+        Route _route = ROUTE.get();
+        return () ->
+        {
+            Route _previous = ROUTE.get();
+            ROUTE.set(_route);
+            try
+            {
+                _runnable.run();
+            }
+            finally
+            {
+                ROUTE.set(_previous);
+            }
+        };
+    }
+
+    /**
+     * Create a thread that uses the console of the current thread.
+     * @param _runnable
+     * @param _name
+     * @return
+     */
+    static Thread newThread(Runnable _runnable, String _name)
+    {
+        return new Thread(wrap(_runnable), _name);
+    }
+
+    /**
+     * Start work on a daemon thread that uses the console of the current
+     * thread. If the current thread belongs to a pool from newPool() the work
+     * runs on that pool instead so its parallel streams keep the route.
+     * @param _runnable
+     * @param _name Name of the thread if a new one is started.
+     */
+    static void start(Runnable _runnable, String _name)
+    {
+        Thread _current = Thread.currentThread();
+        if(_current instanceof RoutedWorker)
+        {
+            ((RoutedWorker)_current).getPool().execute(wrap(_runnable));
+            return;
+        }
+
+        Thread _thread = newThread(_runnable, _name);
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Create a fork/join pool whose threads use the console of the current
+     * thread. Parallel streams that are started on one of its threads also
+     * run on the pool and not on the common pool, whose threads have no
+     * route.
+     * @param _parallelism
+     * @return
+     */
+    static ForkJoinPool newPool(int _parallelism)
+    {
+        Route _route = ROUTE.get();
+        return new ForkJoinPool(_parallelism, _pool -> new RoutedWorker(_pool, _route), null, false);
+    }
+
+    /**
+     * Turn on debug messages of a package for the threads of the current
+     * route.
+     * @param _packageName
+     * @return false if the current thread has no route.
+     */
+    static boolean addDebugPackage(String _packageName)
+    {
+        Route _route = ROUTE.get();
+        if(_route == null)
+        {
+            return false;
+        }
+
+        _route._debugPackages.add(_packageName);
+        return true;
+    }
+
+    /**
+     * @return true if debug messages were turned on for the current route.
+     */
+    static boolean isDebug()
+    {
+        Route _route = ROUTE.get();
+        return _route != null && !_route._debugPackages.isEmpty();
+    }
+
+    /**
+     * @param _loggerName
+     * @return true if debug messages were turned on for the package of a
+     * logger in the current route.
+     */
+    static boolean isDebug(String _loggerName)
+    {
+        Route _route = ROUTE.get();
+        if(_route == null)
+        {
+            return false;
+        }
+
+        for(String _packageName : _route._debugPackages)
+        {
+            int _length = _packageName.length();
+            if(_loggerName.startsWith(_packageName)
+                    && (_loggerName.length() == _length || _loggerName.charAt(_length) == '.'))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set what the watchdog does instead of halting the JVM when a task of
+     * the current route does not stop after it was cancelled.
+     * @param _handler
+     */
+    static void setStuckHandler(Runnable _handler)
+    {
+        ROUTE.get()._stuckHandler = _handler;
+    }
+
+    /**
+     * @return the handler for a stuck task of the current route or null if
+     * the JVM should be halted.
+     */
+    static Runnable getStuckHandler()
+    {
+        Route _route = ROUTE.get();
+        return (_route != null) ? _route._stuckHandler : null;
+    }
+
+    /**
+     * Get the stream that System.out currently resolves to for this thread.
+     * @return
+     */
+    static PrintStream currentOut()
+    {
+        Route _route = ROUTE.get();
+        return (_route != null) ? _route._out : SYSTEM_OUT;
+    }
+
+    /**
+     * Get the stream that System.err currently resolves to for this thread.
+     * @return
+     */
+    static PrintStream currentErr()
+    {
+        Route _route = ROUTE.get();
+        return (_route != null) ? _route._err : SYSTEM_ERR;
+    }
+
+    /**
+     * Thread of a pool from newPool() that keeps the route of the pool.
+     */
+    private static final class RoutedWorker extends ForkJoinWorkerThread
+    {
+        private final Route _route;
+
+        RoutedWorker(ForkJoinPool _pool, Route _route)
+        {
+            super(_pool);
+            this._route = _route;
+        }
+
+        @Override
+        protected void onStart()
+        {
+            super.onStart();
+            ROUTE.set(_route);
+        }
+    }
+
+    /**
+     * Output stream that writes to the routed target of the calling thread.
+     */
+    private static class RoutedOutputStream extends OutputStream
+    {
+        private final boolean _err;
+
+        public RoutedOutputStream(boolean _err)
+        {
+            this._err = _err;
+        }
+
+        private PrintStream target()
+        {
+            return _err ? currentErr() : currentOut();
+        }
+
+        @Override
+        public void write(int _byte)
+        {
+            target().write(_byte);
+        }
+
+        @Override
+        public void write(byte[] _buf, int _off, int _len)
+        {
+            target().write(_buf, _off, _len);
+        }
+
+        @Override
+        public void flush()
+        {
+            target().flush();
+        }
+    }
+
+    /**
+     * Input stream that reads from the routed source of the calling thread.
+     */
+    private static class RoutedInputStream extends InputStream
+    {
+        private InputStream source()
+        {
+            Route _route = ROUTE.get();
+            return (_route != null) ? _route._in : SYSTEM_IN;
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            return source().read();
+        }
+
+        @Override
+        public int read(byte[] _buf, int _off, int _len)
+                throws IOException
+        {
+            return source().read(_buf, _off, _len);
+        }
+
+        @Override
+        public int available()
+                throws IOException
+        {
+            return source().available();
+        }
+    }
+}
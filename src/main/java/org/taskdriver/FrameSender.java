@@ -0,0 +1,243 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the console output of a daemon client from a thread of its own so a
+ * client that reads slowly only holds up itself. Without it a slow client
+ * would block the console writer that all clients share and, once that
+ * writer's buffer is full, every thread that logs.
+ * <p>
+ * Up to BUFFER_BYTES of output are buffered. A write that finds the buffer
+ * full waits up to WRITE_TIMEOUT_MS for the client. After that the output of
+ * the client is dropped until the buffer is empty again and the client gets a
+ * message on stderr with the number of bytes that were lost. Output written
+ * after the connection failed is discarded.
+ * @author Chad Juliano
+ */
+final class FrameSender
+{
+    private static final int         BUFFER_BYTES     = 1 << 20;
+    private static final long        WRITE_TIMEOUT_MS = 1000;
+
+    private final DataOutputStream   _out;
+    private final ArrayDeque<Frame>  _frames          = new ArrayDeque<>();
+    private final Thread             _thread;
+    private long                     _bufferedBytes   = 0;
+    private long                     _droppedBytes    = 0;
+    private boolean                  _dropping        = false;
+    private boolean                  _closed          = false;
+    private boolean                  _failed          = false;
+
+    /**
+     * Start the thread that sends the frames.
+     * @param _out Connection of the client.
+     * @param _name Name of the thread.
+     */
+    FrameSender(DataOutputStream _out, String _name)
+    {
+        this._out = _out;
+        this._thread = new Thread(this::sendLoop, _name);
+        this._thread.setDaemon(true);
+        this._thread.start();
+    }
+
+    /**
+     * @param _type Frame type of everything written to the stream.
+     * @return a stream that buffers its writes as frames of the given type.
+     */
+    OutputStream stream(int _type)
+    {
+        return new OutputStream()
+        {
+            @Override
+            public void write(int _byte)
+            {
+                write(new byte[] { (byte)_byte }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] _buf, int _off, int _len)
+            {
+                if(_len > 0)
+                {
+                    send(_type, Arrays.copyOfRange(_buf, _off, _off + _len));
+                }
+            }
+        };
+    }
+
+    /**
+     * Send the buffered frames and stop the thread. This waits as long as
+     * the client keeps reading.
+     */
+    void close()
+    {
+        synchronized(this)
+        {
+            _closed = true;
+            notifyAll();
+        }
+
+        boolean _interrupted = false;
+        while(true)
+        {
+            try
+            {
+                _thread.join();
+                break;
+            }
+            catch(InterruptedException _ex)
+            {
+                _interrupted = true;
+            }
+        }
+
+        if(_interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Add a frame to the buffer. Interrupts are deferred so a cancelled task
+     * does not lose its output.
+     */
+    private synchronized void send(int _type, byte[] _data)
+    {
+        if(_closed || _failed)
+        {
+            return;
+        }
+
+        boolean _interrupted = false;
+        long _deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MS);
+        while(!_dropping && !_failed && _bufferedBytes > 0 && _bufferedBytes + _data.length > BUFFER_BYTES)
+        {
+            long _remainingMs = TimeUnit.NANOSECONDS.toMillis(_deadline - System.nanoTime());
+            if(_remainingMs <= 0)
+            {
+                _dropping = true;
+                break;
+            }
+
+            try
+            {
+                wait(_remainingMs);
+            }
+            catch(InterruptedException _ex)
+            {
+                _interrupted = true;
+            }
+        }
+
+        if(_interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if(_failed)
+        {
+            return;
+        }
+
+        if(_dropping)
+        {
+            _droppedBytes += _data.length;
+            return;
+        }
+
+        _frames.add(new Frame(_type, _data));
+        _bufferedBytes += _data.length;
+        notifyAll();
+    }
+
+    private void sendLoop()
+    {
+        try
+        {
+            while(true)
+            {
+                Frame _frame;
+                synchronized(this)
+                {
+                    while(_frames.isEmpty() && !_closed)
+                    {
+                        wait();
+                    }
+
+                    _frame = _frames.peek();
+                    if(_frame == null)
+                    {
+                        return;
+                    }
+                }
+
+                TaskDriverClient.writeFrame(_out, _frame._type, _frame._data, 0, _frame._data.length);
+
+                long _dropped = 0;
+                synchronized(this)
+                {
+                    _frames.remove();
+                    _bufferedBytes -= _frame._data.length;
+                    if(_frames.isEmpty() && _dropping)
+                    {
+                        _dropped = _droppedBytes;
+                        _droppedBytes = 0;
+                        _dropping = false;
+                    }
+                    notifyAll();
+                }
+
+                if(_dropped > 0)
+                {
+                    byte[] _message = String.format("[%d bytes of output were dropped because the client did not "
+                            + "keep up]%n", _dropped).getBytes(StandardCharsets.UTF_8);
+                    TaskDriverClient.writeFrame(_out, TaskDriverClient.FRAME_STDERR, _message, 0, _message.length);
+                }
+            }
+        }
+        catch(IOException | InterruptedException _ex)
+        {
+            // the client disconnected. its tasks are cancelled by the daemon.
+            synchronized(this)
+            {
+                _failed = true;
+                _frames.clear();
+                _bufferedBytes = 0;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Output of one write.
+     */
+    private static class Frame
+    {
+        private final int    _type;
+        private final byte[] _data;
+
+        Frame(int _type, byte[] _data)
+        {
+            this._type = _type;
+            this._data = _data;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of nanosecond latencies. Values are counted in buckets
+ * that split each power of two into 16 parts, so a percentile is accurate to
+ * about 6% of its value. Recording is a few shifts and an atomic increment.
+ * @author Chad Juliano
+ */
+final class LatencyHistogram
+{
+    private static final int       SUB_BUCKET_BITS  = 4;
+    private static final int       SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int       BUCKET_COUNT     = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final String           _name;
+    private final AtomicLongArray  _buckets         = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder        _count           = new LongAdder();
+    private final LongAdder        _failures        = new LongAdder();
+    private final LongAdder        _totalNanos      = new LongAdder();
+    private final LongAccumulator  _maxNanos        = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Constructor
+     * @param _name Name of the statistics.
+     */
+    LatencyHistogram(String _name)
+    {
+        this._name = _name;
+    }
+
+    /**
+     * Record a latency.
+     * @param _nanos
+     * @param _failed True if the operation failed.
+     */
+    void record(long _nanos, boolean _failed)
+    {
+        long _value = Math.max(_nanos, 0);
+        _buckets.incrementAndGet(getBucket(_value));
+        _count.increment();
+        _totalNanos.add(_value);
+        _maxNanos.accumulate(_value);
+        if(_failed)
+        {
+            _failures.increment();
+        }
+    }
+
+    /**
+     * @return number of recorded values.
+     */
+    long getCount()
+    {
+        return _count.sum();
+    }
+
+    /**
+     * @return number of recorded failures.
+     */
+    long getFailures()
+    {
+        return _failures.sum();
+    }
+
+    /**
+     * Take a snapshot of the histogram.
+     * @return
+     */
+    TaskStatistics getStatistics()
+    {
+        long[] _counts = new long[BUCKET_COUNT];
+        long _total = 0;
+        for(int _idx = 0; _idx < BUCKET_COUNT; _idx++)
+        {
+            _counts[_idx] = _buckets.get(_idx);
+            _total += _counts[_idx];
+        }
+
+        // the middle of a bucket can be above the largest value.
+        long _sum = _totalNanos.sum();
+        long _max = _maxNanos.get();
+        return new TaskStatistics(_name,
+                _count.sum(),
+                _failures.sum(),
+                (_total == 0) ? 0 : _sum / _total,
+                Math.min(getPercentile(_counts, _total, 0.50), _max),
+                Math.min(getPercentile(_counts, _total, 0.99), _max),
+                Math.min(getPercentile(_counts, _total, 0.999), _max),
+                _max);
+    }
+
+    /**
+     * @return the bucket that counts the value.
+     */
+    static int getBucket(long _value)
+    {
+        if(_value < SUB_BUCKET_COUNT)
+        {
+            return (int)_value;
+        }
+
+        int _exponent = 63 - Long.numberOfLeadingZeros(_value);
+        int _subBucket = (int)(_value >>> (_exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (_exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + _subBucket;
+    }
+
+    /**
+     * @return the smallest value counted by the bucket.
+     */
+    static long getBucketStart(int _bucket)
+    {
+        if(_bucket < SUB_BUCKET_COUNT)
+        {
+            return _bucket;
+        }
+
+        int _exponent = _bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long _subBucket = SUB_BUCKET_COUNT + (_bucket % SUB_BUCKET_COUNT);
+        return _subBucket << (_exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return the middle of the bucket that contains the percentile.
+     */
+    private static long getPercentile(long[] _counts, long _total, double _percentile)
+    {
+        if(_total == 0)
+        {
+            return 0;
+        }
+
+        long _rank = (long)Math.ceil(_total * _percentile);
+        long _seen = 0;
+        for(int _idx = 0; _idx < _counts.length; _idx++)
+        {
+            _seen += _counts[_idx];
+            if(_seen >= _rank)
+            {
+                long _start = getBucketStart(_idx);
+                long _end = (_idx + 1 < BUCKET_COUNT) ? getBucketStart(_idx + 1) : Long.MAX_VALUE;
+                return _start + (_end - _start) / 2;
+            }
+        }
+        return getBucketStart(_counts.length - 1);
+    }
+}
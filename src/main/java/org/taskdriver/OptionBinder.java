@@ -0,0 +1,41 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Defines the options of an options class and assigns its fields from a
+ * parsed command line. Implementations are generated from {@link TaskOption}
+ * annotations.
+ * @author Chad Juliano
+ * @param <T> Class with the option fields.
+ */
+public interface OptionBinder<T>
+{
+    /**
+     * Add the option definitions.
+     * @param _optionDefs
+     */
+    void define(Options _optionDefs);
+
+    /**
+     * Create an options object with the values of a command line. Options
+     * that were not given keep the initial value of their field.
+     * @param _cmd
+     * @return
+     * @throws ParseException if a required option is missing or a value can
+     * not be converted.
+     */
+    T bind(TaskDriverOptions _cmd)
+            throws ParseException;
+}
@@ -0,0 +1,141 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Formats the usage line and the option section of the help screen in the
+ * layout of the commons-cli HelpFormatter. The options are sorted by name,
+ * the descriptions start in the same column and long lines wrap at a space.
+ * @author Chad Juliano
+ */
+final class OptionHelp
+{
+    private static final String USAGE_PREFIX = "usage: ";
+
+    private OptionHelp()
+    {}
+
+    /**
+     * Format the usage line and the options.
+     * @param _syntax Command line syntax that follows the usage prefix.
+     * @param _options
+     * @param _width Maximum width of a line.
+     * @param _indent Spaces before each option.
+     * @param _descPad Spaces between the longest option and the descriptions.
+     * @return the lines without a trailing line break.
+     */
+    static String format(String _syntax, Collection<Option> _options, int _width, int _indent, int _descPad)
+    {
+        StringBuilder _sb = new StringBuilder();
+        appendWrapped(_sb, USAGE_PREFIX + _syntax, _width, USAGE_PREFIX.length() + _syntax.indexOf(' ') + 1);
+        _sb.append('\n');
+
+        List<Option> _sorted = new ArrayList<>(_options);
+        _sorted.sort((_opt1, _opt2) -> getKey(_opt1).compareToIgnoreCase(getKey(_opt2)));
+
+        List<String> _names = new ArrayList<>(_sorted.size());
+        int _maxName = 0;
+        for(Option _option : _sorted)
+        {
+            String _name = formatName(_option, StringUtils.repeat(" ", _indent));
+            _names.add(_name);
+            _maxName = Math.max(_maxName, _name.length());
+        }
+
+        for(int _idx = 0; _idx < _sorted.size(); _idx++)
+        {
+            if(_idx > 0)
+            {
+                _sb.append('\n');
+            }
+
+            String _desc = StringUtils.defaultString(_sorted.get(_idx).getDescription());
+            String _line = StringUtils.rightPad(_names.get(_idx), _maxName + _descPad) + _desc;
+            appendWrapped(_sb, _line, _width, _maxName + _descPad);
+        }
+        return _sb.toString();
+    }
+
+    /**
+     * @return the short name of an option or the long name if it has no
+     * short name.
+     */
+    private static String getKey(Option _option)
+    {
+        return (_option.getOpt() == null) ? _option.getLongOpt() : _option.getOpt();
+    }
+
+    /**
+     * @return the names of an option like "-h,--help" or "   --batch &lt;arg&gt;".
+     */
+    private static String formatName(Option _option, String _indent)
+    {
+        StringBuilder _sb = new StringBuilder(_indent);
+        if(_option.getOpt() == null)
+        {
+            _sb.append("   --").append(_option.getLongOpt());
+        }
+        else
+        {
+            _sb.append('-').append(_option.getOpt());
+            if(_option.hasLongOpt())
+            {
+                _sb.append(",--").append(_option.getLongOpt());
+            }
+        }
+
+        if(_option.hasArg())
+        {
+            String _argName = _option.getArgName();
+            if(_argName != null && _argName.isEmpty())
+            {
+                _sb.append(' ');
+            }
+            else
+            {
+                _sb.append(" <").append(_argName != null ? _argName : "arg").append('>');
+            }
+        }
+        return _sb.toString();
+    }
+
+    /**
+     * Append a line that is wrapped at the last space before the width. A
+     * word that is longer than a line is split.
+     * @param _tabStop Spaces before each line after the first.
+     */
+    private static void appendWrapped(StringBuilder _sb, String _text, int _width, int _tabStop)
+    {
+        String _padding = StringUtils.repeat(" ", (_tabStop < _width) ? _tabStop : 1);
+        String _line = _text;
+        int _minPos = 1;
+        while(_line.length() > _width)
+        {
+            int _pos = _line.lastIndexOf(' ', _width);
+            if(_pos < _minPos)
+            {
+                _pos = _width;
+            }
+
+            _sb.append(StringUtils.stripEnd(_line.substring(0, _pos), null)).append('\n');
+            _line = _padding + _line.substring(_pos).trim();
+            _minPos = _padding.length();
+        }
+        _sb.append(StringUtils.stripEnd(_line, null));
+    }
+}
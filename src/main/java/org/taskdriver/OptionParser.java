@@ -0,0 +1,30 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Parses a command line against the compiled option definitions.
+ * Implementations must be thread safe.
+ * @author Chad Juliano
+ */
+interface OptionParser
+{
+    /**
+     * Parse the options and collect the remaining arguments.
+     * @param _args Command line parameters.
+     * @return
+     * @throws ParseException
+     */
+    TaskDriverOptions parse(String[] _args)
+            throws ParseException;
+}
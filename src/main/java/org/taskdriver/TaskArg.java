@@ -0,0 +1,38 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a required argument of a task in {@link TaskSpec#args()}.
+ * @author Chad Juliano
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({})
+public @interface TaskArg
+{
+    /**
+     * @return name of the argument on the help screen.
+     */
+    String value();
+
+    /**
+     * @return type the argument is converted to. This must be one of the
+     * types of {@link ArgConverters} or an enum. String arguments are not
+     * converted.
+     */
+    Class<?> type() default String.class;
+}
@@ -0,0 +1,246 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Iterates over the arguments of a task. An argument "@file" is replaced by
+ * the lines of the file and "-" by the lines of stdin. The lines are read
+ * when the task takes them so a list of any size can be passed without
+ * holding it in memory and the task can start before the list is read.
+ * Empty lines are skipped and "@@" passes an argument that starts with "@".
+ * <p>
+ * A worker started with --workers asks the coordinator for each line of
+ * stdin by writing a request to its stdout so the lines go to the worker
+ * that is ready for them.
+ * @author Chad Juliano
+ */
+final class TaskArgSource implements Iterator<String>, Closeable
+{
+    static final String          STDIN      = "-";
+    private static final char    FILE_MARK  = '@';
+
+    private final List<String>   _args;
+    private final Path           _workingDir;
+    private int                  _argIndex  = 0;
+    private BufferedReader       _reader    = null;
+    private String               _readerName;
+    private boolean              _readerIsStdin;
+    private String               _next      = null;
+    private PrintStream          _requests  = null;
+
+    /**
+     * Constructor
+     * @param _args Arguments given on the command line.
+     * @param _workingDir Directory relative names are resolved against or null.
+     */
+    TaskArgSource(List<String> _args, Path _workingDir)
+    {
+        this._args = _args;
+        this._workingDir = _workingDir;
+    }
+
+    /**
+     * Check that the argument files can be read before any task is started.
+     * @param _args Arguments of all tasks on the command line.
+     * @param _workingDir Directory relative names are resolved against or null.
+     * @throws ParseException
+     */
+    static void checkSources(List<String> _args, Path _workingDir)
+            throws ParseException
+    {
+        boolean _hasStdin = false;
+        for(String _arg : _args)
+        {
+            if(STDIN.equals(_arg))
+            {
+                if(_hasStdin)
+                {
+                    throw new ParseException("Arguments can only be read from stdin once.");
+                }
+                _hasStdin = true;
+            }
+            else if(isFileArg(_arg))
+            {
+                Path _path = resolve(_arg.substring(1), _workingDir);
+                if(!Files.isReadable(_path))
+                {
+                    throw new ParseException("Can not read argument file: " + _path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a file or stdin if the name is "-".
+     * @param _source
+     * @param _workingDir Directory relative names are resolved against or null.
+     * @return
+     * @throws IOException
+     */
+    static BufferedReader open(String _source, Path _workingDir)
+            throws IOException
+    {
+        if(STDIN.equals(_source))
+        {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedReader(resolve(_source, _workingDir), StandardCharsets.UTF_8);
+    }
+
+    private static Path resolve(String _fileName, Path _workingDir)
+    {
+        Path _path = Paths.get(_fileName);
+        if(_workingDir != null)
+        {
+            _path = _workingDir.resolve(_path);
+        }
+        return _path;
+    }
+
+    /**
+     * @return true if the argument names a file to read arguments from.
+     */
+    static boolean isFileArg(String _arg)
+    {
+        return _arg.length() > 1 && _arg.charAt(0) == FILE_MARK && _arg.charAt(1) != FILE_MARK;
+    }
+
+    /**
+     * Write a request before each line is read from stdin.
+     * @param _requests Stream the requests are written to.
+     * @see TaskWorkers#REQUEST
+     */
+    void setRequests(PrintStream _requests)
+    {
+        this._requests = _requests;
+    }
+
+    /**
+     * @return the arguments given on the command line before any sources were read.
+     */
+    List<String> getArgs()
+    {
+        return _args;
+    }
+
+    /**
+     * @throws UncheckedIOException if an argument file could not be read.
+     */
+    @Override
+    public boolean hasNext()
+    {
+        try
+        {
+            while(_next == null)
+            {
+                if(_reader != null)
+                {
+                    if(_readerIsStdin && _requests != null)
+                    {
+                        // one write so the request is not split by other output.
+                        byte[] _request = (TaskWorkers.REQUEST + "\n").getBytes(StandardCharsets.UTF_8);
+                        _requests.write(_request, 0, _request.length);
+                        _requests.flush();
+                    }
+
+                    String _line = _reader.readLine();
+                    if(_line == null)
+                    {
+                        closeReader();
+                    }
+                    else if(!_line.isEmpty())
+                    {
+                        _next = _line;
+                    }
+                    continue;
+                }
+
+                if(_argIndex >= _args.size())
+                {
+                    return false;
+                }
+
+                String _arg = _args.get(_argIndex++);
+                if(STDIN.equals(_arg) || isFileArg(_arg))
+                {
+                    _readerIsStdin = STDIN.equals(_arg);
+                    _readerName = _readerIsStdin ? "stdin" : _arg.substring(1);
+                    _reader = open(_readerIsStdin ? STDIN : _readerName, _workingDir);
+                }
+                else if(_arg.startsWith("@@"))
+                {
+                    _next = _arg.substring(1);
+                }
+                else
+                {
+                    _next = _arg;
+                }
+            }
+            return true;
+        }
+        catch(IOException _ex)
+        {
+            throw new UncheckedIOException("Could not read arguments from " + _readerName, _ex);
+        }
+    }
+
+    @Override
+    public String next()
+    {
+        if(!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+
+        String _result = _next;
+        _next = null;
+        return _result;
+    }
+
+    /**
+     * Close the file that is being read. Stdin is left open.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        _argIndex = _args.size();
+        _next = null;
+        closeReader();
+    }
+
+    private void closeReader()
+            throws IOException
+    {
+        BufferedReader _oldReader = _reader;
+        _reader = null;
+        if(_oldReader != null && !_readerIsStdin)
+        {
+            _oldReader.close();
+        }
+    }
+}
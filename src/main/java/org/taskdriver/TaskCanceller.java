@@ -0,0 +1,154 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancels the running tasks when the JVM is shut down by Ctrl-C so they can
+ * stop cleanly. The shutdown hook is added when the first task is started.
+ * <p>
+ * A scope collects the tasks started by a thread and the threads it creates
+ * so the tasks of an asynchronous run can be cancelled together.
+ * @author Chad Juliano
+ */
+final class TaskCanceller
+{
+    private static final Logger                        LOG            = LoggerFactory.getLogger(TaskCanceller.class);
+    private static final long                          SHUTDOWN_GRACE = TimeUnit.SECONDS.toNanos(5);
+    private static final Set<TaskInvocation<?>>        RUNNING        = ConcurrentHashMap.newKeySet();
+    private static final InheritableThreadLocal<Scope> SCOPE          = new InheritableThreadLocal<>();
+
+    private TaskCanceller()
+    {}
+
+    /**
+     * Track an invocation until it is removed.
+     * @param _invocation
+     */
+    static void add(TaskInvocation<?> _invocation)
+    {
+        Hook.install();
+        RUNNING.add(_invocation);
+
+        Scope _scope = SCOPE.get();
+        if(_scope != null)
+        {
+            _scope.add(_invocation);
+        }
+    }
+
+    /**
+     * Stop tracking an invocation that completed.
+     * @param _invocation
+     */
+    static void remove(TaskInvocation<?> _invocation)
+    {
+        RUNNING.remove(_invocation);
+
+        Scope _scope = SCOPE.get();
+        if(_scope != null)
+        {
+            _scope._running.remove(_invocation);
+        }
+    }
+
+    /**
+     * Collect the tasks started by the current thread and the threads it
+     * creates in the scope.
+     * @param _scope
+     */
+    static void enter(Scope _scope)
+    {
+        SCOPE.set(_scope);
+    }
+
+    /**
+     * Cancel the running invocations and give them time to complete.
+     */
+    private static void cancelAll()
+    {
+        if(RUNNING.isEmpty())
+        {
+            return;
+        }
+
+        LOG.warn("Cancelling {} running tasks.", RUNNING.size());
+        for(TaskInvocation<?> _invocation : RUNNING)
+        {
+            _invocation.cancel();
+        }
+
+        long _deadline = System.nanoTime() + SHUTDOWN_GRACE;
+        while(!RUNNING.isEmpty() && System.nanoTime() < _deadline)
+        {
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException _ex)
+            {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Tasks started by an asynchronous run.
+     */
+    static class Scope
+    {
+        private final Set<TaskInvocation<?>> _running   = ConcurrentHashMap.newKeySet();
+        private volatile boolean             _cancelled = false;
+
+        private void add(TaskInvocation<?> _invocation)
+        {
+            _running.add(_invocation);
+            if(_cancelled)
+            {
+                _invocation.cancel();
+            }
+        }
+
+        /**
+         * Cancel the running tasks and any tasks started later.
+         */
+        void cancel()
+        {
+            _cancelled = true;
+            for(TaskInvocation<?> _invocation : _running)
+            {
+                _invocation.cancel();
+            }
+        }
+    }
+
+    /**
+     * Holds the shutdown hook so it is only added when tasks are run.
+     */
+    private static class Hook
+    {
+        static
+        {
+            Runtime.getRuntime().addShutdownHook(new Thread(TaskCanceller::cancelAll, "task-driver-shutdown"));
+        }
+
+        static void install()
+        {
+            // hook is added by the class initializer.
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+/**
+ * Generates static bash and zsh completion scripts from the option and task
+ * definitions. The build writes the scripts with --completion so completing
+ * a command line does not start a JVM.
+ * <p>
+ * Task names are completed at the start of the command and after a ","
+ * separator. Task arguments declared as a Path complete file names and
+ * arguments declared as an enum complete its constants. Other task arguments
+ * show their name. The arguments of options with an enum type complete its
+ * constants and the arguments of other options complete file names.
+ * @author Chad Juliano
+ */
+final class TaskCompletion
+{
+    /**
+     * Shells that scripts can be generated for.
+     */
+    enum Shell
+    {
+        BASH,
+        ZSH;
+    }
+
+    private final List<String>                  _commands;
+    private final Collection<Option>            _options;
+    private final Map<String, Class<?>>         _optionTypes;
+    private final Collection<TaskDefinition<?>> _tasks;
+
+    /**
+     * Constructor
+     * @param _commands Names the program is started with.
+     * @param _optionDefs
+     * @param _optionTypes Types of the option arguments by the long name of
+     * the option. Options that are not included complete file names.
+     * @param _tasks
+     */
+    TaskCompletion(List<String> _commands, Options _optionDefs, Map<String, Class<?>> _optionTypes,
+            Collection<? extends TaskDefinition<?>> _tasks)
+    {
+        this._commands = _commands;
+        this._options = _optionDefs.getOptions();
+        this._optionTypes = _optionTypes;
+        this._tasks = new ArrayList<>(_tasks);
+    }
+
+    /**
+     * Generate the script for a shell.
+     * @param _shell
+     * @return
+     */
+    String generate(Shell _shell)
+    {
+        return (_shell == Shell.BASH) ? generateBash() : generateZsh();
+    }
+
+    private String generateBash()
+    {
+        String _function = "_" + _commands.get(0).replaceAll("[^A-Za-z0-9_]", "_") + "_complete";
+        String _argOptions = _options.stream().filter(Option::hasArg)
+                .flatMap(TaskCompletion::getNames).collect(Collectors.joining("|"));
+        String _fileOptions = _options.stream().filter(Option::hasArg)
+                .filter(_option -> getOptionCompletion(_option).isEmpty())
+                .flatMap(TaskCompletion::getNames).collect(Collectors.joining("|"));
+        String _allOptions = _options.stream().flatMap(TaskCompletion::getNames).collect(Collectors.joining(" "));
+        String _taskNames = _tasks.stream().map(TaskDefinition::toString).collect(Collectors.joining(" "));
+
+        StringBuilder _sb = new StringBuilder();
+        _sb.append("# bash completion for ").append(String.join(", ", _commands)).append('\n');
+        _sb.append("# Generated by the build. Do not edit.\n\n");
+        _sb.append(_function).append("()\n{\n");
+        _sb.append("    local cur=\"${COMP_WORDS[COMP_CWORD]}\"\n");
+        _sb.append("    local prev=\"${COMP_WORDS[COMP_CWORD-1]}\"\n");
+        _sb.append("    local task= pos=0 i\n\n");
+
+        if(!_argOptions.isEmpty())
+        {
+            _sb.append("    case \"$prev\" in\n");
+            for(Option _option : _options)
+            {
+                String _words = _option.hasArg() ? getOptionCompletion(_option) : "";
+                if(!_words.isEmpty())
+                {
+                    _sb.append("        ").append(getNames(_option).collect(Collectors.joining("|"))).append(")\n");
+                    _sb.append("            COMPREPLY=( $(compgen -W \"").append(_words).append("\" -- \"$cur\") )\n");
+                    _sb.append("            return 0 ;;\n");
+                }
+            }
+
+            if(!_fileOptions.isEmpty())
+            {
+                _sb.append("        ").append(_fileOptions).append(")\n");
+                _sb.append("            COMPREPLY=( $(compgen -f -- \"$cur\") )\n");
+                _sb.append("            return 0 ;;\n");
+            }
+            _sb.append("    esac\n\n");
+        }
+
+        _sb.append("    if [[ \"$cur\" == -* ]] ; then\n");
+        _sb.append("        COMPREPLY=( $(compgen -W \"").append(_allOptions).append("\" -- \"$cur\") )\n");
+        _sb.append("        return 0\n");
+        _sb.append("    fi\n\n");
+
+        // find the task of the current segment and the position of the argument.
+        _sb.append("    for (( i=1; i < COMP_CWORD; i++ )) ; do\n");
+        _sb.append("        case \"${COMP_WORDS[i]}\" in\n");
+        _sb.append("            ,) task= ; pos=0 ;;\n");
+        if(!_argOptions.isEmpty())
+        {
+            _sb.append("            ").append(_argOptions).append(") (( i++ )) ;;\n");
+        }
+        _sb.append("            -*) ;;\n");
+        _sb.append("            *) if [[ -z \"$task\" ]] ; then task=\"${COMP_WORDS[i]}\" ; else (( pos++ )) ; fi ;;\n");
+        _sb.append("        esac\n");
+        _sb.append("    done\n\n");
+
+        _sb.append("    if [[ -z \"$task\" ]] ; then\n");
+        _sb.append("        COMPREPLY=( $(compgen -W \"").append(_taskNames).append("\" -- \"$cur\") )\n");
+        _sb.append("        return 0\n");
+        _sb.append("    fi\n\n");
+
+        _sb.append("    case \"$task:$pos\" in\n");
+        for(TaskDefinition<?> _taskDef : _tasks)
+        {
+            for(int _idx = 0; _idx < _taskDef.getArgCount(); _idx++)
+            {
+                String _words = getCompletion(_taskDef.getArgConverter(_idx));
+                _sb.append("        ").append(_taskDef).append(':').append(_idx).append(")\n");
+                if(_words == null)
+                {
+                    // the empty word keeps bash from inserting the name.
+                    _sb.append("            [[ -z \"$cur\" ]] && COMPREPLY=( ")
+                            .append(quote("<" + _taskDef.getArgName(_idx) + ">")).append(" \"\" ) ;;\n");
+                }
+                else if(_words.isEmpty())
+                {
+                    _sb.append("            COMPREPLY=( $(compgen -f -- \"$cur\") ) ;;\n");
+                }
+                else
+                {
+                    _sb.append("            COMPREPLY=( $(compgen -W \"").append(_words).append("\" -- \"$cur\") ) ;;\n");
+                }
+            }
+        }
+        _sb.append("        *)\n");
+        _sb.append("            COMPREPLY=( $(compgen -W \",\" -- \"$cur\") ) ;;\n");
+        _sb.append("    esac\n");
+        _sb.append("    return 0\n");
+        _sb.append("}\n\n");
+
+        _sb.append("complete -o default -F ").append(_function).append(' ').append(String.join(" ", _commands))
+                .append('\n');
+        return _sb.toString();
+    }
+
+    private String generateZsh()
+    {
+        String _function = "_" + _commands.get(0).replaceAll("[^A-Za-z0-9_]", "_");
+
+        StringBuilder _sb = new StringBuilder();
+        _sb.append("#compdef ").append(String.join(" ", _commands)).append('\n');
+        _sb.append("# zsh completion generated by the build. Do not edit.\n\n");
+        _sb.append(_function).append("()\n{\n");
+        _sb.append("    local context state state_descr line\n");
+        _sb.append("    local -a tasks\n");
+        _sb.append("    tasks=(\n");
+        for(TaskDefinition<?> _taskDef : _tasks)
+        {
+            _sb.append("        ").append(quote(_taskDef + ":" + escapeZsh(_taskDef.getDescription(), ":")))
+                    .append('\n');
+        }
+        _sb.append("    )\n\n");
+
+        _sb.append("    _arguments -s -S \\\n");
+        for(Option _option : _options)
+        {
+            String _desc = "[" + escapeZsh(_option.getDescription(), "[]") + "]";
+            String _words = _option.hasArg() ? getOptionCompletion(_option) : null;
+            String _value = (_words == null) ? "" : _words.isEmpty() ? ":value:_files" : ":value:(" + _words + ")";
+            if(_option.getOpt() != null && _option.getLongOpt() != null)
+            {
+                _sb.append("        '(-").append(_option.getOpt()).append(" --").append(_option.getLongOpt())
+                        .append(")'{-").append(_option.getOpt()).append(",--").append(_option.getLongOpt())
+                        .append('}').append(quote(_desc + _value)).append(" \\\n");
+            }
+            else
+            {
+                String _name = (_option.getLongOpt() != null) ? "--" + _option.getLongOpt() : "-" + _option.getOpt();
+                _sb.append("        ").append(quote(_name + _desc + _value)).append(" \\\n");
+            }
+        }
+        _sb.append("        '*::task:->task' && return 0\n\n");
+
+        // words holds the task words. find the current segment after a separator.
+        _sb.append("    local task= pos=0 i\n");
+        _sb.append("    for (( i=1; i < CURRENT; i++ )) ; do\n");
+        _sb.append("        if [[ \"${words[i]}\" == \",\" ]] ; then\n");
+        _sb.append("            task= ; pos=0\n");
+        _sb.append("        elif [[ -z \"$task\" ]] ; then\n");
+        _sb.append("            task=\"${words[i]}\"\n");
+        _sb.append("        else\n");
+        _sb.append("            (( pos++ ))\n");
+        _sb.append("        fi\n");
+        _sb.append("    done\n\n");
+
+        _sb.append("    if [[ -z \"$task\" ]] ; then\n");
+        _sb.append("        _describe -t tasks 'task' tasks\n");
+        _sb.append("        return\n");
+        _sb.append("    fi\n\n");
+
+        _sb.append("    case \"$task:$pos\" in\n");
+        for(TaskDefinition<?> _taskDef : _tasks)
+        {
+            for(int _idx = 0; _idx < _taskDef.getArgCount(); _idx++)
+            {
+                String _words = getCompletion(_taskDef.getArgConverter(_idx));
+                String _argName = quote(_taskDef.getArgName(_idx));
+                _sb.append("        ").append(_taskDef).append(':').append(_idx).append(")\n");
+                if(_words == null)
+                {
+                    _sb.append("            _message ").append(_argName).append(" ;;\n");
+                }
+                else if(_words.isEmpty())
+                {
+                    _sb.append("            _files ;;\n");
+                }
+                else
+                {
+                    _sb.append("            _values ").append(_argName).append(' ').append(_words).append(" ;;\n");
+                }
+            }
+        }
+        _sb.append("        *)\n");
+        _sb.append("            compadd -- , ;;\n");
+        _sb.append("    esac\n");
+        _sb.append("}\n\n");
+
+        _sb.append(_function).append(" \"$@\"\n");
+        return _sb.toString();
+    }
+
+    /**
+     * @return the words that complete the argument of an option or an empty
+     * string for file names.
+     */
+    private String getOptionCompletion(Option _option)
+    {
+        String _words = getCompletion(_optionTypes.get(_option.getLongOpt()));
+        return (_words == null) ? "" : _words;
+    }
+
+    /**
+     * @return the words that complete an argument, an empty string for file
+     * names or null if the argument can not be completed.
+     */
+    private static String getCompletion(ArgConverter<?> _converter)
+    {
+        return (_converter == null) ? null : getCompletion(_converter.getType());
+    }
+
+    private static String getCompletion(Class<?> _type)
+    {
+        if(_type == null)
+        {
+            return null;
+        }
+
+        if(_type == Path.class)
+        {
+            return "";
+        }
+
+        if(_type.isEnum())
+        {
+            return Stream.of(_type.getEnumConstants())
+                    .map(_constant -> ArgConverters.toEnumKey(((Enum<?>)_constant).name()))
+                    .collect(Collectors.joining(" "));
+        }
+        return null;
+    }
+
+    private static Stream<String> getNames(Option _option)
+    {
+        List<String> _names = new ArrayList<>(2);
+        if(_option.getOpt() != null)
+        {
+            _names.add("-" + _option.getOpt());
+        }
+
+        if(_option.getLongOpt() != null)
+        {
+            _names.add("--" + _option.getLongOpt());
+        }
+        return _names.stream();
+    }
+
+    /**
+     * Escape the characters that are special in a zsh completion spec.
+     */
+    private static String escapeZsh(String _text, String _special)
+    {
+        StringBuilder _sb = new StringBuilder();
+        for(char _char : (_text == null ? "" : _text).toCharArray())
+        {
+            if(_special.indexOf(_char) >= 0 || _char == '\\')
+            {
+                _sb.append('\\');
+            }
+            _sb.append(_char);
+        }
+        return _sb.toString();
+    }
+
+    /**
+     * Quote a word for the shell with single quotes.
+     */
+    private static String quote(String _text)
+    {
+        return "'" + _text.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Accepts the debug messages of the packages that a run turned on with
+ * TaskDriver.setPackageDebug(). The packages are kept in the console route of
+ * the run, so the levels of the loggers are never changed and a daemon client
+ * with --debug does not turn on debug messages for the other clients.
+ * @author Chad Juliano
+ */
+final class TaskDebugFilter extends TurboFilter
+{
+    private static final TaskDebugFilter INSTANCE = new TaskDebugFilter();
+
+    private TaskDebugFilter()
+    {}
+
+    /**
+     * Add the filter to the Logback context if it is not there. A context
+     * that was reset loses its filters, so this is checked on each call.
+     */
+    static synchronized void install()
+    {
+        ILoggerFactory _factory = LoggerFactory.getILoggerFactory();
+        if(!(_factory instanceof LoggerContext))
+        {
+            return;
+        }
+
+        LoggerContext _context = (LoggerContext)_factory;
+        if(!_context.getTurboFilterList().contains(INSTANCE))
+        {
+            INSTANCE.setContext(_context);
+            INSTANCE.start();
+            _context.addTurboFilter(INSTANCE);
+        }
+    }
+
+    @Override
+    public FilterReply decide(Marker _marker, Logger _logger, Level _level, String _format, Object[] _params,
+            Throwable _ex)
+    {
+        if(_level == Level.DEBUG && ConsoleRouter.isDebug(_logger.getName()))
+        {
+            return FilterReply.ACCEPT;
+        }
+        return FilterReply.NEUTRAL;
+    }
+}
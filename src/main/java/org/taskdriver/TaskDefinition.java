@@ -10,16 +10,15 @@
 
 package org.taskdriver;
 
-import java.util.AbstractMap;
-import java.util.ArrayDeque;
-import java.util.NoSuchElementException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.apache.commons.cli.MissingArgumentException;
-import org.apache.commons.cli.ParseException;
 import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Used in TaskMap
@@ -28,22 +27,32 @@ import org.slf4j.LoggerFactory;
  */
 public class TaskDefinition<E extends Enum<E>>
 {
-    private static final Logger            LOG             = LoggerFactory.getLogger(TaskDefinition.class);
-    private static final int               TASK_LINE_WIDTH = 35;
+    private static final int            TASK_LINE_WIDTH = 35;
 
-    private final E                        _enum;
-    private final String                   _paramName;
-    private final ArrayDeque<TaskArgEntry> _argDefs        = new ArrayDeque<>();
-    private final String                   _description;
+    private final E                     _enum;
+    private final String                _paramName;
+    private final List<String>          _argNames       = new ArrayList<>();
+    private final List<ArgConverter<?>> _argConverters  = new ArrayList<>();
+    private final String                _description;
+    private String                      _varArgName     = null;
+    private Duration                    _timeout        = null;
+    private Duration                    _stallTimeout   = null;
+    private long                        _heapLimit      = 0;
+    private final List<E>               _dependencies   = new ArrayList<>();
+    private FileCheck                   _fileCheck      = null;
+    private TaskDriverMap<E>            _taskMap        = null;
+    private volatile boolean            _sealed         = false;
 
-    private class TaskArgEntry extends AbstractMap.SimpleEntry<String, String>
+    /**
+     * Selects how the input files of a cacheable task are compared.
+     */
+    public enum FileCheck
     {
-        private static final long serialVersionUID = 1L;
+        /** Compare the size and modification time. */
+        MODIFIED,
 
-        public TaskArgEntry(String _name, String _value)
-        {
-            super(_name, _value);
-        }
+        /** Compare the size and a hash of the content. */
+        CONTENT;
     }
 
     /**
@@ -69,137 +78,339 @@ public class TaskDefinition<E extends Enum<E>>
      */
     public TaskDefinition<E> addArg(String _argName)
     {
-        _argDefs.add(new TaskArgEntry(_argName, null));
+        checkNotSealed();
+        checkNoVarArgs(_argName);
+        _argNames.add(_argName);
+        _argConverters.add(null);
         return this;
     }
 
     /**
-     * Associate task argument values with names.
-     * @param _taskArgs
+     * Add a definition for a required task argument of a type that has a
+     * registered converter.
+     * @param _argName
+     * @param _type
+     * @return
+     * @throws IllegalArgumentException if no converter is registered for the type.
+     * @see ArgConverters#forClass(Class)
      */
-    protected void setArgs(ArrayDeque<String> _taskArgs)
+    public TaskDefinition<E> addArg(String _argName, Class<?> _type)
     {
-        _argDefs.forEach(_item ->
-        {
-            String _argVal = _taskArgs.pollFirst();
-            _item.setValue(_argVal);
-        });
+        return addArg(_argName, ArgConverters.forClass(_type));
     }
 
-    @Override
-    public String toString()
+    /**
+     * Add a definition for a required task argument that is converted with
+     * the given converter.
+     * @param _argName
+     * @param _converter
+     * @return
+     */
+    public TaskDefinition<E> addArg(String _argName, ArgConverter<?> _converter)
     {
-        return this._paramName;
+        if(_converter == null)
+        {
+            throw new IllegalArgumentException("Converter is required for argument: " + _argName);
+        }
+
+        checkNotSealed();
+        checkNoVarArgs(_argName);
+        _argNames.add(_argName);
+        _argConverters.add(_converter);
+        return this;
     }
 
     /**
-     * Get the assigned task enum.
+     * Add a definition for any number of arguments that follow the required
+     * arguments. This must be the last argument of the task.
+     * @param _argName
      * @return
+     * @see TaskInvocation#takeRemainingArgs()
      */
-    public E getEnum()
+    public TaskDefinition<E> addVarArgs(String _argName)
     {
-        return _enum;
+        checkNotSealed();
+        checkNoVarArgs(_argName);
+        _varArgName = _argName;
+        return this;
     }
 
     /**
-     * Get a description of the tasks and associated arguments.
-     * @return
+     * @throws IllegalStateException if variable arguments were already added.
      */
-    public String getUsage()
+    private void checkNoVarArgs(String _argName)
     {
-        if(_argDefs.size() == 0)
+        if(_varArgName != null)
         {
-            return _paramName;
+            throw new IllegalStateException(String.format("Argument %s can not follow variable arguments %s: %s",
+                    _argName, _varArgName, _paramName));
         }
-        String _argDesc = _argDefs.stream().map(TaskArgEntry::getKey)
-                .collect(Collectors.joining("] [", "[", "]"));
-
-        return String.format("%s %s", _paramName, _argDesc);
     }
 
     /**
-     * Get task description.
+     * Declare tasks that must complete before this task runs. The
+     * prerequisites of a requested task are run first and tasks that do not
+     * depend on each other can run in parallel.
+     * @param _prerequisites
      * @return
+     * @throws IllegalArgumentException if this creates a dependency cycle.
      */
-    public String getDescription()
+    @SafeVarargs
+    public final TaskDefinition<E> dependsOn(E... _prerequisites)
     {
-        return this._description;
+        checkNotSealed();
+        for(E _prerequisite : _prerequisites)
+        {
+            List<E> _path = (_taskMap == null) ? null : _taskMap.findDependencyPath(_prerequisite, _enum);
+            if(_prerequisite == _enum || _path != null)
+            {
+                List<E> _cycle = new ArrayList<>(Arrays.asList(_enum, _prerequisite));
+                if(_path != null)
+                {
+                    _cycle.addAll(_path);
+                }
+                throw new IllegalArgumentException("Task dependency cycle: " + _cycle.stream()
+                        .map(_task -> _task.name().toLowerCase().replace('_', '-'))
+                        .collect(Collectors.joining(" -> ")));
+            }
+
+            if(!_dependencies.contains(_prerequisite))
+            {
+                _dependencies.add(_prerequisite);
+            }
+        }
+        return this;
     }
 
     /**
-     * Get the format string used in the help screen.
+     * Get the tasks that must complete before this task runs.
      * @return
      */
-    public String formatLine()
+    public List<E> getDependencies()
     {
-        String _usageLine = StringUtils.rightPad(this.getUsage(), TASK_LINE_WIDTH, ".");
-        return String.format("   %s %s", _usageLine, this.getDescription());
+        return Collections.unmodifiableList(_dependencies);
     }
 
     /**
-     * Get the next task argument that was passed on the command line as a
-     * string.
-     * @return
-     * @throws MissingArgumentException
+     * Set the map the definition belongs to so dependencies can be checked.
+     * @param _taskMap
      */
-    public String takeArg()
-            throws MissingArgumentException
+    void setTaskMap(TaskDriverMap<E> _taskMap)
     {
-        return takeArgEntry().getValue();
+        this._taskMap = _taskMap;
     }
 
     /**
-     * Get the next task argument that was passed on the command line as an
-     * integer.
+     * Skip the task if it already succeeded with the same options, arguments
+     * and input files. Arguments declared as a Path and "@file" sources are
+     * the input files. The cache can be bypassed with --no-cache.
+     * @param _fileCheck How input files are compared or null to disable caching.
      * @return
-     * @throws Exception
      */
-    public int takeArgInt()
-            throws Exception
+    public TaskDefinition<E> setCacheable(FileCheck _fileCheck)
+    {
+        checkNotSealed();
+        this._fileCheck = _fileCheck;
+        return this;
+    }
+
+    /**
+     * Get how the input files of a cacheable task are compared.
+     * @return the comparison or null if the task is not cacheable.
+     */
+    public FileCheck getFileCheck()
     {
-        TaskArgEntry _argEntry = takeArgEntry();
-        String _name = _argEntry.getKey();
-        String _value = _argEntry.getValue();
+        return _fileCheck;
+    }
 
-        int _argInt;
-        try
+    /**
+     * Set the time the task can run before it is cancelled. A task with a
+     * timeout runs on its own thread so it can be interrupted.
+     * @param _timeout Time limit or null for no limit.
+     * @return
+     */
+    public TaskDefinition<E> setTimeout(Duration _timeout)
+    {
+        checkNotSealed();
+        if(_timeout != null && (_timeout.isNegative() || _timeout.isZero()))
         {
-            _argInt = Integer.parseUnsignedInt(_value);
+            throw new IllegalArgumentException("Timeout must be positive: " + _timeout);
         }
-        catch(NumberFormatException _ex)
+        this._timeout = _timeout;
+        return this;
+    }
+
+    /**
+     * Get the time the task can run before it is cancelled.
+     * @return the timeout or null if there is no limit.
+     */
+    public Duration getTimeout()
+    {
+        return _timeout;
+    }
+
+    /**
+     * Set the time the progress of the task can stay the same before the
+     * task is cancelled. A task that never calls TaskInvocation.progress()
+     * is stalled for the whole run.
+     * @param _stallTimeout Time limit or null for no limit.
+     * @return
+     */
+    public TaskDefinition<E> setStallTimeout(Duration _stallTimeout)
+    {
+        checkNotSealed();
+        if(_stallTimeout != null && (_stallTimeout.isNegative() || _stallTimeout.isZero()))
         {
-            throw new ParseException(
-                    String.format("Could not convert %s to integer: %s", _name, _value));
+            throw new IllegalArgumentException("Stall timeout must be positive: " + _stallTimeout);
         }
-        return _argInt;
+        this._stallTimeout = _stallTimeout;
+        return this;
     }
 
     /**
-     * Get the next task argument that was passed on the command line.
+     * @return the stall timeout or null if there is no limit.
+     */
+    public Duration getStallTimeout()
+    {
+        return _stallTimeout;
+    }
+
+    /**
+     * Set the heap usage that cancels the task when it is exceeded. Heap
+     * usage is measured after garbage collection and includes the other
+     * tasks running in the JVM.
+     * @param _heapLimit Limit in bytes or 0 for no limit.
      * @return
-     * @throws MissingArgumentException
      */
-    private TaskArgEntry takeArgEntry()
-            throws MissingArgumentException
+    public TaskDefinition<E> setHeapLimit(long _heapLimit)
     {
-        TaskArgEntry _argEntry;
-        try
+        checkNotSealed();
+        if(_heapLimit < 0)
         {
-            _argEntry = _argDefs.removeFirst();
+            throw new IllegalArgumentException("Heap limit can not be negative: " + _heapLimit);
         }
-        catch(NoSuchElementException _ex)
+        this._heapLimit = _heapLimit;
+        return this;
+    }
+
+    /**
+     * @return the heap limit in bytes or 0 if there is no limit.
+     */
+    public long getHeapLimit()
+    {
+        return _heapLimit;
+    }
+
+    /**
+     * Prevent further changes to the definition. This is called when the
+     * driver is first run so the definition can be shared between threads.
+     */
+    void seal()
+    {
+        _sealed = true;
+    }
+
+    /**
+     * @throws IllegalStateException if the definition was sealed.
+     */
+    private void checkNotSealed()
+    {
+        if(_sealed)
         {
-            throw new MissingArgumentException("No more parameter definitions.");
+            throw new IllegalStateException("Task definition can not be changed after run: " + _paramName);
         }
+    }
 
-        String _name = _argEntry.getKey();
-        String _value = _argEntry.getValue();
+    /**
+     * Get the number of arguments defined for the task.
+     * @return
+     */
+    public int getArgCount()
+    {
+        return _argNames.size();
+    }
 
-        if(_value == null)
+    /**
+     * Get the name of a task argument.
+     * @param _index position of the argument.
+     * @return
+     */
+    public String getArgName(int _index)
+    {
+        return _argNames.get(_index);
+    }
+
+    /**
+     * Get the name of the variable arguments.
+     * @return the name or null if the task does not have variable arguments.
+     */
+    public String getVarArgName()
+    {
+        return _varArgName;
+    }
+
+    /**
+     * Get the converter of a task argument.
+     * @param _index position of the argument.
+     * @return the converter or null if the argument has no declared type.
+     */
+    public ArgConverter<?> getArgConverter(int _index)
+    {
+        return _argConverters.get(_index);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this._paramName;
+    }
+
+    /**
+     * Get the assigned task enum.
+     * @return
+     */
+    public E getEnum()
+    {
+        return _enum;
+    }
+
+    /**
+     * Get a description of the tasks and associated arguments.
+     * @return
+     */
+    public String getUsage()
+    {
+        if(_argNames.size() == 0 && _varArgName == null)
         {
-            throw new MissingArgumentException("Missing parameter: " + _name);
+            return _paramName;
         }
-        LOG.debug("ARG: {} = <{}>", _name, _value);
-        return _argEntry;
+
+        Stream<String> _names = _argNames.stream();
+        if(_varArgName != null)
+        {
+            _names = Stream.concat(_names, Stream.of(_varArgName + "..."));
+        }
+        String _argDesc = _names.collect(Collectors.joining("] [", "[", "]"));
+
+        return String.format("%s %s", _paramName, _argDesc);
+    }
+
+    /**
+     * Get task description.
+     * @return
+     */
+    public String getDescription()
+    {
+        return this._description;
+    }
+
+    /**
+     * Get the format string used in the help screen.
+     * @return
+     */
+    public String formatLine()
+    {
+        String _usageLine = StringUtils.rightPad(this.getUsage(), TASK_LINE_WIDTH, ".");
+        return String.format("   %s %s", _usageLine, this.getDescription());
     }
 }
@@ -10,21 +10,32 @@
 
 package org.taskdriver;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayDeque;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
-import org.apache.commons.cli.CommandLine;
-import org.apache.commons.cli.CommandLineParser;
-import org.apache.commons.cli.DefaultParser;
-import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.MissingArgumentException;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,20 +48,69 @@ import ch.qos.logback.classic.Level;
  */
 public abstract class TaskDriver<E extends Enum<E>>
 {
-    private static final Logger    LOG                 = LoggerFactory.getLogger(TaskDriver.class);
+    private static final Logger    LOG                 = TaskProfiler.createLogger(TaskDriver.class);
 
     private static final int       HELP_DESC_PAD_WIDTH = 5;
     private static final int       HELP_INDENT_WIDTH   = 3;
     private static final int       HELP_LINE_WIDTH     = 100;
 
+    private static final String    OPT_BATCH           = "batch";
+    private static final String    OPT_DAEMON          = "daemon";
+    private static final String    OPT_DAEMON_TIMEOUT  = "daemon-timeout";
+    private static final String    OPT_PARALLEL        = "parallel";
+    private static final String    OPT_PROFILE         = "profile";
+    private static final String    OPT_METRICS         = "metrics";
+    private static final String    OPT_NO_CACHE        = "no-cache";
+    private static final String    OPT_OUTPUT          = "output";
+    private static final String    OPT_OUTPUT_FORMAT   = "output-format";
+    private static final String    OPT_PROGRESS        = "progress-interval";
+    private static final String    OPT_COMPLETION      = "completion";
+    private static final String    OPT_WORKERS         = "workers";
+    static final String            OPT_WORKER          = "worker";
+    private static final String    TASK_SEPARATOR      = ",";
+    private static final long      DAEMON_TIMEOUT_SEC  = 3 * 60 * 60;
+    private static final Duration  PROGRESS_INTERVAL   = Duration.ofSeconds(10);
+
+    private static final String    PHASE_PARSE_OPTIONS = "parse-options";
+    private static final String    PHASE_GET_ARGS      = "handle-get-args";
+    private static final String    PHASE_PARSE_TASKS   = "parse-tasks";
+    private static final String    PHASE_DO_TASK       = "do-task";
+
     private final Options          _optionDefs         = new Options();
     private final TaskDriverMap<E> _taskDefs           = new TaskDriverMap<E>();
-    private TaskDefinition<E>      _task               = null;
+    private final TaskMetrics      _metrics            = TaskMetrics.forDriver(getClass());
+    private TaskResultCache        _resultCache        = null;
+    private volatile boolean       _sealed             = false;
+    private ParserType             _parserType         = ParserType.getDefault();
+    private OptionParser           _parser             = null;
 
     private final String           _version;
     private final String           _specTitle;
     private final String           _implTitle;
 
+    /**
+     * Selects the implementation used to parse the command line.
+     */
+    public enum ParserType
+    {
+        /** Parser working on the compiled option index. */
+        COMPILED,
+
+        /** The commons-cli DefaultParser. */
+        COMMONS_CLI;
+
+        /**
+         * The default can be changed with the system property
+         * taskdriver.parser=commons-cli.
+         * @return
+         */
+        static ParserType getDefault()
+        {
+            String _value = System.getProperty("taskdriver.parser", "compiled");
+            return ParserType.valueOf(_value.toUpperCase().replace('-', '_'));
+        }
+    }
+
     /**
      * Constructor
      */
@@ -58,6 +118,19 @@ public abstract class TaskDriver<E extends Enum<E>>
     {
         addOption("help", "print this message", "h", false);
         addOption("debug", "turn on debug messages", "d", false);
+        addOption(OPT_BATCH, "run one command line per line of a file (" + TaskArgSource.STDIN + " for stdin)", null, true);
+        addOption(OPT_DAEMON, "serve command lines from TaskDriverClient in this JVM", null, false);
+        addOption(OPT_DAEMON_TIMEOUT, "seconds a daemon waits for clients before exiting", null, true);
+        addOption(OPT_PARALLEL, "number of tasks separated by \",\" to run concurrently", null, true);
+        addOption(OPT_PROFILE, "print the time and memory used by each phase of the run", null, false);
+        addOption(OPT_METRICS, "write task counts and latency percentiles to a file when the run ends", null, true);
+        addOption(OPT_NO_CACHE, "run cacheable tasks even if they are up to date", null, false);
+        addOption(OPT_OUTPUT, "write task output to a file instead of the console", null, true);
+        addOption(OPT_OUTPUT_FORMAT, "format of task output: text (default) or jsonl", null, true);
+        addOption(OPT_PROGRESS, "how often tasks log their progress like 30s or 0 for never (default 10s)", null, true);
+        addOption(OPT_COMPLETION, "write a completion script for the shell: bash or zsh", null, true);
+        addOption(OPT_WORKERS, "split the variable arguments of the task between this many JVMs", null, true);
+        addOption(OPT_WORKER, "take variable arguments from the JVM that started this one with --workers", null, false);
 
         // Descriptions are read from the JAR manifest. If there is not JAR then this will not work.
         Package _package = getClass().getPackage();
@@ -75,6 +148,7 @@ public abstract class TaskDriver<E extends Enum<E>>
      */
     protected void addOption(String _longOpt, String _desc, String _opt, boolean _hasArg)
     {
+        checkNotSealed();
         _optionDefs.addOption(_opt, _longOpt, _hasArg, _desc);
     }
 
@@ -86,9 +160,46 @@ public abstract class TaskDriver<E extends Enum<E>>
      */
     protected TaskDefinition<E> addTask(E _enum, String _desc)
     {
+        checkNotSealed();
         return _taskDefs.add(_enum, _desc);
     }
 
+    /**
+     * Add the options of a binder generated from {@link TaskOption}
+     * annotations.
+     * @param _binder
+     * @return the binder that creates the options object of an invocation.
+     */
+    protected <T> OptionBinder<T> addOptions(OptionBinder<T> _binder)
+    {
+        checkNotSealed();
+        _binder.define(_optionDefs);
+        return _binder;
+    }
+
+    /**
+     * Add the tasks of a registry generated from {@link TaskSpec}
+     * annotations. If no other tasks were added the name lookup and help
+     * text computed by the annotation processor are used.
+     * @param _registry
+     */
+    protected void addTasks(TaskRegistry<E> _registry)
+    {
+        checkNotSealed();
+        _taskDefs.addAll(_registry);
+    }
+
+    /**
+     * Select the command line parser. This must be called from the
+     * constructor.
+     * @param _type
+     */
+    protected void setParserType(ParserType _type)
+    {
+        checkNotSealed();
+        this._parserType = _type;
+    }
+
     /**
      * Get and check command line arguments.
      * @param _cmdArgs
@@ -98,14 +209,61 @@ public abstract class TaskDriver<E extends Enum<E>>
             throws Exception;
 
     /**
-     * Execute one of the configured tasks.
+     * Execute one of the configured tasks. This can be called concurrently
+     * when the driver is shared between threads so any state should be kept
+     * in the invocation.
      * @param _task The selected task
-     * @param _args Task arguments
+     * @param _invocation Options and arguments of this run.
      * @throws Exception
      */
-    protected abstract void handleDoTask(E _task, TaskDefinition<E> _taskDef)
+    protected abstract void handleDoTask(E _task, TaskInvocation<E> _invocation)
             throws Exception;
 
+    /**
+     * Start one of the configured tasks and return a future that completes
+     * when it is done. Override this for tasks that overlap their I/O. The
+     * future is cancelled if the task times out or the JVM is shutting down
+     * and the task can also check TaskInvocation.isCancelled().
+     * <p>
+     * The default calls handleDoTask() on the current thread or on another
+     * thread with the same console if the task has a timeout.
+     * @param _task The selected task
+     * @param _invocation Options and arguments of this run.
+     * @return
+     * @throws Exception
+     */
+    protected CompletableFuture<?> handleDoTaskAsync(E _task, TaskInvocation<E> _invocation)
+            throws Exception
+    {
+        CompletableFuture<Void> _future = new CompletableFuture<>();
+        Runnable _runner = () ->
+        {
+            try
+            {
+                _invocation.runOnCurrentThread(() ->
+                {
+                    handleDoTask(_task, _invocation);
+                    return null;
+                });
+                _future.complete(null);
+            }
+            catch(Throwable _ex)
+            {
+                _future.completeExceptionally(_ex);
+            }
+        };
+
+        if(_invocation.getDefinition().getTimeout() == null)
+        {
+            _runner.run();
+        }
+        else
+        {
+            ConsoleRouter.start(_runner, "task-driver-" + _invocation);
+        }
+        return _future;
+    }
+
     /**
      * Print additional information when help is specified.
      * @param _pw
@@ -113,161 +271,1168 @@ public abstract class TaskDriver<E extends Enum<E>>
     protected abstract void printHelpFooter(PrintWriter _pw);
 
     /**
-     * Start the process.
+     * Start the process. A driver can be run any number of times and from
+     * multiple threads.
      * @param _args Command line parameters.
      * @throws Exception
      */
     public void run(String[] _args)
             throws Exception
     {
-        try
+        run(_args, null, null);
+    }
+
+    /**
+     * Start the process on a new thread. Cancelling the returned future
+     * cancels the running tasks.
+     * @param _args Command line parameters.
+     * @return a future that completes when the process is done.
+     */
+    public CompletableFuture<Void> runAsync(String[] _args)
+    {
+        CompletableFuture<Void> _result = new CompletableFuture<>();
+        TaskCanceller.Scope _scope = new TaskCanceller.Scope();
+        Thread _thread = ConsoleRouter.newThread(() ->
+        {
+            try
+            {
+                TaskCanceller.enter(_scope);
+                run(_args);
+                _result.complete(null);
+            }
+            catch(Throwable _ex)
+            {
+                _result.completeExceptionally(_ex);
+            }
+        }, "task-driver-run");
+
+        _result.whenComplete((_value, _ex) ->
         {
-            parseArgs(_args);
+            if(_result.isCancelled())
+            {
+                _scope.cancel();
+            }
+        });
+        _thread.start();
+        return _result;
+    }
 
-            LOG.debug("* Starting task: <{}>", _task);
-            handleDoTask(_task.getEnum(), _task);
-        }
-        catch(ParseException _ex)
+    /**
+     * Start the process for a command that may come from a daemon client.
+     * @param _args Command line parameters.
+     * @param _workingDir Working directory or null for the JVM directory.
+     * @param _env Environment or null for the JVM environment.
+     * @throws Exception
+     */
+    void run(String[] _args, Path _workingDir, Map<String, String> _env)
+            throws Exception
+    {
+        seal();
+
+        // checked before parsing so the parse phase is included.
+        TaskProfiler _profiler = new TaskProfiler(Arrays.asList(_args).contains("--" + OPT_PROFILE));
+        String _metricsFile = null;
+
+        // debug messages are turned on for the route of the run.
+        boolean _routed = ConsoleRouter.enter();
+        try
         {
-            if(LOG.isDebugEnabled())
+            TaskDriverOptions _cmd = parseOptions(_args, _profiler);
+            _metricsFile = _cmd.getOptionValue(OPT_METRICS);
+
+            if(_cmd.hasOption(OPT_PROFILE))
+            {
+                _profiler.enable();
+            }
+
+            if(_cmd.hasOption(OPT_DAEMON))
             {
-                LOG.error("Terminating: {}", _ex.getMessage(), _ex);
+                runDaemon(_cmd);
             }
             else
             {
-                LOG.error("Terminating: {}", _ex.getMessage());
+                // the output is shared by all of the tasks of the run.
+                try (TaskOutput _output = openOutput(_cmd, _workingDir))
+                {
+                    if(_cmd.hasOption(OPT_COMPLETION))
+                    {
+                        writeCompletion(_cmd, _output);
+                    }
+                    else if(_cmd.hasOption(OPT_BATCH))
+                    {
+                        runBatch(_cmd, _workingDir, _env, _output, _profiler);
+                    }
+                    else
+                    {
+                        runTask(_cmd, _workingDir, _env, _output, _profiler);
+                    }
+                }
             }
-            throw _ex;
         }
-        catch(Exception _ex)
+        finally
         {
-            LOG.error("Process Failed: {}", _ex.getMessage(), _ex);
-            throw _ex;
+            if(_profiler.isEnabled())
+            {
+                LOG.info(_profiler.formatSummary());
+            }
+
+            if(_metricsFile != null)
+            {
+                dumpMetrics(_metricsFile, _workingDir);
+            }
+
+            // buffered output must be written before the caller exits.
+            AsyncConsoleAppender.flushAll();
+            if(_routed)
+            {
+                ConsoleRouter.clear();
+            }
         }
-        LOG.info("Task Complete: <{}>", _task);
     }
 
     /**
-     * Set a specified loggers in package to DEBUG.
-     * @param _package
+     * Parse the options and record the parse time.
+     * @param _args
+     * @param _profiler
+     * @return
+     * @throws ParseException
      */
-    public static void setPackageDebug(Package _package)
+    private TaskDriverOptions parseOptions(String[] _args, TaskProfiler _profiler)
+            throws ParseException
     {
-        String _packageName = _package.getName();
-        ch.qos.logback.classic.Logger _logger = (ch.qos.logback.classic.Logger)LoggerFactory.getLogger(_packageName);
-        _logger.setLevel(Level.DEBUG);
+        long _startNanos = System.nanoTime();
+        TaskDriverOptions _cmd;
+        TaskProfiler.Phase _phase = _profiler.begin(PHASE_PARSE_OPTIONS, null);
+        try
+        {
+            _cmd = parseOptions(_args);
+        }
+        catch(ParseException _ex)
+        {
+            _metrics.recordParse(System.nanoTime() - _startNanos, true);
+            logTerminating(_ex);
+            throw _ex;
+        }
+        finally
+        {
+            _phase.close();
+        }
 
-        LOG.debug("Level {} enabled for: <{}>", Level.DEBUG, _packageName);
+        _metrics.recordParse(System.nanoTime() - _startNanos, false);
+        return _cmd;
     }
 
     /**
-     * Parse command line arguments into member variables.
-     * @param _cmdArgs
+     * Open the output selected by --output and --output-format.
+     * @param _cmd
+     * @param _workingDir Directory relative names are resolved against or null.
+     * @return
      * @throws Exception
      */
-    private void parseArgs(String[] _args)
+    private static TaskOutput openOutput(TaskDriverOptions _cmd, Path _workingDir)
             throws Exception
     {
-        // hook for subclass
-        CommandLine _cmd = parseOptions(_args);
+        TaskOutput.Format _format = getEnumOption(_cmd, OPT_OUTPUT_FORMAT, TaskOutput.Format.class);
+        if(_format == null)
+        {
+            _format = TaskOutput.Format.TEXT;
+        }
+
+        String _fileName = _cmd.getOptionValue(OPT_OUTPUT);
+        if(_fileName == null)
+        {
+            return TaskOutput.toConsole(_format);
+        }
 
-        TaskDriverOptions _cmdArgs = new TaskDriverOptions(_optionDefs, _cmd);
-        handleGetArgs(_cmdArgs);
+        Path _path = Paths.get(_fileName);
+        if(_workingDir != null)
+        {
+            _path = _workingDir.resolve(_path);
+        }
 
-        // copy args to the queue
-        // some of these args will be processed by the task
-        List<String> _argList = _cmd.getArgList();
-        parseTask(_argList);
+        try
+        {
+            return TaskOutput.toFile(_format, _path);
+        }
+        catch(IOException _ex)
+        {
+            LOG.error("Could not open output <{}>: {}", _path, _ex.toString());
+            throw _ex;
+        }
     }
 
     /**
-     * Default option parse.
-     * @param _args
+     * Get the value of an option that selects an enum constant.
      * @param _cmd
-     * @return
+     * @param _longOpt
+     * @param _enumClass
+     * @return the constant or null if the option was not given.
+     * @throws ParseException if the value is not one of the constants.
+     */
+    private static <T extends Enum<T>> T getEnumOption(TaskDriverOptions _cmd, String _longOpt,
+            Class<T> _enumClass)
+            throws ParseException
+    {
+        String _value = _cmd.getOptionValue(_longOpt);
+        if(_value == null)
+        {
+            return null;
+        }
+
+        ArgConverter<T> _converter = ArgConverters.forClass(_enumClass);
+        T _result = _converter.convert(_value);
+        if(_result == null)
+        {
+            ParseException _ex = new ParseException(String.format("Could not convert --%s to %s: %s",
+                    _longOpt, _converter.getTypeName(), _value));
+            logTerminating(_ex);
+            throw _ex;
+        }
+        return _result;
+    }
+
+    /**
+     * Write the completion script for the shell given with --completion. The
+     * script completes the program name given with the system property
+     * taskdriver.program and its start script.
+     * @param _cmd
+     * @param _output
      * @throws ParseException
      */
-    private CommandLine parseOptions(String[] _args)
+    private void writeCompletion(TaskDriverOptions _cmd, TaskOutput _output)
             throws ParseException
     {
-        CommandLineParser _parser = new DefaultParser();
-        CommandLine _cmd = _parser.parse(_optionDefs, _args);
+        TaskCompletion.Shell _shell = getEnumOption(_cmd, OPT_COMPLETION, TaskCompletion.Shell.class);
+        String _program = System.getProperty("taskdriver.program", _implTitle);
+        Map<String, Class<?>> _optionTypes = new HashMap<>();
+        _optionTypes.put(OPT_OUTPUT_FORMAT, TaskOutput.Format.class);
+        _optionTypes.put(OPT_COMPLETION, TaskCompletion.Shell.class);
 
-        if(_cmd.hasOption("d"))
+        TaskCompletion _completion = new TaskCompletion(Arrays.asList(_program, _program + ".sh"),
+                getPublicOptions(), _optionTypes, _taskDefs.values());
+        _output.println(StringUtils.removeEnd(_completion.generate(_shell), "\n"));
+    }
+
+    /**
+     * Write the metrics report to a file.
+     * @param _fileName
+     * @param _workingDir Directory relative names are resolved against or null.
+     */
+    private void dumpMetrics(String _fileName, Path _workingDir)
+    {
+        Path _path = Paths.get(_fileName);
+        if(_workingDir != null)
         {
-            setPackageDebug(TaskDriver.class.getPackage());
+            _path = _workingDir.resolve(_path);
         }
 
-        String _argDesc = Arrays.asList(_args).stream()
-                .collect(Collectors.joining(") (", "(", ")"));
+        try
+        {
+            _metrics.dump(_path);
+            LOG.debug("Metrics written to: <{}>", _path);
+        }
+        catch(IOException _ex)
+        {
+            LOG.error("Could not write metrics to <{}>: {}", _path, _ex.getMessage());
+        }
+    }
 
-        LOG.debug("ARGS: {}", _argDesc);
+    /**
+     * Prevent further changes to the option and task definitions and compile
+     * them for the parser.
+     */
+    synchronized void seal()
+    {
+        if(_sealed)
+        {
+            return;
+        }
 
-        if(_cmd.hasOption("h") || _cmd.getArgList().size() == 0)
+        _taskDefs.seal();
+        CompiledOptions _spec = new CompiledOptions(_optionDefs);
+        if(_parserType == ParserType.COMMONS_CLI)
         {
-            StringWriter _sw = new StringWriter();
-            printHelp(new PrintWriter(_sw));
-            LOG.info(_sw.toString());
-            throw new ParseException("Help option requested");
+            _parser = new CommonsCliOptionParser(_optionDefs, _spec);
+        }
+        else
+        {
+            _parser = new CompiledOptionParser(_spec);
         }
+        _sealed = true;
+    }
 
-        return _cmd;
+    /**
+     * @throws IllegalStateException if the driver was already run.
+     */
+    private void checkNotSealed()
+    {
+        if(_sealed)
+        {
+            throw new IllegalStateException("Definitions can not be changed after run.");
+        }
     }
 
     /**
-     * Determine the task definition from the arguments.
-     * @param _args
-     * @throws MissingArgumentException
+     * Execute the tasks selected by parsed command line.
+     * @param _cmd
+     * @param _workingDir
+     * @param _env
+     * @param _output
+     * @param _profiler
+     * @throws Exception
      */
-    private void parseTask(List<String> _args)
-            throws MissingArgumentException
+    private void runTask(TaskDriverOptions _cmd, Path _workingDir, Map<String, String> _env,
+            TaskOutput _output, TaskProfiler _profiler)
+            throws Exception
     {
-        ArrayDeque<String> _taskArgs = new ArrayDeque<String>(_args);
-        String _taskStr;
+        List<TaskInvocation<E>> _invocations;
+        int _parallel;
+        int _workers;
+        Duration _progressInterval;
         try
         {
-            _taskStr = _taskArgs.removeFirst();
+            _parallel = parsePositive(_cmd, OPT_PARALLEL);
+            _workers = parsePositive(_cmd, OPT_WORKERS);
+            _progressInterval = parseProgressInterval(_cmd);
+
+            // hook for subclass
+            TaskProfiler.Phase _getArgsPhase = _profiler.begin(PHASE_GET_ARGS, null);
+            try
+            {
+                handleGetArgs(_cmd);
+            }
+            finally
+            {
+                _getArgsPhase.close();
+            }
+
+            TaskProfiler.Phase _parseTasksPhase = _profiler.begin(PHASE_PARSE_TASKS, null);
+            try
+            {
+                _invocations = parseArgs(_cmd, _workingDir, _env);
+            }
+            finally
+            {
+                _parseTasksPhase.close();
+            }
+
+            if(_workers > 1)
+            {
+                checkWorkers(_invocations);
+            }
+        }
+        catch(ParseException _ex)
+        {
+            logTerminating(_ex);
+            throw _ex;
         }
-        catch(NoSuchElementException _ex)
+        catch(Exception _ex)
         {
-            throw new MissingArgumentException("Missing task argument: " + _taskDefs.getSummary());
+            LOG.error("Process Failed: {}", _ex.getMessage(), _ex);
+            throw _ex;
         }
 
-        this._task = _taskDefs.get(_taskStr);
-        if(_task == null)
+        TaskScheduler<E> _scheduler = new TaskScheduler<>(_invocations, _taskDefs,
+                _taskDef -> new TaskInvocation<E>(_taskDef, _cmd, Collections.emptyList(), _workingDir, _env));
+        for(TaskInvocation<E> _invocation : _scheduler.getInvocations())
         {
-            throw new MissingArgumentException(
-                    String.format("<%s> must be one one of %s. ", _taskStr, _taskDefs.getSummary()));
+            _invocation.setOutput(_output);
+            _invocation.setProgressInterval(_progressInterval);
+            _invocation.setWorkers(_workers);
+            if(_cmd.hasOption(OPT_WORKER))
+            {
+                _invocation.setWorkRequests(ConsoleRouter.currentOut());
+            }
         }
 
-        _task.setArgs(_taskArgs);
-        TaskDriver.LOG.debug("OPTION: task = <{}>", _task.getEnum());
+        if(_invocations.size() == 1 && !_scheduler.hasDependencies())
+        {
+            runInvocation(_invocations.get(0), _profiler);
+        }
+        else
+        {
+            runInvocations(_scheduler, _parallel, _profiler);
+        }
     }
 
     /**
-     * Print command line help.
-     * @param _pw
+     * Execute a single task invocation.
+     * @param _invocation
+     * @param _profiler
+     * @throws Exception
      */
-    private void printHelp(PrintWriter _pw)
+    private void runInvocation(TaskInvocation<E> _invocation, TaskProfiler _profiler)
+            throws Exception
     {
-        final String _cmdSyntax = String.format("%s [OPTIONS] %s", this._implTitle, _taskDefs.getSummary());
+        LOG.debug("* Starting task: <{}>", _invocation);
+        String _cacheKey = getCacheKey(_invocation);
+        if(_cacheKey != null && isUpToDate(_invocation, _cacheKey))
+        {
+            _invocation.close();
+            LOG.info("Task Up-To-Date: <{}>", _invocation);
+            return;
+        }
+
+        long _startNanos = System.nanoTime();
+        TaskCanceller.add(_invocation);
+        try
+        {
+            doTask(_invocation, _profiler);
+            _metrics.recordTask(_invocation.getDefinition(), System.nanoTime() - _startNanos, false);
+        }
+        catch(ParseException _ex)
+        {
+            _metrics.recordTask(_invocation.getDefinition(), System.nanoTime() - _startNanos, true);
+            logTerminating(_ex);
+            throw _ex;
+        }
+        catch(Exception | Error _ex)
+        {
+            _metrics.recordTask(_invocation.getDefinition(), System.nanoTime() - _startNanos, true);
+            LOG.error("Process Failed: {}", _ex.getMessage(), _ex);
+            throw _ex;
+        }
+        finally
+        {
+            TaskCanceller.remove(_invocation);
+        }
 
-        HelpFormatter _help = new HelpFormatter();
-        _help.printHelp(_pw,
-                HELP_LINE_WIDTH,
-                _cmdSyntax, null,
-                this._optionDefs,
-                HELP_INDENT_WIDTH,
-                HELP_DESC_PAD_WIDTH,
-                null, false);
+        if(_cacheKey != null)
+        {
+            try
+            {
+                getResultCache().put(_cacheKey);
+            }
+            catch(IOException _ex)
+            {
+                LOG.warn("Could not update the result cache: {}", _ex.toString());
+            }
+        }
+        List<String> _summary = new ArrayList<>(2);
+        TaskProgress _progress = _invocation.getProgress();
+        if(_progress != null)
+        {
+            _summary.add(_progress.formatSummary());
+        }
 
-        _pw.println();
-        _pw.println(String.format("%s (v%s)", this._specTitle, this._version));
-        _pw.println();
-        _pw.println("You must choose one of the following tasks:");
-        _pw.println(_taskDefs.getDetails());
-        _pw.println();
-        printHelpFooter(_pw);
+        String _workSummary = _invocation.formatWorkSummary();
+        if(_workSummary != null)
+        {
+            _summary.add(_workSummary);
+        }
+
+        if(_summary.isEmpty())
+        {
+            LOG.info("Task Complete: <{}>", _invocation);
+        }
+        else
+        {
+            LOG.info("Task Complete: <{}> ({})", _invocation, String.join("; ", _summary));
+        }
+    }
+
+    /**
+     * Run the task of an invocation with the watchdog and wait for it. The
+     * invocation is closed when the task is done.
+     * @param _invocation
+     * @param _profiler
+     * @throws Exception
+     */
+    private void doTask(TaskInvocation<E> _invocation, TaskProfiler _profiler)
+            throws Exception
+    {
+        try (TaskInvocation<E> _running = _invocation)
+        {
+            TaskWatchdog _watchdog = TaskWatchdog.start(_running);
+            TaskProfiler.Phase _phase = _profiler.begin(PHASE_DO_TASK, _running);
+            try
+            {
+                CompletableFuture<?> _future = (_running.getWorkers() > 1) ? startWorkers(_running)
+                        : handleDoTaskAsync(_running.getTask(), _running);
+                _running.attach(_future);
+                waitForTask(_running, _future);
+                _running.getOutput().flush();
+            }
+            finally
+            {
+                _phase.close();
+                if(_watchdog != null)
+                {
+                    _watchdog.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that the command can be split between worker JVMs.
+     * @param _invocations
+     * @throws ParseException
+     */
+    private static void checkWorkers(List<? extends TaskInvocation<?>> _invocations)
+            throws ParseException
+    {
+        if(_invocations.size() > 1)
+        {
+            throw new ParseException("Option --" + OPT_WORKERS + " can only be used with one task.");
+        }
+
+        TaskDefinition<?> _taskDef = _invocations.get(0).getDefinition();
+        if(_taskDef.getVarArgName() == null)
+        {
+            throw new ParseException("Option --" + OPT_WORKERS
+                    + " can only be used with a task that has variable arguments: " + _taskDef);
+        }
+
+        if(!_taskDef.getDependencies().isEmpty())
+        {
+            throw new ParseException("Option --" + OPT_WORKERS
+                    + " can not be used with a task that depends on other tasks: " + _taskDef);
+        }
+    }
+
+    /**
+     * Split the variable arguments of an invocation between worker JVMs.
+     * Options that only apply to this JVM are not passed to the workers.
+     * @param _invocation
+     * @return a future that completes when the workers have exited.
+     */
+    private CompletableFuture<?> startWorkers(TaskInvocation<E> _invocation)
+    {
+        List<String> _options = _invocation.getOptions().getBaseArgs(OPT_WORKERS, OPT_OUTPUT, OPT_METRICS,
+                OPT_PROFILE, OPT_PARALLEL);
+        TaskWorkers _workers = new TaskWorkers(_invocation, getClass().getName(), _options,
+                _invocation.getWorkers());
+        return _workers.start();
+    }
+
+    /**
+     * Get the key of an invocation in the result cache.
+     * @param _invocation
+     * @return the key or null if the invocation can not be cached.
+     */
+    private String getCacheKey(TaskInvocation<E> _invocation)
+    {
+        if(_invocation.getDefinition().getFileCheck() == null)
+        {
+            return null;
+        }
+
+        // options that only change how the driver runs are not part of the key.
+        TaskDriverOptions _cmd = _invocation.getOptions();
+        List<String> _options = (_cmd == null) ? Collections.emptyList()
+                : _cmd.getBaseArgs("debug", OPT_BATCH, OPT_DAEMON, OPT_DAEMON_TIMEOUT, OPT_PARALLEL, OPT_PROFILE,
+                        OPT_METRICS, OPT_NO_CACHE, OPT_PROGRESS, OPT_WORKERS, OPT_WORKER);
+        try
+        {
+            return TaskResultCache.createKey(_invocation, _options);
+        }
+        catch(IOException _ex)
+        {
+            LOG.debug("Not caching <{}>: {}", _invocation, _ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Check if the invocation already succeeded unless --no-cache was given.
+     * @param _invocation
+     * @param _cacheKey
+     * @return
+     */
+    private boolean isUpToDate(TaskInvocation<E> _invocation, String _cacheKey)
+    {
+        TaskDriverOptions _cmd = _invocation.getOptions();
+        if(_cmd != null && _cmd.hasOption(OPT_NO_CACHE))
+        {
+            return false;
+        }
+
+        try
+        {
+            return getResultCache().contains(_cacheKey);
+        }
+        catch(IOException _ex)
+        {
+            LOG.warn("Could not read the result cache: {}", _ex.toString());
+            return false;
+        }
+    }
+
+    /**
+     * @return the result cache that is created when it is first used.
+     */
+    private synchronized TaskResultCache getResultCache()
+    {
+        if(_resultCache == null)
+        {
+            _resultCache = new TaskResultCache(_implTitle);
+        }
+        return _resultCache;
+    }
+
+    /**
+     * Wait for a task to complete. The task is cancelled if it runs longer
+     * than its timeout or the waiting thread is interrupted.
+     * @param _invocation
+     * @param _future
+     * @throws Exception the exception of the task. An Error of the task is
+     * rethrown as is.
+     */
+    private static void waitForTask(TaskInvocation<?> _invocation, CompletableFuture<?> _future)
+            throws Exception
+    {
+        Duration _timeout = _invocation.getDefinition().getTimeout();
+        try
+        {
+            if(_timeout == null)
+            {
+                _future.get();
+            }
+            else
+            {
+                _future.get(_timeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        catch(TimeoutException _ex)
+        {
+            LOG.error("Task <{}> timed out after {}", _invocation, _timeout);
+            LOG.error(TaskWatchdog.formatDiagnostics());
+            _invocation.cancel();
+            throw new TimeoutException(String.format("Task timed out after %s: %s", _timeout, _invocation));
+        }
+        catch(InterruptedException _ex)
+        {
+            _invocation.cancel();
+            throw _ex;
+        }
+        catch(CancellationException _ex)
+        {
+            throw new CancellationException("Task was cancelled: " + _invocation);
+        }
+        catch(ExecutionException _ex)
+        {
+            Throwable _cause = _ex.getCause();
+            while(_cause instanceof CompletionException && _cause.getCause() != null)
+            {
+                _cause = _cause.getCause();
+            }
+
+            if(_cause instanceof Exception)
+            {
+                throw (Exception)_cause;
+            }
+            if(_cause instanceof Error)
+            {
+                throw (Error)_cause;
+            }
+            throw _ex;
+        }
+    }
+
+    /**
+     * Execute several task invocations and their prerequisites with up to the
+     * given number running concurrently. All tasks are run even if some of
+     * them fail except for tasks whose prerequisites failed.
+     * @param _scheduler
+     * @param _parallel
+     * @param _profiler
+     * @throws Exception if any of the tasks failed.
+     */
+    private void runInvocations(TaskScheduler<E> _scheduler, int _parallel, TaskProfiler _profiler)
+            throws Exception
+    {
+        _scheduler.run(_parallel, _invocation -> runInvocation(_invocation, _profiler));
+
+        List<TaskInvocation<E>> _invocations = _scheduler.getInvocations();
+        int _taskCount = _invocations.size();
+        int _failCount = 0;
+        for(int _idx = 0; _idx < _taskCount; _idx++)
+        {
+            long _elapsedMs = TimeUnit.NANOSECONDS.toMillis(_scheduler.getElapsedNanos(_idx));
+            switch(_scheduler.getStatus(_idx))
+            {
+                case OK:
+                    LOG.info("Task {}: OK <{}> ({} ms)", _idx + 1, _invocations.get(_idx), _elapsedMs);
+                    break;
+
+                case SKIPPED:
+                    _failCount++;
+                    LOG.error("Task {}: SKIPPED <{}> (prerequisite failed)", _idx + 1, _invocations.get(_idx));
+                    break;
+
+                default:
+                    _failCount++;
+                    LOG.error("Task {}: FAILED <{}> ({} ms)", _idx + 1, _invocations.get(_idx), _elapsedMs);
+                    break;
+            }
+        }
+
+        LOG.info("Tasks Complete: {} succeeded, {} failed", _taskCount - _failCount, _failCount);
+        if(_failCount > 0)
+        {
+            throw new Exception(String.format("%d of %d tasks failed.", _failCount, _taskCount));
+        }
+    }
+
+    /**
+     * Get the value of an option that is a count like the number of tasks
+     * that can run concurrently.
+     * @param _cmd
+     * @param _longOpt
+     * @return the value or 1 if the option was not given.
+     * @throws ParseException
+     */
+    private static int parsePositive(TaskDriverOptions _cmd, String _longOpt)
+            throws ParseException
+    {
+        String _value = _cmd.getOptionValue(_longOpt);
+        if(_value == null)
+        {
+            return 1;
+        }
+
+        int _count;
+        try
+        {
+            _count = Integer.parseUnsignedInt(_value);
+        }
+        catch(NumberFormatException _ex)
+        {
+            _count = 0;
+        }
+
+        if(_count < 1)
+        {
+            throw new ParseException("Could not convert --" + _longOpt + " to a positive integer: " + _value);
+        }
+        return _count;
+    }
+
+    /**
+     * Get the interval tasks log their progress at.
+     * @param _cmd
+     * @return
+     * @throws ParseException
+     */
+    private static Duration parseProgressInterval(TaskDriverOptions _cmd)
+            throws ParseException
+    {
+        String _value = _cmd.getOptionValue(OPT_PROGRESS);
+        if(_value == null)
+        {
+            return PROGRESS_INTERVAL;
+        }
+
+        if(_value.equals("0"))
+        {
+            return Duration.ZERO;
+        }
+
+        Duration _interval = ArgConverters.DURATION.convert(_value);
+        if(_interval == null || _interval.isNegative())
+        {
+            throw new ParseException("Could not convert --" + OPT_PROGRESS + " to a duration: " + _value);
+        }
+        return _interval;
+    }
+
+    /**
+     * Read command lines from the batch source and execute each of them. Options
+     * given with --batch are prepended to every line.
+     * @param _cmd
+     * @param _workingDir
+     * @param _env
+     * @param _output Output shared by the commands.
+     * @param _profiler
+     * @throws Exception
+     */
+    private void runBatch(TaskDriverOptions _cmd, Path _workingDir, Map<String, String> _env,
+            TaskOutput _output, TaskProfiler _profiler)
+            throws Exception
+    {
+        if(_cmd.getArgList().size() > 0)
+        {
+            ParseException _ex = new ParseException("Task arguments can not be combined with --" + OPT_BATCH);
+            logTerminating(_ex);
+            throw _ex;
+        }
+
+        _metrics.register(_implTitle);
+        List<String> _baseArgs = _cmd.getBaseArgs(OPT_BATCH, OPT_METRICS, OPT_OUTPUT, OPT_OUTPUT_FORMAT);
+        String _source = _cmd.getOptionValue(OPT_BATCH);
+        int _lineNum = 0;
+        int _okCount = 0;
+        int _failCount = 0;
+
+        try (BufferedReader _reader = TaskArgSource.open(_source, _workingDir))
+        {
+            String _line;
+            while((_line = _reader.readLine()) != null)
+            {
+                _lineNum++;
+                String _trimmed = _line.trim();
+                if(_trimmed.isEmpty() || _trimmed.startsWith("#"))
+                {
+                    continue;
+                }
+
+                if(runBatchLine(_baseArgs, _trimmed, _workingDir, _env, _output, _profiler))
+                {
+                    _okCount++;
+                    LOG.info("Batch line {}: OK", _lineNum);
+                }
+                else
+                {
+                    _failCount++;
+                    LOG.error("Batch line {}: FAILED <{}>", _lineNum, _trimmed);
+                }
+            }
+        }
+
+        LOG.info("Batch Complete: {} succeeded, {} failed", _okCount, _failCount);
+        if(_failCount > 0)
+        {
+            throw new Exception(String.format("Batch failed: %d of %d commands failed.",
+                    _failCount, _okCount + _failCount));
+        }
+    }
+
+    /**
+     * Serve command lines from daemon clients until the idle timeout expires.
+     * Options given with --daemon are prepended to every client command line.
+     * @param _cmd
+     * @throws Exception
+     */
+    private void runDaemon(TaskDriverOptions _cmd)
+            throws Exception
+    {
+        long _timeoutSec = DAEMON_TIMEOUT_SEC;
+        try
+        {
+            String _timeoutStr = _cmd.getOptionValue(OPT_DAEMON_TIMEOUT);
+            if(_timeoutStr != null)
+            {
+                _timeoutSec = Long.parseUnsignedLong(_timeoutStr);
+            }
+
+            if(_cmd.getArgList().size() > 0)
+            {
+                throw new ParseException("Task arguments can not be combined with --" + OPT_DAEMON);
+            }
+        }
+        catch(NumberFormatException _ex)
+        {
+            ParseException _parseEx = new ParseException("Could not convert --" + OPT_DAEMON_TIMEOUT
+                    + " to integer: " + _cmd.getOptionValue(OPT_DAEMON_TIMEOUT));
+            logTerminating(_parseEx);
+            throw _parseEx;
+        }
+        catch(ParseException _ex)
+        {
+            logTerminating(_ex);
+            throw _ex;
+        }
+
+        _metrics.register(_implTitle);
+        List<String> _baseArgs = _cmd.getBaseArgs(OPT_DAEMON, OPT_DAEMON_TIMEOUT, OPT_METRICS, OPT_OUTPUT);
+        new TaskDriverDaemon<E>(this, this._implTitle, _baseArgs, TimeUnit.SECONDS.toMillis(_timeoutSec))
+                .serve();
+    }
+
+    /**
+     * Parse and execute a single batch line. Errors have already been logged when
+     * this returns false.
+     * @param _baseArgs Options given with --batch.
+     * @param _line
+     * @param _workingDir
+     * @param _env
+     * @param _output
+     * @param _profiler
+     * @return true if the task succeeded.
+     */
+    private boolean runBatchLine(List<String> _baseArgs, String _line, Path _workingDir,
+            Map<String, String> _env, TaskOutput _output, TaskProfiler _profiler)
+    {
+        TaskDriverOptions _cmd;
+        try
+        {
+            List<String> _lineArgs = new ArrayList<>(_baseArgs);
+            _lineArgs.addAll(splitLine(_line));
+
+            _cmd = parseOptions(_lineArgs.toArray(new String[0]), _profiler);
+            for(String _option : Arrays.asList(OPT_BATCH, OPT_OUTPUT, OPT_OUTPUT_FORMAT))
+            {
+                if(_cmd.hasOption(_option))
+                {
+                    ParseException _ex = new ParseException("Option --" + _option + " can not be used in a batch line.");
+                    logTerminating(_ex);
+                    return false;
+                }
+            }
+        }
+        catch(ParseException _ex)
+        {
+            // already logged
+            return false;
+        }
+
+        try
+        {
+            runTask(_cmd, _workingDir, _env, _output, _profiler);
+        }
+        catch(Exception _ex)
+        {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Split a batch line into arguments. Whitespace separates arguments unless
+     * it is inside single or double quotes. A backslash escapes the next
+     * character outside of single quotes.
+     * @param _line
+     * @return
+     * @throws ParseException
+     */
+    private static List<String> splitLine(String _line)
+            throws ParseException
+    {
+        List<String> _result = new ArrayList<>();
+        StringBuilder _current = new StringBuilder();
+        boolean _inToken = false;
+        char _quote = 0;
+
+        for(int _idx = 0; _idx < _line.length(); _idx++)
+        {
+            char _ch = _line.charAt(_idx);
+
+            if(_ch == '\\' && _quote != '\'' && _idx + 1 < _line.length())
+            {
+                _current.append(_line.charAt(++_idx));
+                _inToken = true;
+            }
+            else if(_quote != 0)
+            {
+                if(_ch == _quote)
+                {
+                    _quote = 0;
+                }
+                else
+                {
+                    _current.append(_ch);
+                }
+            }
+            else if(_ch == '"' || _ch == '\'')
+            {
+                _quote = _ch;
+                _inToken = true;
+            }
+            else if(Character.isWhitespace(_ch))
+            {
+                if(_inToken)
+                {
+                    _result.add(_current.toString());
+                    _current.setLength(0);
+                    _inToken = false;
+                }
+            }
+            else
+            {
+                _current.append(_ch);
+                _inToken = true;
+            }
+        }
+
+        if(_quote != 0)
+        {
+            throw new ParseException("Unterminated quote in line: " + _line);
+        }
+
+        if(_inToken)
+        {
+            _result.add(_current.toString());
+        }
+        return _result;
+    }
+
+    /**
+     * Log a parse error that terminates the task.
+     * @param _ex
+     */
+    private static void logTerminating(ParseException _ex)
+    {
+        if(LOG.isDebugEnabled())
+        {
+            LOG.error("Terminating: {}", _ex.getMessage(), _ex);
+        }
+        else
+        {
+            LOG.error("Terminating: {}", _ex.getMessage());
+        }
+    }
+
+    /**
+     * Set a specified loggers in package to DEBUG. During a run this only
+     * applies to the threads of the run, so concurrent runs and daemon
+     * clients keep their levels and the level is restored when the run ends.
+     * @param _package
+     */
+    public static void setPackageDebug(Package _package)
+    {
+        String _packageName = _package.getName();
+        if(ConsoleRouter.addDebugPackage(_packageName))
+        {
+            TaskDebugFilter.install();
+        }
+        else
+        {
+            ch.qos.logback.classic.Logger _logger = (ch.qos.logback.classic.Logger)LoggerFactory.getLogger(_packageName);
+            _logger.setLevel(Level.DEBUG);
+        }
+
+        LOG.debug("Level {} enabled for: <{}>", Level.DEBUG, _packageName);
+    }
+
+    /**
+     * Parse command line arguments into new invocations. Several tasks can be
+     * given if they are separated by a "," argument.
+     * @param _cmd
+     * @param _workingDir
+     * @param _env
+     * @return
+     * @throws Exception
+     */
+    List<TaskInvocation<E>> parseArgs(TaskDriverOptions _cmd, Path _workingDir, Map<String, String> _env)
+            throws Exception
+    {
+        // some of these args will be processed by the task
+        List<String> _argList = _cmd.getArgList();
+        List<TaskInvocation<E>> _invocations = new ArrayList<>();
+        TaskArgSource.checkSources(_argList, _workingDir);
+
+        int _start = 0;
+        while(_start <= _argList.size())
+        {
+            int _end = _argList.subList(_start, _argList.size()).indexOf(TASK_SEPARATOR);
+            _end = (_end < 0) ? _argList.size() : _start + _end;
+
+            List<String> _taskList = _argList.subList(_start, _end);
+            TaskDefinition<E> _taskDef = parseTask(_taskList);
+            List<String> _taskArgs = _taskList.subList(1, _taskList.size());
+            _invocations.add(new TaskInvocation<E>(_taskDef, _cmd, _taskArgs, _workingDir, _env));
+
+            _start = _end + 1;
+        }
+        return _invocations;
+    }
+
+    /**
+     * Default option parse.
+     * @param _args
+     * @return
+     * @throws ParseException
+     */
+    TaskDriverOptions parseOptions(String[] _args)
+            throws ParseException
+    {
+        TaskDriverOptions _cmd = _parser.parse(_args);
+
+        if(_cmd.hasOption("d"))
+        {
+            setPackageDebug(TaskDriver.class.getPackage());
+        }
+
+        if(LOG.isDebugEnabled())
+        {
+            LOG.debug("ARGS: {}", formatArgs(_args));
+        }
+
+        boolean _needsTask = !_cmd.hasOption(OPT_BATCH) && !_cmd.hasOption(OPT_DAEMON)
+                && !_cmd.hasOption(OPT_COMPLETION);
+        if(_cmd.hasOption("h") || (_cmd.getArgList().size() == 0 && _needsTask))
+        {
+            StringWriter _sw = new StringWriter();
+            printHelp(new PrintWriter(_sw));
+            LOG.info(_sw.toString());
+            throw new ParseException("Help option requested");
+        }
+
+        return _cmd;
+    }
+
+    /**
+     * Format the command line for the debug log.
+     * @param _args
+     * @return
+     */
+    static String formatArgs(String[] _args)
+    {
+        return Arrays.stream(_args).collect(Collectors.joining(") (", "(", ")"));
+    }
+
+    /**
+     * Determine the task definition from the arguments.
+     * @param _args
+     * @return
+     * @throws MissingArgumentException
+     */
+    private TaskDefinition<E> parseTask(List<String> _args)
+            throws MissingArgumentException
+    {
+        if(_args.isEmpty())
+        {
+            throw new MissingArgumentException("Missing task argument: " + _taskDefs.getSummary());
+        }
+
+        String _taskStr = _args.get(0);
+        TaskDefinition<E> _taskDef = _taskDefs.get(_taskStr);
+        if(_taskDef == null)
+        {
+            throw new MissingArgumentException(
+                    String.format("<%s> must be one one of %s. ", _taskStr, _taskDefs.getSummary()));
+        }
+
+        TaskDriver.LOG.debug("OPTION: task = <{}>", _taskDef.getEnum());
+        return _taskDef;
+    }
+
+    /**
+     * Print command line help.
+     * @param _pw
+     */
+    void printHelp(PrintWriter _pw)
+    {
+        final String _cmdSyntax = String.format("%s [OPTIONS] %s", this._implTitle, _taskDefs.getSummary());
+
+        _pw.println(OptionHelp.format(_cmdSyntax, getPublicOptions().getOptions(), HELP_LINE_WIDTH,
+                HELP_INDENT_WIDTH, HELP_DESC_PAD_WIDTH));
+        _pw.println();
+        _pw.println(String.format("%s (v%s)", this._specTitle, this._version));
+        _pw.println();
+        _pw.println("You must choose one of the following tasks:");
+        _pw.println(_taskDefs.getDetails());
+        _pw.println();
+        printHelpFooter(_pw);
+    }
+
+    /**
+     * Get the options shown in help and completion. The option that starts a
+     * worker is only passed by the driver so it is left out.
+     * @return
+     */
+    private Options getPublicOptions()
+    {
+        Options _public = new Options();
+        for(Option _option : _optionDefs.getOptions())
+        {
+            if(!OPT_WORKER.equals(_option.getLongOpt()))
+            {
+                _public.addOption(_option);
+            }
+        }
+        return _public;
     }
 
     /**
@@ -0,0 +1,295 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Thin client that forwards a command line to a running TaskDriver daemon and
+ * streams the output back. It only uses JDK classes so that it starts quickly.
+ * If no daemon is running and the system property taskdriver.main names the
+ * main class, the command is run in this JVM instead.
+ * @author Chad Juliano
+ */
+public class TaskDriverClient
+{
+    static final int    PROTOCOL_VERSION = 1;
+
+    static final int    FRAME_STDOUT     = 1;
+    static final int    FRAME_STDERR     = 2;
+    static final int    FRAME_STDIN      = 3;
+    static final int    FRAME_EXIT       = 4;
+
+    static final String PROP_PORT        = "port";
+    static final String PROP_TOKEN       = "token";
+
+    /** Exit code when no daemon is available. */
+    public static final int EXIT_NO_DAEMON = 2;
+
+    private final String _program;
+
+    /**
+     * Constructor
+     * @param _program Program name used to locate the daemon file.
+     */
+    public TaskDriverClient(String _program)
+    {
+        this._program = _program;
+    }
+
+    /**
+     * Forward the command line to the daemon.
+     * @param _args
+     * @return exit code of the task.
+     * @throws Exception
+     */
+    public int execute(String[] _args)
+            throws Exception
+    {
+        Path _daemonFile = getDaemonFile(_program);
+        if(!Files.exists(_daemonFile))
+        {
+            return runLocal(_args);
+        }
+
+        Properties _props = new Properties();
+        try (InputStream _is = Files.newInputStream(_daemonFile))
+        {
+            _props.load(_is);
+        }
+
+        int _port = Integer.parseInt(_props.getProperty(PROP_PORT));
+        Socket _socket;
+        try
+        {
+            _socket = new Socket(InetAddress.getLoopbackAddress(), _port);
+        }
+        catch(IOException _ex)
+        {
+            // stale file from a daemon that did not shut down cleanly.
+            return runLocal(_args);
+        }
+
+        // closing the streams closes the socket.
+        try (DataOutputStream _out = new DataOutputStream(new BufferedOutputStream(_socket.getOutputStream()));
+                DataInputStream _in = new DataInputStream(new BufferedInputStream(_socket.getInputStream())))
+        {
+            _out.writeInt(PROTOCOL_VERSION);
+            writeString(_out, _props.getProperty(PROP_TOKEN));
+            _out.writeInt(_args.length);
+            for(String _arg : _args)
+            {
+                writeString(_out, _arg);
+            }
+            writeString(_out, Paths.get("").toAbsolutePath().toString());
+
+            Map<String, String> _env = System.getenv();
+            _out.writeInt(_env.size());
+            for(Map.Entry<String, String> _entry : _env.entrySet())
+            {
+                writeString(_out, _entry.getKey());
+                writeString(_out, _entry.getValue());
+            }
+            _out.flush();
+
+            startStdinPump(_out);
+            return readFrames(_in);
+        }
+    }
+
+    /**
+     * Copy frames from the daemon to the console until the exit code is
+     * received.
+     * @param _in
+     * @return
+     * @throws IOException
+     */
+    private static int readFrames(DataInputStream _in)
+            throws IOException
+    {
+        byte[] _buf = new byte[8192];
+        while(true)
+        {
+            int _type = _in.readByte();
+            if(_type == FRAME_EXIT)
+            {
+                System.out.flush();
+                System.err.flush();
+                return _in.readInt();
+            }
+
+            int _len = _in.readInt();
+            if(_buf.length < _len)
+            {
+                _buf = new byte[_len];
+            }
+            _in.readFully(_buf, 0, _len);
+
+            PrintStream _target = (_type == FRAME_STDERR) ? System.err : System.out;
+            _target.write(_buf, 0, _len);
+        }
+    }
+
+    /**
+     * Forward stdin to the daemon in the background. A zero length frame
+     * indicates end of input.
+     * @param _out
+     */
+    private static void startStdinPump(DataOutputStream _out)
+    {
+        Thread _pump = new Thread(() ->
+        {
+            byte[] _buf = new byte[8192];
+            try
+            {
+                int _len;
+                while((_len = System.in.read(_buf)) > 0)
+                {
+                    writeFrame(_out, FRAME_STDIN, _buf, 0, _len);
+                }
+                writeFrame(_out, FRAME_STDIN, _buf, 0, 0);
+            }
+            catch(IOException _ex)
+            {
+                // the daemon closed the connection.
+            }
+        }, "task-driver-stdin");
+
+        _pump.setDaemon(true);
+        _pump.start();
+    }
+
+    /**
+     * Run the main class in this JVM when no daemon is available.
+     * @param _args
+     * @return
+     * @throws Exception
+     */
+    private int runLocal(String[] _args)
+            throws Exception
+    {
+        String _mainClass = System.getProperty("taskdriver.main");
+        if(_mainClass == null)
+        {
+            System.err.println("No daemon is running for: " + _program);
+            return EXIT_NO_DAEMON;
+        }
+
+        Method _main = Class.forName(_mainClass).getMethod("main", String[].class);
+        _main.invoke(null, (Object)_args);
+        return 0;
+    }
+
+    /**
+     * Get the file a daemon uses to publish its port and token.
+     * @param _program
+     * @return
+     */
+    static Path getDaemonFile(String _program)
+    {
+        String _name = _program.replaceAll("[^A-Za-z0-9._-]", "_");
+        return Paths.get(System.getProperty("user.home"), ".task-driver", _name + ".daemon");
+    }
+
+    /**
+     * Write a length prefixed frame.
+     * @param _out
+     * @param _type
+     * @param _buf
+     * @param _off
+     * @param _len
+     * @throws IOException
+     */
+    static void writeFrame(DataOutputStream _out, int _type, byte[] _buf, int _off, int _len)
+            throws IOException
+    {
+        synchronized(_out)
+        {
+            _out.writeByte(_type);
+            _out.writeInt(_len);
+            _out.write(_buf, _off, _len);
+            _out.flush();
+        }
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string. Unlike writeUTF() there is no
+     * 64K limit.
+     * @param _out
+     * @param _value
+     * @throws IOException
+     */
+    static void writeString(DataOutputStream _out, String _value)
+            throws IOException
+    {
+        byte[] _bytes = _value.getBytes(StandardCharsets.UTF_8);
+        _out.writeInt(_bytes.length);
+        _out.write(_bytes);
+    }
+
+    /**
+     * Read a string written by writeString().
+     * @param _in
+     * @return
+     * @throws IOException
+     */
+    static String readString(DataInputStream _in)
+            throws IOException
+    {
+        byte[] _bytes = new byte[_in.readInt()];
+        _in.readFully(_bytes);
+        return new String(_bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Program entry point.
+     * @param _args
+     */
+    public static void main(String _args[])
+    {
+        String _program = System.getProperty("taskdriver.program");
+        if(_program == null)
+        {
+            _program = TaskDriverClient.class.getPackage().getImplementationTitle();
+        }
+        if(_program == null)
+        {
+            _program = "task-driver";
+        }
+
+        int _exitCode;
+        try
+        {
+            _exitCode = new TaskDriverClient(_program).execute(_args);
+        }
+        catch(Exception _ex)
+        {
+            System.err.println("Client Failed: " + _ex);
+            _exitCode = 1;
+        }
+        System.exit(_exitCode);
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived server that executes command lines forwarded by
+ * TaskDriverClient. All clients share the driver that started the daemon, so
+ * its option and task definitions are only compiled once. Each run keeps its
+ * state in its own invocations and each client gets its own console so
+ * concurrent clients do not see each other's state or output.
+ * <p>
+ * A task that the watchdog can not stop only fails its own client. The daemon
+ * then stops taking clients and exits when the other clients are done, so it
+ * can be restarted without the stuck thread.
+ * <p>
+ * The tasks of a client are cancelled when its connection closes before the
+ * run is done, for example when the client is stopped with Ctrl-C. The output
+ * of a client is sent by a FrameSender so a client that reads slowly does not
+ * hold up the console of the other clients.
+ * <p>
+ * The daemon listens on the loopback interface and publishes its port and a
+ * random token in a file that is only readable by the owner. Clients must
+ * present the token to be served.
+ * @author Chad Juliano
+ * @param <E> Enumeration of supported tasks.
+ */
+class TaskDriverDaemon<E extends Enum<E>>
+{
+    private static final Logger LOG             = LoggerFactory.getLogger(TaskDriverDaemon.class);
+    private static final int    ACCEPT_POLL_MS  = 1000;
+    private static final int    TOKEN_BYTES     = 16;
+    private static final int    STDIN_PIPE_SIZE = 65536;
+
+    private final TaskDriver<E> _driver;
+    private final List<String>  _baseArgs;
+    private final long          _idleMillis;
+    private final Path          _daemonFile;
+    private final String        _token;
+
+    private final AtomicInteger _activeClients  = new AtomicInteger();
+    private volatile long       _lastActivity   = System.currentTimeMillis();
+    private volatile boolean    _restart        = false;
+
+    /**
+     * Constructor
+     * @param _driver Driver that runs the command lines of all clients.
+     * @param _program Program name used to publish the daemon file.
+     * @param _baseArgs Options that are prepended to each client command line.
+     * @param _idleMillis Shutdown after this many milliseconds without clients.
+     */
+    TaskDriverDaemon(TaskDriver<E> _driver, String _program, List<String> _baseArgs, long _idleMillis)
+    {
+        this._driver = _driver;
+        this._baseArgs = _baseArgs;
+        this._idleMillis = _idleMillis;
+        this._daemonFile = TaskDriverClient.getDaemonFile(_program);
+
+        byte[] _tokenBytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(_tokenBytes);
+        StringBuilder _sb = new StringBuilder();
+        for(byte _byte : _tokenBytes)
+        {
+            _sb.append(String.format("%02x", _byte));
+        }
+        this._token = _sb.toString();
+    }
+
+    /**
+     * Accept clients until the idle timeout expires.
+     * @throws IllegalStateException if the daemon stopped because a task did
+     * not stop after it was cancelled.
+     * @throws Exception
+     */
+    void serve()
+            throws Exception
+    {
+        ConsoleRouter.install();
+        ExecutorService _clientPool = Executors.newCachedThreadPool();
+
+        try (ServerSocket _server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress()))
+        {
+            _server.setSoTimeout(ACCEPT_POLL_MS);
+            publish(_server.getLocalPort());
+            LOG.info("Daemon listening on port {} (idle timeout {}s)", _server.getLocalPort(),
+                    TimeUnit.MILLISECONDS.toSeconds(_idleMillis));
+
+            while(!isIdle() && !_restart)
+            {
+                Socket _socket;
+                try
+                {
+                    _socket = _server.accept();
+                }
+                catch(SocketTimeoutException _ex)
+                {
+                    continue;
+                }
+
+                _activeClients.incrementAndGet();
+                _clientPool.execute(() -> handleClient(_socket));
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(_daemonFile);
+            _clientPool.shutdown();
+        }
+
+        if(_restart)
+        {
+            // the other clients are served before the caller exits the JVM.
+            _clientPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            throw new IllegalStateException("Daemon stopped because a task did not stop after it was cancelled.");
+        }
+
+        LOG.info("Daemon stopped after {}s idle.", TimeUnit.MILLISECONDS.toSeconds(_idleMillis));
+    }
+
+    /**
+     * @return true if there are no clients and the idle timeout has expired.
+     */
+    private boolean isIdle()
+    {
+        return _activeClients.get() == 0
+                && System.currentTimeMillis() - _lastActivity > _idleMillis;
+    }
+
+    /**
+     * Write the port and token where clients can find them. The file is
+     * written under another name and then moved so a client never reads a
+     * partial file.
+     * @param _port
+     * @throws IOException
+     */
+    private void publish(int _port)
+            throws IOException
+    {
+        Files.createDirectories(_daemonFile.getParent());
+        Files.deleteIfExists(_daemonFile);
+
+        Path _tempFile = _daemonFile.resolveSibling(_daemonFile.getFileName() + ".tmp");
+        Files.deleteIfExists(_tempFile);
+        if(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+        {
+            Files.createFile(_tempFile,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+
+        Properties _props = new Properties();
+        _props.setProperty(TaskDriverClient.PROP_PORT, Integer.toString(_port));
+        _props.setProperty(TaskDriverClient.PROP_TOKEN, _token);
+        try (OutputStream _os = Files.newOutputStream(_tempFile))
+        {
+            _props.store(_os, "TaskDriver daemon");
+        }
+        Files.move(_tempFile, _daemonFile, StandardCopyOption.ATOMIC_MOVE);
+        _daemonFile.toFile().deleteOnExit();
+    }
+
+    /**
+     * Serve a single client connection. Closing the streams closes the
+     * socket.
+     * @param _socket
+     */
+    private void handleClient(Socket _socket)
+    {
+        try (DataInputStream _in = new DataInputStream(new BufferedInputStream(_socket.getInputStream()));
+                DataOutputStream _out = new DataOutputStream(new BufferedOutputStream(_socket.getOutputStream())))
+        {
+            if(_in.readInt() != TaskDriverClient.PROTOCOL_VERSION)
+            {
+                LOG.warn("Rejected client with unsupported protocol version.");
+                return;
+            }
+
+            byte[] _clientToken = TaskDriverClient.readString(_in).getBytes(StandardCharsets.UTF_8);
+            if(!MessageDigest.isEqual(_clientToken, _token.getBytes(StandardCharsets.UTF_8)))
+            {
+                LOG.warn("Rejected client with invalid token.");
+                return;
+            }
+
+            List<String> _args = new ArrayList<>(_baseArgs);
+            int _argCount = _in.readInt();
+            for(int _idx = 0; _idx < _argCount; _idx++)
+            {
+                _args.add(TaskDriverClient.readString(_in));
+            }
+
+            String _workingDir = TaskDriverClient.readString(_in);
+            Map<String, String> _env = new HashMap<>();
+            int _envCount = _in.readInt();
+            for(int _idx = 0; _idx < _envCount; _idx++)
+            {
+                _env.put(TaskDriverClient.readString(_in), TaskDriverClient.readString(_in));
+            }
+
+            int _exitCode = runClient(_args, _workingDir, _env, _in, _out);
+
+            synchronized(_out)
+            {
+                _out.writeByte(TaskDriverClient.FRAME_EXIT);
+                _out.writeInt(_exitCode);
+                _out.flush();
+            }
+        }
+        catch(Exception _ex)
+        {
+            LOG.warn("Client connection failed: {}", _ex.getMessage());
+        }
+        finally
+        {
+            _lastActivity = System.currentTimeMillis();
+            _activeClients.decrementAndGet();
+        }
+    }
+
+    /**
+     * Run the command line with the console routed to the client. The run
+     * thread belongs to a fork/join pool of the client so parallel streams of
+     * its tasks run on threads that write to the client and not on the common
+     * pool. If a task does not stop the client gets the exit code of the
+     * watchdog without waiting for the run. If the client disconnects the
+     * tasks of the run are cancelled.
+     * @return exit code
+     * @throws Exception
+     */
+    private int runClient(List<String> _args, String _workingDir, Map<String, String> _env,
+            DataInputStream _in, DataOutputStream _out)
+            throws Exception
+    {
+        FrameSender _sender = new FrameSender(_out, "task-driver-daemon-out");
+        PrintStream _clientOut = new PrintStream(new BufferedOutputStream(
+                _sender.stream(TaskDriverClient.FRAME_STDOUT)), true);
+        PrintStream _clientErr = new PrintStream(new BufferedOutputStream(
+                _sender.stream(TaskDriverClient.FRAME_STDERR)), true);
+
+        CompletableFuture<Integer> _exitCode = new CompletableFuture<>();
+        TaskCanceller.Scope _scope = new TaskCanceller.Scope();
+
+        PipedInputStream _clientIn = new PipedInputStream(STDIN_PIPE_SIZE);
+        PipedOutputStream _stdinSink = new PipedOutputStream(_clientIn);
+        Thread _pump = startStdinPump(_in, _stdinSink, () ->
+        {
+            if(!_exitCode.isDone())
+            {
+                LOG.warn("Client disconnected. Cancelling its tasks.");
+                _scope.cancel();
+            }
+        });
+
+        ConsoleRouter.route(_clientOut, _clientErr, _clientIn);
+        ConsoleRouter.setStuckHandler(() -> abandon(_exitCode));
+        ForkJoinPool _clientPool = ConsoleRouter.newPool(ForkJoinPool.getCommonPoolParallelism());
+        try
+        {
+            _clientPool.execute(() ->
+            {
+                try
+                {
+                    TaskCanceller.enter(_scope);
+                    _driver.run(_args.toArray(new String[0]), Paths.get(_workingDir), _env);
+                    _exitCode.complete(0);
+                }
+                catch(Exception _ex)
+                {
+                    _exitCode.complete(1);
+                }
+                finally
+                {
+                    _exitCode.complete(1);
+                }
+            });
+            return _exitCode.get();
+        }
+        finally
+        {
+            _clientPool.shutdown();
+            ConsoleRouter.clear();
+            _clientOut.flush();
+            _clientErr.flush();
+            _sender.close();
+            _pump.interrupt();
+        }
+    }
+
+    /**
+     * Give up on a client whose task did not stop after it was cancelled. The
+     * daemon file is removed so new clients do not connect to this daemon.
+     * @param _exitCode
+     */
+    private void abandon(CompletableFuture<Integer> _exitCode)
+    {
+        _restart = true;
+        LOG.error("A task did not stop. The daemon will exit when the other clients are done.");
+        try
+        {
+            Files.deleteIfExists(_daemonFile);
+        }
+        catch(IOException _ex)
+        {
+            LOG.warn("Could not delete {}: {}", _daemonFile, _ex.getMessage());
+        }
+        _exitCode.complete(TaskWatchdog.EXIT_CODE);
+    }
+
+    /**
+     * Copy stdin frames from the client into the pipe read by the task. The
+     * connection is read after the end of stdin so a disconnect is noticed.
+     * @param _in
+     * @param _sink
+     * @param _onDisconnect Called when the client closes the connection.
+     * @return
+     */
+    private static Thread startStdinPump(DataInputStream _in, PipedOutputStream _sink, Runnable _onDisconnect)
+    {
+        Thread _pump = new Thread(() ->
+        {
+            PipedOutputStream _pipe = _sink;
+            try
+            {
+                byte[] _buf = new byte[8192];
+                while(!Thread.currentThread().isInterrupted()
+                        && _in.readByte() == TaskDriverClient.FRAME_STDIN)
+                {
+                    int _len = _in.readInt();
+                    if(_buf.length < _len)
+                    {
+                        _buf = new byte[_len];
+                    }
+                    _in.readFully(_buf, 0, _len);
+                    _pipe = writeStdin(_pipe, _buf, _len);
+                }
+            }
+            catch(IOException _ex)
+            {
+                // end of stream or connection reset by the client.
+                _onDisconnect.run();
+            }
+            finally
+            {
+                writeStdin(_pipe, null, 0);
+            }
+        }, "task-driver-daemon-stdin");
+
+        _pump.setDaemon(true);
+        _pump.start();
+        return _pump;
+    }
+
+    /**
+     * Write a stdin frame to the pipe read by the task. A zero length frame
+     * is the end of stdin and closes the pipe.
+     * @param _pipe Pipe or null if it is closed.
+     * @param _buf
+     * @param _len
+     * @return the pipe or null if it was closed.
+     */
+    private static PipedOutputStream writeStdin(PipedOutputStream _pipe, byte[] _buf, int _len)
+    {
+        if(_pipe == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            if(_len > 0)
+            {
+                _pipe.write(_buf, 0, _len);
+                return _pipe;
+            }
+        }
+        catch(IOException _ex)
+        {
+            // the task stopped reading. the rest of stdin is discarded.
+        }
+
+        try
+        {
+            _pipe.close();
+        }
+        catch(IOException _ex)
+        {
+            LOG.debug("Could not close stdin pipe: {}", _ex.getMessage());
+        }
+        return null;
+    }
+}
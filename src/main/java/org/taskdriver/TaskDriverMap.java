@@ -10,17 +10,33 @@
 
 package org.taskdriver;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
- * Contains a mapping of task names to definitions.
+ * Contains a mapping of task names to definitions. Definitions are stored by
+ * the ordinal of the task enum. Names are resolved with a binary search of
+ * the sorted task names that is compiled when the map is sealed. Tasks added
+ * from a {@link TaskRegistry} use the lookup and help text of the registry
+ * until another task is added.
  * @author Chad Juliano
  * @param <E> Enumeration of supported tasks.
  */
-public class TaskDriverMap<E extends Enum<E>> extends HashMap<String, TaskDefinition<E>>
+public class TaskDriverMap<E extends Enum<E>>
 {
-    private static final long serialVersionUID = 1L;
+    private final List<TaskDefinition<E>> _taskList    = new ArrayList<>();
+    private TaskDefinition<E>[]           _byOrdinal   = null;
+
+    // compiled lookup of task names
+    private String[]                      _sortedNames = null;
+    private TaskDefinition<E>[]           _sortedDefs  = null;
+    private String                        _summary     = null;
+    private String                        _details     = null;
+    private TaskRegistry<E>               _registry    = null;
 
     /**
      * Constructor.
@@ -35,23 +51,201 @@ public class TaskDriverMap<E extends Enum<E>> extends HashMap<String, TaskDefini
      * @param _description
      * @return
      */
+    @SuppressWarnings("unchecked")
     public TaskDefinition<E> add(E _enum, String _description)
     {
+        if(_byOrdinal == null)
+        {
+            int _enumCount = _enum.getDeclaringClass().getEnumConstants().length;
+            _byOrdinal = (TaskDefinition<E>[])new TaskDefinition<?>[_enumCount];
+        }
+
         TaskDefinition<E> _task = new TaskDefinition<E>(_enum, _description);
-        this.put(_task.toString(), _task);
+        _task.setTaskMap(this);
+        TaskDefinition<E> _previous = _byOrdinal[_enum.ordinal()];
+        if(_previous != null)
+        {
+            _taskList.remove(_previous);
+        }
+
+        _byOrdinal[_enum.ordinal()] = _task;
+        _taskList.add(_task);
+        _sortedNames = null;
+        _registry = null;
         return _task;
     }
 
+    /**
+     * Add the task definitions of a registry. If the map was empty the name
+     * lookup and help text of the registry are used.
+     * @param _taskRegistry
+     */
+    void addAll(TaskRegistry<E> _taskRegistry)
+    {
+        boolean _empty = _taskList.isEmpty();
+        _taskRegistry.define(this);
+        this._registry = _empty ? _taskRegistry : null;
+    }
+
+    /**
+     * Get a task definition by the name used on the command line.
+     * @param _name
+     * @return definition or null if there is no task with the name.
+     */
+    public TaskDefinition<E> get(String _name)
+    {
+        if(_registry != null)
+        {
+            E _enum = _registry.find(_name);
+            return (_enum == null) ? null : get(_enum);
+        }
+
+        compile();
+        int _pos = Arrays.binarySearch(_sortedNames, _name);
+        return (_pos >= 0) ? _sortedDefs[_pos] : null;
+    }
+
+    /**
+     * Get a task definition by its enum.
+     * @param _enum
+     * @return definition or null if the task was not added.
+     */
+    public TaskDefinition<E> get(E _enum)
+    {
+        if(_byOrdinal == null)
+        {
+            return null;
+        }
+        return _byOrdinal[_enum.ordinal()];
+    }
+
+    /**
+     * Find a chain of dependencies from one task to another.
+     * @param _from
+     * @param _to
+     * @return the tasks after _from up to and including _to or null if _from does not depend on _to.
+     */
+    List<E> findDependencyPath(E _from, E _to)
+    {
+        TaskDefinition<E> _fromDef = get(_from);
+        if(_fromDef == null)
+        {
+            return null;
+        }
+
+        for(E _prerequisite : _fromDef.getDependencies())
+        {
+            if(_prerequisite == _to)
+            {
+                return new ArrayList<>(Collections.singletonList(_to));
+            }
+
+            List<E> _path = findDependencyPath(_prerequisite, _to);
+            if(_path != null)
+            {
+                _path.add(0, _prerequisite);
+                return _path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return all task definitions in the order they were added.
+     */
+    public Collection<TaskDefinition<E>> values()
+    {
+        return Collections.unmodifiableList(_taskList);
+    }
+
+    /**
+     * @return number of task definitions.
+     */
+    public int size()
+    {
+        return _taskList.size();
+    }
+
+    /**
+     * Prevent further changes to the task definitions and compile the name
+     * lookup.
+     */
+    void seal()
+    {
+        for(TaskDefinition<E> _task : _taskList)
+        {
+            for(E _prerequisite : _task.getDependencies())
+            {
+                TaskDefinition<E> _prerequisiteDef = get(_prerequisite);
+                if(_prerequisiteDef == null)
+                {
+                    throw new IllegalStateException(String.format("Task %s depends on %s which was not added.",
+                            _task, _prerequisite));
+                }
+
+                if(_prerequisiteDef.getArgCount() > 0)
+                {
+                    throw new IllegalStateException(String.format("Task %s depends on %s which takes arguments.",
+                            _task, _prerequisiteDef));
+                }
+            }
+        }
+
+        _taskList.forEach(TaskDefinition::seal);
+        if(_registry == null)
+        {
+            compile();
+        }
+    }
+
+    /**
+     * Build the sorted name index and the help text if the definitions
+     * changed.
+     */
+    @SuppressWarnings("unchecked")
+    private void compile()
+    {
+        if(_sortedNames != null)
+        {
+            return;
+        }
+
+        List<TaskDefinition<E>> _sorted = new ArrayList<>(_taskList);
+        _sorted.sort((_left, _right) -> _left.toString().compareTo(_right.toString()));
+
+        String[] _names = new String[_sorted.size()];
+        TaskDefinition<E>[] _defs = (TaskDefinition<E>[])new TaskDefinition<?>[_sorted.size()];
+        for(int _idx = 0; _idx < _names.length; _idx++)
+        {
+            _names[_idx] = _sorted.get(_idx).toString();
+            _defs[_idx] = _sorted.get(_idx);
+        }
+
+        this._sortedDefs = _defs;
+        this._summary = _sorted.stream()
+                .map(TaskDefinition::toString)
+                .collect(Collectors.joining("|", "[", "]"));
+        this._details = _sorted.stream()
+                .map(TaskDefinition::formatLine)
+                .sorted().collect(Collectors.joining("\n"));
+
+        // assigned last because it marks the index as complete.
+        this._sortedNames = _names;
+    }
+
     /**
      * Get a one-line summary of the tasks for the help screen.
      * @return
      */
     public String getSummary()
     {
-        String _tasks = values().stream()
-                .map(TaskDefinition::toString)
-                .sorted().collect(Collectors.joining("|", "[", "]"));
-        return _tasks;
+        if(_registry != null)
+        {
+            return _registry.getSummary();
+        }
+
+        compile();
+        return _summary;
     }
 
     /**
@@ -60,9 +254,12 @@ public class TaskDriverMap<E extends Enum<E>> extends HashMap<String, TaskDefini
      */
     public String getDetails()
     {
-        String _details = values().stream()
-                .map(TaskDefinition::formatLine)
-                .sorted().collect(Collectors.joining("\n"));
+        if(_registry != null)
+        {
+            return _registry.getDetails();
+        }
+
+        compile();
         return _details;
     }
 }
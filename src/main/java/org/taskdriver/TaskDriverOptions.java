@@ -10,10 +10,13 @@
 
 package org.taskdriver;
 
-import org.apache.commons.cli.CommandLine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.commons.cli.MissingArgumentException;
 import org.apache.commons.cli.Option;
-import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,19 +27,27 @@ import org.slf4j.LoggerFactory;
  */
 public class TaskDriverOptions
 {
-    private static final Logger LOG = LoggerFactory.getLogger(TaskDriverOptions.class);
-    private final Options       _options;
-    private final CommandLine   _cmd;
+    private static final Logger   LOG = LoggerFactory.getLogger(TaskDriverOptions.class);
+    private final CompiledOptions _spec;
+    private final String[]        _values;
+    private final boolean[]       _present;
+    private final List<String>    _argList;
 
     /**
      * Constructor
-     * @param _options Apache options descriptor.
-     * @param _cmd Apache options values.
+     * @param _spec Compiled option descriptors.
+     * @param _values Option values addressed by option index.
+     * @param _present Options passed on the command line by option index.
+     * @param _args Arguments that are not options.
+     * @param _argCount Number of entries used in _args.
      */
-    protected TaskDriverOptions(Options _options, CommandLine _cmd)
+    TaskDriverOptions(CompiledOptions _spec, String[] _values, boolean[] _present, String[] _args,
+            int _argCount)
     {
-        this._options = _options;
-        this._cmd = _cmd;
+        this._spec = _spec;
+        this._values = _values;
+        this._present = _present;
+        this._argList = Arrays.asList(_args).subList(0, _argCount);
     }
 
     /**
@@ -47,15 +58,15 @@ public class TaskDriverOptions
      */
     public String getOptionOrDefault(String _opt, String _default)
     {
-        String _value = _cmd.getOptionValue(_opt);
-        Option _optObj = this._options.getOption(_opt);
+        int _idx = _spec.indexOf(_opt);
+        String _value = getOptionValue(_idx);
 
         if(_value == null)
         {
             _value = _default;
         }
 
-        LOG.debug("OPTION: {} = <{}>", _optObj.getLongOpt(), _value);
+        LOG.debug("OPTION: {} = <{}>", getLongOpt(_idx, _opt), _value);
         return _value;
     }
 
@@ -69,20 +80,48 @@ public class TaskDriverOptions
     public String getRequiredOption(String _opt)
             throws MissingArgumentException
     {
-        String _value = _cmd.getOptionValue(_opt);
-        Option _optObj = this._options.getOption(_opt);
+        int _idx = _spec.indexOf(_opt);
+        String _value = getOptionValue(_idx);
 
         if(_value == null)
         {
-            String _msg = String.format("Missing option: --%s <%s>", _optObj.getLongOpt(),
-                    _optObj.getDescription());
+            String _desc = (_idx < 0) ? null : _spec.get(_idx).getDescription();
+            String _msg = String.format("Missing option: --%s <%s>", getLongOpt(_idx, _opt), _desc);
             throw new MissingArgumentException(_msg);
         }
 
-        LOG.debug("OPTION: {} = <{}>", _optObj.getLongOpt(), _value);
+        LOG.debug("OPTION: {} = <{}>", getLongOpt(_idx, _opt), _value);
         return _value;
     }
 
+    /**
+     * Get an option converted to a type.
+     * @param _opt argument name
+     * @param _converter
+     * @return the converted value or null if the option was not passed.
+     * @throws ParseException if the value can not be converted.
+     */
+    public <T> T getOption(String _opt, ArgConverter<T> _converter)
+            throws ParseException
+    {
+        int _idx = _spec.indexOf(_opt);
+        String _value = getOptionValue(_idx);
+        if(_value == null)
+        {
+            return null;
+        }
+
+        T _result = _converter.convert(_value);
+        if(_result == null)
+        {
+            throw new ParseException(String.format("Could not convert --%s to %s: %s", getLongOpt(_idx, _opt),
+                    _converter.getTypeName(), _value));
+        }
+
+        LOG.debug("OPTION: {} = <{}>", getLongOpt(_idx, _opt), _result);
+        return _result;
+    }
+
     /**
      * Indicates if the option value was passed on the command line.
      * @param _opt argument name
@@ -90,6 +129,69 @@ public class TaskDriverOptions
      */
     public boolean hasOption(String _opt)
     {
-        return _cmd.hasOption(_opt);
+        int _idx = _spec.indexOf(_opt);
+        return _idx >= 0 && _present[_idx];
+    }
+
+    /**
+     * Get an option value without logging it.
+     * @param _opt argument name
+     * @return value or null if not passed.
+     */
+    String getOptionValue(String _opt)
+    {
+        return getOptionValue(_spec.indexOf(_opt));
+    }
+
+    /**
+     * Get the arguments that are not options.
+     * @return
+     */
+    List<String> getArgList()
+    {
+        return _argList;
+    }
+
+    /**
+     * Rebuild the options that were passed so they can be prepended to other
+     * command lines.
+     * @param _excludeOpts Long names of options to leave out.
+     * @return
+     */
+    List<String> getBaseArgs(String... _excludeOpts)
+    {
+        List<String> _excludeList = Arrays.asList(_excludeOpts);
+        List<String> _baseArgs = new ArrayList<>();
+        for(int _idx = 0; _idx < _present.length; _idx++)
+        {
+            Option _opt = _spec.get(_idx);
+            if(!_present[_idx] || _excludeList.contains(_opt.getLongOpt()))
+            {
+                continue;
+            }
+
+            _baseArgs.add(_opt.hasLongOpt() ? "--" + _opt.getLongOpt() : "-" + _opt.getOpt());
+            if(_opt.hasArg())
+            {
+                _baseArgs.add(_values[_idx]);
+            }
+        }
+        return _baseArgs;
+    }
+
+    /**
+     * @return value of the option at the index or null.
+     */
+    private String getOptionValue(int _idx)
+    {
+        return (_idx < 0) ? null : _values[_idx];
+    }
+
+    /**
+     * @return the long name of the option for messages.
+     */
+    private String getLongOpt(int _idx, String _opt)
+    {
+        return (_idx < 0) ? _opt : _spec.get(_idx).getLongOpt();
     }
 }
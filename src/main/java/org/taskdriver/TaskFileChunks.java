@@ -0,0 +1,333 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a large file as chunks that end at a line break so the lines can be
+ * processed in parallel on the fork/join pool. Each chunk is memory mapped
+ * when it is processed, so a file of any size is read without copying it to
+ * the heap. The stream of lines is ordered: collecting it merges the results
+ * in the order of the file, and a reduction combines the results of the
+ * chunks as they complete.
+ * <pre>
+ * try (TaskFileChunks _chunks = _invocation.takeArgChunks())
+ * {
+ *     List&lt;Record&gt; _records = _chunks.lines().map(Record::parse).collect(Collectors.toList());
+ *     long _errors = _chunks.lines().filter(_line -&gt; _line.contains("ERROR")).count();
+ * }
+ * </pre>
+ * Lines end with "\n" or "\r\n" and the line break is not included. The
+ * charset must encode "\n" as a single byte that is not part of another
+ * character, like UTF-8 or ISO-8859-1.
+ * @author Chad Juliano
+ */
+public final class TaskFileChunks implements Closeable
+{
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 64L << 20;
+    private static final int  SCAN_SIZE      = 8192;
+
+    private final Path        _path;
+    private final Charset     _charset;
+    private final FileChannel _channel;
+    private final long[]      _bounds;
+
+    private TaskFileChunks(Path _path, Charset _charset, long _chunkSize)
+            throws IOException
+    {
+        if(_chunkSize < 1)
+        {
+            throw new IllegalArgumentException("Chunk size must be at least 1: " + _chunkSize);
+        }
+
+        this._path = _path;
+        this._charset = _charset;
+        this._channel = FileChannel.open(_path, StandardOpenOption.READ);
+        try
+        {
+            this._bounds = findBounds(_chunkSize);
+        }
+        catch(IOException _ex)
+        {
+            _channel.close();
+            throw _ex;
+        }
+    }
+
+    /**
+     * Open a UTF-8 file with chunks sized so each thread of the fork/join
+     * pool gets several of them.
+     * @param _path
+     * @return
+     * @throws IOException if the file can not be read.
+     */
+    public static TaskFileChunks open(Path _path)
+            throws IOException
+    {
+        long _target = Files.size(_path) / (ForkJoinPool.getCommonPoolParallelism() * 4L);
+        return open(_path, StandardCharsets.UTF_8, Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, _target)));
+    }
+
+    /**
+     * Open a file.
+     * @param _path
+     * @param _charset Charset of the lines.
+     * @param _chunkSize Size of the chunks in bytes. A chunk is larger when
+     * its last line does not end at this size.
+     * @return
+     * @throws IOException if the file can not be read or has a line longer
+     * than 2 GB.
+     */
+    public static TaskFileChunks open(Path _path, Charset _charset, long _chunkSize)
+            throws IOException
+    {
+        return new TaskFileChunks(_path, _charset, _chunkSize);
+    }
+
+    @Override
+    public String toString()
+    {
+        return _path.toString();
+    }
+
+    /**
+     * @return the number of chunks.
+     */
+    public int getChunkCount()
+    {
+        return _bounds.length - 1;
+    }
+
+    /**
+     * Get the lines of the file as a parallel stream that is split between
+     * chunks. A chunk that can not be mapped causes an UncheckedIOException
+     * in the stream operation.
+     * @return
+     */
+    public Stream<String> lines()
+    {
+        return StreamSupport.stream(new LineSpliterator(0, getChunkCount()), true);
+    }
+
+    /**
+     * Get the chunks as a parallel stream of read-only buffers for tasks that
+     * parse the bytes themselves. Each buffer starts at the start of a line
+     * and ends after a line break or at the end of the file.
+     * @return
+     */
+    public Stream<ByteBuffer> chunks()
+    {
+        return IntStream.range(0, getChunkCount()).parallel().mapToObj(this::map);
+    }
+
+    /**
+     * Close the file. Buffers that were already mapped stay valid.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        _channel.close();
+    }
+
+    /**
+     * Find the end of each chunk by reading from the chunk size to the next
+     * line break.
+     * @return the start of each chunk followed by the size of the file.
+     */
+    private long[] findBounds(long _chunkSize)
+            throws IOException
+    {
+        long _fileSize = _channel.size();
+        List<Long> _bounds = new ArrayList<>();
+        ByteBuffer _scan = ByteBuffer.allocate(SCAN_SIZE);
+        long _start = 0;
+
+        _bounds.add(_start);
+        while(_start < _fileSize)
+        {
+            // a line break just before the target ends the chunk at the target.
+            long _end = _start + _chunkSize - 1;
+            while(_end < _fileSize)
+            {
+                _scan.clear();
+                int _count = _channel.read(_scan, _end);
+                if(_count <= 0)
+                {
+                    // the file was truncated while it was scanned.
+                    _end = _fileSize;
+                    break;
+                }
+
+                int _idx = 0;
+                while(_idx < _count && _scan.get(_idx) != '\n')
+                {
+                    _idx++;
+                }
+
+                _end += _idx;
+                if(_idx < _count)
+                {
+                    break;
+                }
+            }
+            _end = Math.min(_end + 1, _fileSize);
+
+            if(_end - _start > Integer.MAX_VALUE)
+            {
+                throw new IOException("Line at byte " + _start + " is too long to map: " + _path);
+            }
+            _bounds.add(_end);
+            _start = _end;
+        }
+        return _bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Map a chunk of the file.
+     * @throws UncheckedIOException if the chunk can not be mapped.
+     */
+    private ByteBuffer map(int _chunk)
+    {
+        try
+        {
+            long _start = _bounds[_chunk];
+            return _channel.map(FileChannel.MapMode.READ_ONLY, _start, _bounds[_chunk + 1] - _start);
+        }
+        catch(IOException _ex)
+        {
+            throw new UncheckedIOException("Could not map " + _path, _ex);
+        }
+    }
+
+    /**
+     * Splits the lines between ranges of chunks and reads the lines of one
+     * chunk at a time. A range is only split before its next chunk is mapped
+     * so the prefix always comes first in the file.
+     */
+    private final class LineSpliterator implements Spliterator<String>
+    {
+        private int        _next;
+        private final int  _end;
+        private ByteBuffer _buffer  = null;
+        private byte[]     _scratch = new byte[256];
+
+        LineSpliterator(int _next, int _end)
+        {
+            this._next = _next;
+            this._end = _end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> _action)
+        {
+            while(true)
+            {
+                if(_buffer != null && _buffer.hasRemaining())
+                {
+                    _action.accept(readLine());
+                    return true;
+                }
+
+                if(_next >= _end)
+                {
+                    _buffer = null;
+                    return false;
+                }
+                _buffer = map(_next++);
+            }
+        }
+
+        @Override
+        public Spliterator<String> trySplit()
+        {
+            int _remaining = _end - _next;
+            if(_buffer != null || _remaining < 2)
+            {
+                return null;
+            }
+
+            int _middle = _next + _remaining / 2;
+            LineSpliterator _prefix = new LineSpliterator(_next, _middle);
+            _next = _middle;
+            return _prefix;
+        }
+
+        /**
+         * @return the bytes left to read, which is enough for the stream to
+         * split the chunks evenly.
+         */
+        @Override
+        public long estimateSize()
+        {
+            long _size = _bounds[_end] - _bounds[_next];
+            if(_buffer != null)
+            {
+                _size += _buffer.remaining();
+            }
+            return _size;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+
+        /**
+         * Read the line at the position of the buffer and move past its
+         * line break.
+         */
+        private String readLine()
+        {
+            int _start = _buffer.position();
+            int _limit = _buffer.limit();
+            int _eol = _start;
+            while(_eol < _limit && _buffer.get(_eol) != '\n')
+            {
+                _eol++;
+            }
+
+            int _length = _eol - _start;
+            if(_length > 0 && _buffer.get(_eol - 1) == '\r')
+            {
+                _length--;
+            }
+
+            if(_length > _scratch.length)
+            {
+                _scratch = new byte[Math.max(_length, _scratch.length * 2)];
+            }
+            _buffer.get(_scratch, 0, _length);
+            _buffer.position(Math.min(_eol + 1, _limit));
+            return new String(_scratch, 0, _length, _charset);
+        }
+    }
+}
@@ -0,0 +1,682 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.cli.MissingArgumentException;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the state of a single run of a task: the option values, the task
+ * arguments and the position of the next argument to take. A new invocation
+ * is created for each run so a driver can be used concurrently.
+ * <p>
+ * Arguments are read from "@file" and "-" sources as they are taken. The
+ * driver closes the invocation when the task completes.
+ * @author Chad Juliano
+ * @param <E> Enumeration of supported tasks.
+ */
+public class TaskInvocation<E extends Enum<E>> implements Closeable
+{
+    private static final Logger         LOG               = LoggerFactory.getLogger(TaskInvocation.class);
+
+    private final TaskDefinition<E>     _taskDef;
+    private final TaskDriverOptions     _options;
+    private final TaskArgSource         _argSource;
+    private final Path                  _workingDir;
+    private final Map<String, String>   _environment;
+    private final Set<TaskWorkExecutor> _work             = ConcurrentHashMap.newKeySet();
+    private TaskOutput                  _output           = null;
+    private Duration                    _progressInterval = Duration.ZERO;
+    private int                         _workers          = 1;
+    private volatile TaskProgress       _progress         = null;
+    private volatile LatencyHistogram   _workTimes        = null;
+    private int                         _argIndex         = 0;
+    private boolean                     _streamed         = false;
+    private volatile boolean            _cancelled        = false;
+
+    // guarded by this
+    private CompletableFuture<?>        _future           = null;
+    private Thread                      _runner           = null;
+
+    /**
+     * Constructor
+     * @param _taskDef Definition of the selected task.
+     * @param _options Option values of the command line.
+     * @param _argValues Task arguments that follow the task name. These can include "@file" or "-" sources.
+     * @param _workingDir Working directory or null for the JVM directory.
+     * @param _environment Environment or null for the JVM environment.
+     */
+    protected TaskInvocation(TaskDefinition<E> _taskDef, TaskDriverOptions _options, List<String> _argValues,
+            Path _workingDir, Map<String, String> _environment)
+    {
+        this._taskDef = _taskDef;
+        this._options = _options;
+        this._argSource = new TaskArgSource(_argValues, _workingDir);
+        this._workingDir = _workingDir;
+        this._environment = _environment;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _taskDef.toString();
+    }
+
+    /**
+     * Check if the task was cancelled because it timed out or the JVM is
+     * shutting down. Long running tasks should check this periodically and
+     * stop.
+     * @return
+     */
+    public boolean isCancelled()
+    {
+        return _cancelled;
+    }
+
+    /**
+     * Cancel the task. This cancels the future returned by the task,
+     * interrupts the thread running handleDoTask() and stops the work
+     * executors.
+     */
+    synchronized void cancel()
+    {
+        _cancelled = true;
+        if(_future != null)
+        {
+            _future.cancel(true);
+        }
+
+        if(_runner != null)
+        {
+            _runner.interrupt();
+        }
+
+        for(TaskWorkExecutor _executor : _work)
+        {
+            _executor.cancel();
+        }
+    }
+
+    /**
+     * Set the future of the running task so it can be cancelled.
+     * @param _future
+     */
+    synchronized void attach(CompletableFuture<?> _future)
+    {
+        this._future = _future;
+        if(_cancelled)
+        {
+            _future.cancel(true);
+        }
+    }
+
+    /**
+     * Call the task on the current thread so it can be interrupted if the
+     * invocation is cancelled.
+     * @param _task
+     * @throws Exception
+     */
+    void runOnCurrentThread(Callable<?> _task)
+            throws Exception
+    {
+        synchronized(this)
+        {
+            if(_cancelled)
+            {
+                throw new CancellationException("Task was cancelled: " + this);
+            }
+            _runner = Thread.currentThread();
+        }
+
+        try
+        {
+            _task.call();
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                _runner = null;
+                if(_cancelled)
+                {
+                    // don't leave the interrupt for the next task on the thread.
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the selected task enum.
+     * @return
+     */
+    public E getTask()
+    {
+        return _taskDef.getEnum();
+    }
+
+    /**
+     * Get the definition of the selected task.
+     * @return
+     */
+    public TaskDefinition<E> getDefinition()
+    {
+        return _taskDef;
+    }
+
+    /**
+     * Get the task arguments as they were given on the command line with any
+     * "@file" and "-" sources not expanded.
+     * @return
+     */
+    List<String> getRawArgs()
+    {
+        return _argSource.getArgs();
+    }
+
+    /**
+     * Get the option values passed on the command line.
+     * @return
+     */
+    public TaskDriverOptions getOptions()
+    {
+        return _options;
+    }
+
+    /**
+     * Get the output for the data produced by the task. It writes to the
+     * console or the file given with --output in the format given with
+     * --output-format. Log messages should still be written with SLF4J.
+     * @return
+     */
+    public TaskOutput getOutput()
+    {
+        if(_output == null)
+        {
+            throw new IllegalStateException("Task output is only available while the task is run: " + this);
+        }
+        return _output;
+    }
+
+    /**
+     * Set the output shared by the tasks of a run.
+     * @param _output
+     */
+    void setOutput(TaskOutput _output)
+    {
+        this._output = _output;
+    }
+
+    /**
+     * Start counting the items processed by the task. The progress is logged
+     * at the interval given with --progress-interval and the count and rate
+     * are included in the completion line. Calling this again returns the
+     * same progress with the new total.
+     * @param _total Number of items to process.
+     * @return
+     */
+    public synchronized TaskProgress progress(long _total)
+    {
+        if(_progress == null)
+        {
+            _progress = new TaskProgress(toString(), _total);
+            _progress.startSampler(_progressInterval);
+        }
+        else
+        {
+            _progress.setTotal(_total);
+        }
+        return _progress;
+    }
+
+    /**
+     * Start counting the items processed by a task that does not know how
+     * many items there are.
+     * @return
+     */
+    public TaskProgress progress()
+    {
+        return progress(TaskProgress.UNKNOWN);
+    }
+
+    /**
+     * @return the progress of the task or null if it was not started.
+     */
+    TaskProgress getProgress()
+    {
+        return _progress;
+    }
+
+    /**
+     * Start an executor that runs units of blocking work with a limit on how
+     * many run at the same time. The time of each unit is included in the
+     * completion line. Executors that are still open when the task completes
+     * are closed.
+     * @param _maxConcurrency Number of units that can run at the same time.
+     * @return
+     * @see TaskWorkExecutor
+     */
+    public synchronized TaskWorkExecutor work(int _maxConcurrency)
+    {
+        if(_workTimes == null)
+        {
+            _workTimes = new LatencyHistogram(toString());
+        }
+
+        TaskWorkExecutor _executor = new TaskWorkExecutor(this, _workTimes, _maxConcurrency);
+        _work.add(_executor);
+        if(_cancelled)
+        {
+            _executor.cancel();
+        }
+        return _executor;
+    }
+
+    /**
+     * Stop tracking a work executor that was closed.
+     * @param _executor
+     */
+    void removeWork(TaskWorkExecutor _executor)
+    {
+        _work.remove(_executor);
+    }
+
+    /**
+     * @return the count and times of the units run by work executors or null
+     * if the task did not use one.
+     */
+    String formatWorkSummary()
+    {
+        LatencyHistogram _times = _workTimes;
+        if(_times == null)
+        {
+            return null;
+        }
+
+        TaskStatistics _stats = _times.getStatistics();
+        StringBuilder _sb = new StringBuilder(String.format("%,d units", _stats.getCount()));
+        if(_stats.getFailures() > 0)
+        {
+            _sb.append(String.format(", %,d failed", _stats.getFailures()));
+        }
+        _sb.append(String.format(", p50 %.3f ms, p99 %.3f ms, max %.3f ms", _stats.getP50Millis(),
+                _stats.getP99Millis(), _stats.getMaxMillis()));
+        return _sb.toString();
+    }
+
+    /**
+     * Set the interval the progress is logged at.
+     * @param _progressInterval Zero to only log the completion line.
+     */
+    void setProgressInterval(Duration _progressInterval)
+    {
+        this._progressInterval = _progressInterval;
+    }
+
+    /**
+     * @return the number of worker JVMs the variable arguments are split
+     * between or 1 if the task runs in this JVM.
+     */
+    int getWorkers()
+    {
+        return _workers;
+    }
+
+    /**
+     * @param _workers Number of worker JVMs given with --workers.
+     */
+    void setWorkers(int _workers)
+    {
+        this._workers = _workers;
+    }
+
+    /**
+     * Get the working directory of the command. This differs from the JVM
+     * working directory when the command was forwarded by a daemon client.
+     * @return
+     */
+    public Path getWorkingDir()
+    {
+        if(_workingDir != null)
+        {
+            return _workingDir;
+        }
+        return Paths.get("").toAbsolutePath();
+    }
+
+    /**
+     * Get the environment of the command.
+     * @return the environment or null if it is the JVM environment.
+     */
+    Map<String, String> getEnvironment()
+    {
+        return _environment;
+    }
+
+    /**
+     * Read the variable arguments from stdin one line at a time as a worker
+     * of a coordinator.
+     * @param _requests Stream the requests for lines are written to.
+     */
+    void setWorkRequests(PrintStream _requests)
+    {
+        _argSource.setRequests(_requests);
+    }
+
+    /**
+     * Get an environment variable of the command. This differs from the JVM
+     * environment when the command was forwarded by a daemon client.
+     * @param _name
+     * @return
+     */
+    public String getEnv(String _name)
+    {
+        if(_environment != null)
+        {
+            return _environment.get(_name);
+        }
+        return System.getenv(_name);
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as a
+     * string.
+     * @return
+     * @throws MissingArgumentException
+     */
+    public String takeArg()
+            throws ParseException
+    {
+        return takeArgValue();
+    }
+
+    /**
+     * Get the variable arguments that follow the required arguments as a
+     * lazy stream. Arguments from "@file" and "-" sources are read as the
+     * stream is consumed and the stream can be made parallel to process them
+     * on the fork/join pool. A source that can not be read causes an
+     * UncheckedIOException in the stream operation.
+     * @return
+     * @throws IllegalStateException if the task has no variable arguments, the
+     * required arguments were not all taken or the stream was already taken.
+     * @see TaskDefinition#addVarArgs(String)
+     */
+    public Stream<String> takeRemainingArgs()
+    {
+        if(_taskDef.getVarArgName() == null)
+        {
+            throw new IllegalStateException("Task does not have variable arguments: " + _taskDef);
+        }
+
+        if(_argIndex < _taskDef.getArgCount())
+        {
+            throw new IllegalStateException("Arguments must be taken before the variable arguments: "
+                    + _taskDef.getArgName(_argIndex));
+        }
+
+        if(_streamed)
+        {
+            throw new IllegalStateException("Variable arguments were already taken: " + _taskDef);
+        }
+        _streamed = true;
+
+        Spliterator<String> _spliterator = Spliterators.spliteratorUnknownSize(_argSource,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(_spliterator, false)
+                .onClose(this::closeSource);
+    }
+
+    private void closeSource()
+    {
+        try
+        {
+            _argSource.close();
+        }
+        catch(IOException _ex)
+        {
+            throw new UncheckedIOException(_ex);
+        }
+    }
+
+    /**
+     * Check if there is another argument to take. This can block while a
+     * source is read.
+     * @return
+     * @throws ParseException if an argument source could not be read.
+     */
+    public boolean hasMoreArgs()
+            throws ParseException
+    {
+        try
+        {
+            return _argSource.hasNext();
+        }
+        catch(UncheckedIOException _ex)
+        {
+            throw new ParseException(_ex.getMessage() + ": " + _ex.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as an
+     * integer.
+     * @return
+     * @throws ParseException if the argument is missing or not an integer.
+     */
+    public int takeArgInt()
+            throws ParseException
+    {
+        return takeConverted(ArgConverters.INTEGER);
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as a
+     * long.
+     * @return
+     * @throws ParseException if the argument is missing or not a long.
+     */
+    public long takeArgLong()
+            throws ParseException
+    {
+        return takeConverted(ArgConverters.LONG);
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as a
+     * double.
+     * @return
+     * @throws ParseException if the argument is missing or not a number.
+     */
+    public double takeArgDouble()
+            throws ParseException
+    {
+        return takeConverted(ArgConverters.DOUBLE);
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as a
+     * path. A relative path is resolved against the working directory of
+     * the command.
+     * @return
+     * @throws ParseException if the argument is missing or not a path.
+     */
+    public Path takeArgPath()
+            throws ParseException
+    {
+        return getWorkingDir().resolve(takeConverted(ArgConverters.PATH));
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as a
+     * path and open the file to process its lines in parallel. The caller
+     * must close it.
+     * @return
+     * @throws ParseException if the argument is missing or not a path.
+     * @throws IOException if the file can not be read.
+     * @see TaskFileChunks
+     */
+    public TaskFileChunks takeArgChunks()
+            throws ParseException, IOException
+    {
+        return TaskFileChunks.open(takeArgPath());
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as a
+     * duration like 1h30m, 500ms or PT5S.
+     * @return
+     * @throws ParseException if the argument is missing or not a duration.
+     */
+    public Duration takeArgDuration()
+            throws ParseException
+    {
+        return takeConverted(ArgConverters.DURATION);
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line as an
+     * enum constant. Names are matched without case and a dash matches an
+     * underscore.
+     * @param _enumClass
+     * @return
+     * @throws ParseException if the argument is missing or not a constant.
+     */
+    public <T extends Enum<T>> T takeArgEnum(Class<T> _enumClass)
+            throws ParseException
+    {
+        return takeConverted(ArgConverters.forClass(_enumClass));
+    }
+
+    /**
+     * Get the next task argument that was passed on the command line
+     * converted to a type with a registered converter.
+     * @param _type
+     * @return
+     * @throws ParseException if the argument is missing or can not be converted.
+     * @see ArgConverters#forClass(Class)
+     */
+    public <T> T takeArg(Class<T> _type)
+            throws ParseException
+    {
+        return takeConverted(ArgConverters.forClass(_type));
+    }
+
+    /**
+     * Convert the next argument with the converter declared in the task
+     * definition or the default converter if the argument has no type.
+     * @param _default
+     * @return
+     * @throws ParseException
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T takeConverted(ArgConverter<T> _default)
+            throws ParseException
+    {
+        int _index = _argIndex;
+        String _value = takeArgValue();
+        boolean _isVarArg = (_index >= _taskDef.getArgCount());
+        String _name = _isVarArg ? _taskDef.getVarArgName() : _taskDef.getArgName(_index);
+
+        ArgConverter<?> _converter = _isVarArg ? null : _taskDef.getArgConverter(_index);
+        if(_converter == null)
+        {
+            _converter = _default;
+        }
+        else if(_converter.getType() != _default.getType())
+        {
+            throw new IllegalStateException(String.format("Argument %s is declared as %s and not %s",
+                    _name, _converter.getType().getSimpleName(), _default.getType().getSimpleName()));
+        }
+
+        Object _result = _converter.convert(_value);
+        if(_result == null)
+        {
+            throw new ParseException(
+                    String.format("Could not convert %s to %s: %s", _name, _converter.getTypeName(), _value));
+        }
+        return (T)_result;
+    }
+
+    /**
+     * Take the next task argument that was passed on the command line.
+     * @return
+     * @throws ParseException if there are no more arguments or a source could not be read.
+     */
+    private String takeArgValue()
+            throws ParseException
+    {
+        String _name;
+        if(_argIndex < _taskDef.getArgCount())
+        {
+            _name = _taskDef.getArgName(_argIndex);
+        }
+        else if(_taskDef.getVarArgName() != null && !_streamed)
+        {
+            _name = _taskDef.getVarArgName();
+        }
+        else
+        {
+            throw new MissingArgumentException("No more parameter definitions.");
+        }
+
+        if(!hasMoreArgs())
+        {
+            throw new MissingArgumentException("Missing parameter: " + _name);
+        }
+
+        String _value = _argSource.next();
+        LOG.debug("ARG: {} = <{}>", _name, _value);
+        _argIndex++;
+        return _value;
+    }
+
+    /**
+     * Close any work executors and argument source that are still open and
+     * stop logging the progress.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        for(TaskWorkExecutor _executor : _work)
+        {
+            _executor.close();
+        }
+
+        TaskProgress _oldProgress = _progress;
+        if(_oldProgress != null)
+        {
+            _oldProgress.stop();
+        }
+        _argSource.close();
+    }
+}
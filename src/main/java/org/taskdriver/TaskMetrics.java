@@ -0,0 +1,170 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and latency histograms of the tasks run by a driver class. All
+ * instances of a driver class in the JVM share the same metrics so the
+ * totals include every client of a daemon.
+ * <p>
+ * Recording only updates striped counters and atomic buckets so it can be
+ * done on every run. The management bean is only registered by batch and
+ * daemon runs: a single run exits before a JMX client could connect and the
+ * platform MBean server adds to the startup time. Use --metrics to get the
+ * numbers of a single run.
+ * @author Chad Juliano
+ */
+public final class TaskMetrics implements TaskMetricsMXBean
+{
+    private static final Logger                     LOG         = LoggerFactory.getLogger(TaskMetrics.class);
+    private static final Map<Class<?>, TaskMetrics> BY_DRIVER   = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram                  _parse      = new LatencyHistogram("parse");
+    private final Map<Enum<?>, LatencyHistogram>    _tasks      = new ConcurrentHashMap<>();
+    private volatile boolean                        _registered = false;
+
+    private TaskMetrics()
+    {}
+
+    /**
+     * Get the metrics shared by all instances of a driver class.
+     * @param _driverClass
+     * @return
+     */
+    static TaskMetrics forDriver(Class<?> _driverClass)
+    {
+        return BY_DRIVER.computeIfAbsent(_driverClass, _key -> new TaskMetrics());
+    }
+
+    /**
+     * Record the time to parse the command line options.
+     * @param _nanos
+     * @param _failed
+     */
+    void recordParse(long _nanos, boolean _failed)
+    {
+        _parse.record(_nanos, _failed);
+    }
+
+    /**
+     * Record the time of a handleDoTask call.
+     * @param _taskDef
+     * @param _nanos
+     * @param _failed
+     */
+    void recordTask(TaskDefinition<?> _taskDef, long _nanos, boolean _failed)
+    {
+        LatencyHistogram _histogram = _tasks.get(_taskDef.getEnum());
+        if(_histogram == null)
+        {
+            _histogram = _tasks.computeIfAbsent(_taskDef.getEnum(), _key -> new LatencyHistogram(_taskDef.toString()));
+        }
+        _histogram.record(_nanos, _failed);
+    }
+
+    /**
+     * Register the management bean if it was not already registered.
+     * @param _program Name used in the ObjectName.
+     */
+    synchronized void register(String _program)
+    {
+        if(_registered)
+        {
+            return;
+        }
+
+        try
+        {
+            MBeanServer _server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName _name = new ObjectName("org.taskdriver:type=TaskMetrics,name=" + ObjectName.quote(_program));
+            if(!_server.isRegistered(_name))
+            {
+                _server.registerMBean(this, _name);
+                LOG.debug("Registered MXBean: {}", _name);
+            }
+            _registered = true;
+        }
+        catch(JMException _ex)
+        {
+            LOG.warn("Could not register metrics MXBean: {}", _ex.getMessage());
+        }
+    }
+
+    /**
+     * Write the report to a file.
+     * @param _path
+     * @throws IOException
+     */
+    void dump(Path _path)
+            throws IOException
+    {
+        Files.write(_path, formatReport().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public long getTaskCount()
+    {
+        return _tasks.values().stream().mapToLong(_hist -> _hist.getCount()).sum();
+    }
+
+    @Override
+    public long getFailureCount()
+    {
+        return _tasks.values().stream().mapToLong(_hist -> _hist.getFailures()).sum();
+    }
+
+    @Override
+    public TaskStatistics getParseStatistics()
+    {
+        return _parse.getStatistics();
+    }
+
+    @Override
+    public List<TaskStatistics> getTaskStatistics()
+    {
+        List<TaskStatistics> _result = new ArrayList<>();
+        _tasks.entrySet().stream()
+                .sorted((_left, _right) -> _left.getKey().ordinal() - _right.getKey().ordinal())
+                .forEach(_entry -> _result.add(_entry.getValue().getStatistics()));
+        return _result;
+    }
+
+    @Override
+    public String formatReport()
+    {
+        StringBuilder _sb = new StringBuilder();
+        _sb.append(String.format("%-30s %10s %10s %10s %10s %10s %10s %10s%n",
+                "NAME", "COUNT", "FAILURES", "MEAN (ms)", "P50", "P99", "P999", "MAX"));
+        _sb.append(getParseStatistics()).append(System.lineSeparator());
+        for(TaskStatistics _stats : getTaskStatistics())
+        {
+            _sb.append(_stats).append(System.lineSeparator());
+        }
+        return _sb.toString();
+    }
+}
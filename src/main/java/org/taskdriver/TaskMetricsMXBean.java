@@ -0,0 +1,47 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.List;
+
+/**
+ * Management interface of the TaskDriver metrics. The bean is registered as
+ * org.taskdriver:type=TaskMetrics,name=&lt;program&gt; when a driver runs in
+ * batch or daemon mode.
+ * @author Chad Juliano
+ */
+public interface TaskMetricsMXBean
+{
+    /**
+     * @return number of tasks that were run.
+     */
+    long getTaskCount();
+
+    /**
+     * @return number of tasks that failed.
+     */
+    long getFailureCount();
+
+    /**
+     * @return latencies of parsing the command line options.
+     */
+    TaskStatistics getParseStatistics();
+
+    /**
+     * @return latencies of handleDoTask for each task that was run.
+     */
+    List<TaskStatistics> getTaskStatistics();
+
+    /**
+     * @return all statistics formatted as a table.
+     */
+    String formatReport();
+}
@@ -0,0 +1,56 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a command line option on a field of an options class. The
+ * annotation processor generates an {@link OptionBinder} named after the
+ * class with the suffix "_Options" that adds the options to a driver and
+ * assigns the fields from a parsed command line without reflection.
+ * <p>
+ * A boolean field is a flag. Fields of type String, Integer, Long, Double,
+ * Path, Duration, their primitives or an enum take a value. Fields keep their
+ * initial value when the option is not given. Duplicate names and names used
+ * by the framework are reported as compile errors.
+ * @author Chad Juliano
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface TaskOption
+{
+    /**
+     * @return description of the option on the help screen.
+     */
+    String value();
+
+    /**
+     * @return multi-character name or an empty string to use the field name
+     * with words separated by a dash.
+     */
+    String longOpt() default "";
+
+    /**
+     * @return single character name or an empty string for none.
+     */
+    String opt() default "";
+
+    /**
+     * @return true if the run fails when the option is not given.
+     */
+    boolean required() default false;
+}
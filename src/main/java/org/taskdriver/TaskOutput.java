@@ -0,0 +1,471 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Data output of the tasks of a run. This is separate from the log so bulk
+ * output is not formatted by a log pattern. Text is encoded as UTF-8 into a
+ * direct buffer that is written to the channel when it is full, when flush()
+ * is called and when each task completes.
+ * <p>
+ * With --output-format jsonl every line is a JSON value. Records are written
+ * as objects with the fields in the order they were added and lines are
+ * written as strings. In text format the fields of a record are separated by
+ * tabs.
+ * <p>
+ * The output is shared by the tasks of a run so the methods are thread safe
+ * and each line or record is written as a unit.
+ * @author Chad Juliano
+ */
+public final class TaskOutput implements Closeable, Flushable
+{
+    /**
+     * Encoding of the output.
+     */
+    public enum Format
+    {
+        /** Lines as given and records as tab separated values. */
+        TEXT,
+
+        /** One JSON value per line. */
+        JSONL;
+    }
+
+    private static final int             BUFFER_SIZE = 256 * 1024;
+    private static final char[]          HEX_DIGITS  = "0123456789abcdef".toCharArray();
+
+    private final Format                 _format;
+    private final WritableByteChannel    _channel;
+    private final PrintStream            _console;
+    private final ThreadLocal<Record>    _records    = ThreadLocal.withInitial(() -> new Record(this));
+
+    // guarded by this
+    private ByteBuffer                   _buf        = null;
+    private boolean                      _closed     = false;
+
+    private TaskOutput(Format _format, WritableByteChannel _channel, PrintStream _console)
+    {
+        this._format = _format;
+        this._channel = _channel;
+        this._console = _console;
+    }
+
+    /**
+     * Create an output that writes to the console of the current thread.
+     * @param _format
+     * @return
+     */
+    static TaskOutput toConsole(Format _format)
+    {
+        PrintStream _console = ConsoleRouter.currentOut();
+        return new TaskOutput(_format, Channels.newChannel(_console), _console);
+    }
+
+    /**
+     * Create an output that replaces the content of a file.
+     * @param _format
+     * @param _path
+     * @return
+     * @throws IOException
+     */
+    static TaskOutput toFile(Format _format, Path _path)
+            throws IOException
+    {
+        FileChannel _channel = FileChannel.open(_path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new TaskOutput(_format, _channel, null);
+    }
+
+    /**
+     * @return the format selected with --output-format.
+     */
+    public Format getFormat()
+    {
+        return _format;
+    }
+
+    /**
+     * Write a line. In JSON lines format it is written as a string.
+     * @param _line
+     * @throws UncheckedIOException if the output could not be written.
+     */
+    public void println(CharSequence _line)
+    {
+        if(_format == Format.TEXT)
+        {
+            writeLine(_line);
+            return;
+        }
+
+        StringBuilder _json = new StringBuilder(_line.length() + 16);
+        appendJsonString(_json, _line);
+        writeLine(_json);
+    }
+
+    /**
+     * Start a record. The record is reused by the current thread so it must
+     * be ended before the next one is started.
+     * @return
+     */
+    public Record record()
+    {
+        Record _record = _records.get();
+        _record.clear();
+        return _record;
+    }
+
+    /**
+     * Write the buffered output to the channel.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void flush()
+            throws IOException
+    {
+        drain();
+        if(_console != null)
+        {
+            _console.flush();
+        }
+    }
+
+    /**
+     * Copy a file to the output after the lines that are buffered. This
+     * collects the output of the workers started with --workers.
+     * @param _path
+     * @throws IOException
+     */
+    synchronized void append(Path _path)
+            throws IOException
+    {
+        if(_closed)
+        {
+            throw new IllegalStateException("Task output is closed.");
+        }
+
+        drain();
+        if(_console != null)
+        {
+            AsyncConsoleAppender.flushAll();
+        }
+
+        try (FileChannel _in = FileChannel.open(_path, StandardOpenOption.READ))
+        {
+            long _size = _in.size();
+            long _position = 0;
+            while(_position < _size)
+            {
+                _position += _in.transferTo(_position, _size - _position, _channel);
+            }
+        }
+    }
+
+    /**
+     * Flush the output and close the file. The console is left open.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        if(_closed)
+        {
+            return;
+        }
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            _closed = true;
+            _buf = null;
+            if(_console == null)
+            {
+                _channel.close();
+            }
+        }
+    }
+
+    /**
+     * Encode the characters as UTF-8 followed by a newline.
+     */
+    private synchronized void writeLine(CharSequence _text)
+    {
+        if(_closed)
+        {
+            throw new IllegalStateException("Task output is closed.");
+        }
+
+        if(_buf == null)
+        {
+            _buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        try
+        {
+            int _length = _text.length();
+            for(int _idx = 0; _idx < _length; _idx++)
+            {
+                // room for the longest encoding of a character.
+                if(_buf.remaining() < 4)
+                {
+                    drain();
+                }
+
+                char _char = _text.charAt(_idx);
+                if(_char < 0x80)
+                {
+                    _buf.put((byte)_char);
+                }
+                else if(_char < 0x800)
+                {
+                    _buf.put((byte)(0xC0 | (_char >> 6)));
+                    _buf.put((byte)(0x80 | (_char & 0x3F)));
+                }
+                else if(Character.isHighSurrogate(_char) && _idx + 1 < _length
+                        && Character.isLowSurrogate(_text.charAt(_idx + 1)))
+                {
+                    int _codePoint = Character.toCodePoint(_char, _text.charAt(++_idx));
+                    _buf.put((byte)(0xF0 | (_codePoint >> 18)));
+                    _buf.put((byte)(0x80 | ((_codePoint >> 12) & 0x3F)));
+                    _buf.put((byte)(0x80 | ((_codePoint >> 6) & 0x3F)));
+                    _buf.put((byte)(0x80 | (_codePoint & 0x3F)));
+                }
+                else if(Character.isSurrogate(_char))
+                {
+                    _buf.put((byte)'?');
+                }
+                else
+                {
+                    _buf.put((byte)(0xE0 | (_char >> 12)));
+                    _buf.put((byte)(0x80 | ((_char >> 6) & 0x3F)));
+                    _buf.put((byte)(0x80 | (_char & 0x3F)));
+                }
+            }
+
+            if(!_buf.hasRemaining())
+            {
+                drain();
+            }
+            _buf.put((byte)'\n');
+        }
+        catch(IOException _ex)
+        {
+            throw new UncheckedIOException("Could not write task output", _ex);
+        }
+    }
+
+    /**
+     * Write the buffer to the channel.
+     */
+    private void drain()
+            throws IOException
+    {
+        if(_buf == null || _buf.position() == 0)
+        {
+            return;
+        }
+
+        if(_console != null)
+        {
+            // log messages that came before the data are written first.
+            AsyncConsoleAppender.flushAll();
+        }
+
+        _buf.flip();
+        while(_buf.hasRemaining())
+        {
+            _channel.write(_buf);
+        }
+        _buf.clear();
+    }
+
+    private static void appendJsonString(StringBuilder _sb, CharSequence _value)
+    {
+        if(_value == null)
+        {
+            _sb.append("null");
+            return;
+        }
+
+        _sb.append('"');
+        int _length = _value.length();
+        for(int _idx = 0; _idx < _length; _idx++)
+        {
+            char _char = _value.charAt(_idx);
+            switch(_char)
+            {
+                case '"':
+                    _sb.append("\\\"");
+                    break;
+                case '\\':
+                    _sb.append("\\\\");
+                    break;
+                case '\n':
+                    _sb.append("\\n");
+                    break;
+                case '\r':
+                    _sb.append("\\r");
+                    break;
+                case '\t':
+                    _sb.append("\\t");
+                    break;
+                default:
+                    if(_char < 0x20)
+                    {
+                        _sb.append("\\u00").append(HEX_DIGITS[_char >> 4]).append(HEX_DIGITS[_char & 0xF]);
+                    }
+                    else
+                    {
+                        _sb.append(_char);
+                    }
+                    break;
+            }
+        }
+        _sb.append('"');
+    }
+
+    /**
+     * Fields of a record that is written when end() is called. Values are
+     * encoded by the type of the field so no reflection is used.
+     */
+    public static final class Record
+    {
+        private final TaskOutput    _output;
+        private final StringBuilder _text   = new StringBuilder();
+        private int                 _fields = 0;
+
+        private Record(TaskOutput _output)
+        {
+            this._output = _output;
+        }
+
+        private void clear()
+        {
+            _text.setLength(0);
+            _fields = 0;
+        }
+
+        /**
+         * Add a string field.
+         * @param _name
+         * @param _value
+         * @return
+         */
+        public Record field(String _name, CharSequence _value)
+        {
+            if(startField(_name))
+            {
+                appendJsonString(_text, _value);
+            }
+            else
+            {
+                _text.append(_value);
+            }
+            return this;
+        }
+
+        /**
+         * Add an integer field.
+         * @param _name
+         * @param _value
+         * @return
+         */
+        public Record field(String _name, long _value)
+        {
+            startField(_name);
+            _text.append(_value);
+            return this;
+        }
+
+        /**
+         * Add a number field. NaN and infinite values are written as null in
+         * JSON lines format.
+         * @param _name
+         * @param _value
+         * @return
+         */
+        public Record field(String _name, double _value)
+        {
+            if(startField(_name) && (Double.isNaN(_value) || Double.isInfinite(_value)))
+            {
+                _text.append("null");
+            }
+            else
+            {
+                _text.append(_value);
+            }
+            return this;
+        }
+
+        /**
+         * Add a boolean field.
+         * @param _name
+         * @param _value
+         * @return
+         */
+        public Record field(String _name, boolean _value)
+        {
+            startField(_name);
+            _text.append(_value);
+            return this;
+        }
+
+        /**
+         * Write the record as one line.
+         * @throws UncheckedIOException if the output could not be written.
+         */
+        public void end()
+        {
+            if(_output._format == Format.JSONL)
+            {
+                _text.append((_fields == 0) ? "{}" : "}");
+            }
+            _output.writeLine(_text);
+            clear();
+        }
+
+        /**
+         * Add the separator and the name of a field.
+         * @return true if the output is JSON.
+         */
+        private boolean startField(String _name)
+        {
+            boolean _json = (_output._format == Format.JSONL);
+            if(_json)
+            {
+                _text.append((_fields == 0) ? '{' : ',');
+                appendJsonString(_text, _name);
+                _text.append(':');
+            }
+            else if(_fields > 0)
+            {
+                _text.append('\t');
+            }
+            _fields++;
+            return _json;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+/**
+ * Writes the phases of a run to a flight recording. The implementation is in
+ * src/main/jfr because it needs the JFR API, which is not part of Java 8. The
+ * events use Object so this interface does not refer to the JFR types.
+ * @author Chad Juliano
+ */
+interface TaskPhaseEvents
+{
+    /**
+     * @return true if a flight recording has been started in this JVM.
+     */
+    boolean isRecording();
+
+    /**
+     * Start the timing of a new event.
+     * @param _phase
+     * @param _task
+     * @return the event
+     */
+    Object start(String _phase, Object _task);
+
+    /**
+     * End the event and write it to the recording.
+     * @param _event Event returned by start().
+     * @param _allocated
+     */
+    void end(Object _event, long _allocated);
+}
@@ -0,0 +1,293 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the elapsed time and the bytes allocated by the current thread for
+ * each phase of a run. The summary is only collected when --profile is
+ * given. Phases are also emitted as JFR events when a flight recording is
+ * active so they can be viewed with the GC and JIT activity.
+ * <p>
+ * The management beans are only initialized when profiling because that
+ * adds noticeably to the startup time.
+ * @author Chad Juliano
+ */
+final class TaskProfiler
+{
+    private static final long            CLASS_INIT_NANOS  = System.nanoTime();
+    private static final long            UNKNOWN           = -1;
+    private static final String          JFR_EVENTS_CLASS  = "org.taskdriver.JfrPhaseEvents";
+    private static final TaskPhaseEvents JFR_EVENTS        = loadJfrEvents();
+    private static final String          ROW_FORMAT        = "%-40s %12s %14s  %s%n";
+    private static final String          PHASE_LOGGER_INIT = "logger-init";
+
+    // time spent initializing logging when TaskDriver was loaded.
+    private static long                  _loggerInitNanos  = UNKNOWN;
+
+    private final List<Phase>            _phases           = new ArrayList<>();
+    private final long                   _startNanos       = System.nanoTime();
+    private volatile boolean             _enabled;
+
+    /**
+     * Constructor
+     * @param _enabled True if the phases should be collected for the summary.
+     */
+    TaskProfiler(boolean _enabled)
+    {
+        this._enabled = _enabled;
+    }
+
+    /**
+     * Start collecting phases for the summary. This is used when the option
+     * was only recognized after parsing the command line.
+     */
+    void enable()
+    {
+        this._enabled = true;
+    }
+
+    /**
+     * @return true if phases are collected for the summary.
+     */
+    boolean isEnabled()
+    {
+        return _enabled;
+    }
+
+    /**
+     * Create the TaskDriver logger and record the time it takes to initialize
+     * logging.
+     * @param _class
+     * @return
+     */
+    static Logger createLogger(Class<?> _class)
+    {
+        Object _event = null;
+        if(JFR_EVENTS != null && JFR_EVENTS.isRecording())
+        {
+            _event = JFR_EVENTS.start(PHASE_LOGGER_INIT, null);
+        }
+
+        long _start = System.nanoTime();
+        Logger _logger = LoggerFactory.getLogger(_class);
+        _loggerInitNanos = System.nanoTime() - _start;
+
+        if(_event != null)
+        {
+            JFR_EVENTS.end(_event, UNKNOWN);
+        }
+        return _logger;
+    }
+
+    /**
+     * Start a phase on the current thread. The phase ends when it is closed.
+     * @param _name Name of the phase.
+     * @param _task Task the phase belongs to or null.
+     * @return
+     */
+    Phase begin(String _name, Object _task)
+    {
+        Object _event = null;
+        if(JFR_EVENTS != null && JFR_EVENTS.isRecording())
+        {
+            _event = JFR_EVENTS.start(_name, _task);
+        }
+
+        if(!_enabled && _event == null)
+        {
+            return Phase.NONE;
+        }
+        return new Phase(_enabled ? this : null, _name, _task, _event);
+    }
+
+    /**
+     * Format the summary table of the phases recorded so far.
+     * @return
+     */
+    String formatSummary()
+    {
+        // JVM uptime only has millisecond resolution.
+        long _uptimeNanos = TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+        long _jvmStartNanos = _uptimeNanos - (System.nanoTime() - CLASS_INIT_NANOS);
+
+        StringBuilder _sb = new StringBuilder();
+        _sb.append(String.format("Profile:%n"));
+        _sb.append(String.format(ROW_FORMAT, "PHASE", "TIME (ms)", "ALLOCATED (KB)", "THREAD"));
+        _sb.append(formatRow("jvm-start", _jvmStartNanos, UNKNOWN, ""));
+        _sb.append(formatRow(PHASE_LOGGER_INIT, _loggerInitNanos, UNKNOWN, ""));
+
+        synchronized(_phases)
+        {
+            for(Phase _phase : _phases)
+            {
+                String _name = (_phase._task == null) ? _phase._name
+                        : String.format("%s <%s>", _phase._name, _phase._task);
+                _sb.append(formatRow(_name, _phase._elapsedNanos, _phase._allocatedBytes, _phase._threadName));
+            }
+        }
+
+        _sb.append(formatRow("run", System.nanoTime() - _startNanos, UNKNOWN, ""));
+        return _sb.toString();
+    }
+
+    private static String formatRow(String _name, long _nanos, long _bytes, String _thread)
+    {
+        String _time = (_nanos == UNKNOWN) ? "-" : String.format("%.3f", _nanos / 1e6);
+        String _allocated = (_bytes == UNKNOWN) ? "-" : String.format("%,d", _bytes / 1024);
+        return String.format(ROW_FORMAT, _name, _time, _allocated, _thread);
+    }
+
+    private void add(Phase _phase)
+    {
+        synchronized(_phases)
+        {
+            _phases.add(_phase);
+        }
+    }
+
+    /**
+     * @return bytes allocated by the current thread or -1 if not supported.
+     */
+    private static long getAllocatedBytes()
+    {
+        com.sun.management.ThreadMXBean _bean = ThreadBean.INSTANCE;
+        if(_bean == null)
+        {
+            return UNKNOWN;
+        }
+        return _bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static boolean isClassAvailable(String _className)
+    {
+        try
+        {
+            Class.forName(_className, false, TaskProfiler.class.getClassLoader());
+            return true;
+        }
+        catch(ClassNotFoundException | LinkageError _ex)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Load the JFR events by name so this class does not depend on the JFR
+     * API. They are not available on JVMs without the API or when the jar was
+     * built without src/main/jfr.
+     * @return the events or null.
+     */
+    private static TaskPhaseEvents loadJfrEvents()
+    {
+        if(!isClassAvailable("jdk.jfr.FlightRecorder"))
+        {
+            return null;
+        }
+
+        try
+        {
+            return Class.forName(JFR_EVENTS_CLASS, true, TaskProfiler.class.getClassLoader())
+                    .asSubclass(TaskPhaseEvents.class).getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError _ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Holds the thread bean so it is only created when it is used.
+     */
+    private static class ThreadBean
+    {
+        private static final com.sun.management.ThreadMXBean INSTANCE = create();
+
+        private static com.sun.management.ThreadMXBean create()
+        {
+            java.lang.management.ThreadMXBean _bean = ManagementFactory.getThreadMXBean();
+            if(!(_bean instanceof com.sun.management.ThreadMXBean))
+            {
+                return null;
+            }
+
+            com.sun.management.ThreadMXBean _sunBean = (com.sun.management.ThreadMXBean)_bean;
+            if(!_sunBean.isThreadAllocatedMemorySupported())
+            {
+                return null;
+            }
+
+            _sunBean.setThreadAllocatedMemoryEnabled(true);
+            return _sunBean;
+        }
+    }
+
+    /**
+     * A phase that is running on the current thread.
+     */
+    static class Phase implements AutoCloseable
+    {
+        private static final Phase NONE            = new Phase(null, null, null, null);
+
+        private final TaskProfiler _profiler;
+        private final String       _name;
+        private final Object       _task;
+        private final Object       _event;
+        private final String       _threadName;
+        private final long         _startBytes;
+        private final long         _startNanos;
+        private long               _elapsedNanos   = UNKNOWN;
+        private long               _allocatedBytes = UNKNOWN;
+
+        private Phase(TaskProfiler _profiler, String _name, Object _task, Object _event)
+        {
+            this._profiler = _profiler;
+            this._name = _name;
+            this._task = _task;
+            this._event = _event;
+            this._threadName = Thread.currentThread().getName();
+            this._startBytes = (_profiler != null) ? getAllocatedBytes() : UNKNOWN;
+            this._startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close()
+        {
+            if(this == NONE)
+            {
+                return;
+            }
+
+            this._elapsedNanos = System.nanoTime() - _startNanos;
+            if(_startBytes != UNKNOWN)
+            {
+                this._allocatedBytes = getAllocatedBytes() - _startBytes;
+            }
+
+            if(_event != null)
+            {
+                JFR_EVENTS.end(_event, _allocatedBytes);
+            }
+
+            if(_profiler != null)
+            {
+                _profiler.add(this);
+            }
+        }
+    }
+}
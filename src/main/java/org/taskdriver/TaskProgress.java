@@ -0,0 +1,198 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the items processed by a task. The count is striped so advance()
+ * can be called for every item from any number of threads. A sampler thread
+ * logs the count, rate and estimated time remaining at the interval given
+ * with --progress-interval and the totals are added to the completion line.
+ * @author Chad Juliano
+ */
+public final class TaskProgress
+{
+    private static final Logger LOG          = LoggerFactory.getLogger(TaskProgress.class);
+    static final long           UNKNOWN      = -1;
+
+    private final LongAdder     _done        = new LongAdder();
+    private final String        _taskName;
+    private final long          _startNanos  = System.nanoTime();
+    private volatile long       _total;
+    private volatile long       _stopNanos   = 0;
+    private Thread              _sampler     = null;
+
+    /**
+     * Constructor
+     * @param _taskName Name used in the progress messages.
+     * @param _total Number of items or UNKNOWN.
+     */
+    TaskProgress(String _taskName, long _total)
+    {
+        this._taskName = _taskName;
+        this._total = _total;
+    }
+
+    /**
+     * Count one item as done.
+     */
+    public void advance()
+    {
+        _done.increment();
+    }
+
+    /**
+     * Count several items as done.
+     * @param _count
+     */
+    public void advance(long _count)
+    {
+        _done.add(_count);
+    }
+
+    /**
+     * Change the number of items when it is discovered while the task runs.
+     * @param _total Number of items or a negative number if it is not known.
+     */
+    public void setTotal(long _total)
+    {
+        this._total = (_total < 0) ? UNKNOWN : _total;
+    }
+
+    /**
+     * @return the number of items done.
+     */
+    public long getDone()
+    {
+        return _done.sum();
+    }
+
+    /**
+     * @return the number of items or a negative number if it is not known.
+     */
+    public long getTotal()
+    {
+        return _total;
+    }
+
+    /**
+     * Start logging the progress from a new thread. The thread uses the
+     * console of the calling thread.
+     * @param _interval
+     */
+    synchronized void startSampler(Duration _interval)
+    {
+        long _intervalMs = _interval.toMillis();
+        if(_intervalMs <= 0 || _sampler != null || _stopNanos != 0)
+        {
+            return;
+        }
+
+        _sampler = ConsoleRouter.newThread(() ->
+        {
+            try
+            {
+                while(true)
+                {
+                    Thread.sleep(_intervalMs);
+                    LOG.info("Progress <{}>: {}", _taskName, format(System.nanoTime()));
+                }
+            }
+            catch(InterruptedException _ex)
+            {
+                // stopped
+            }
+        }, "task-driver-progress-" + _taskName);
+        _sampler.setDaemon(true);
+        _sampler.start();
+    }
+
+    /**
+     * Stop the sampler and the elapsed time.
+     */
+    synchronized void stop()
+    {
+        if(_stopNanos == 0)
+        {
+            _stopNanos = System.nanoTime();
+        }
+
+        if(_sampler != null)
+        {
+            _sampler.interrupt();
+            _sampler = null;
+        }
+    }
+
+    /**
+     * @return the count and average rate of the completed task.
+     */
+    String formatSummary()
+    {
+        long _endNanos = (_stopNanos != 0) ? _stopNanos : System.nanoTime();
+        long _count = getDone();
+        return String.format("%,d items, %s/s", _count, formatRate(_count, _endNanos - _startNanos));
+    }
+
+    /**
+     * Format the count, percent done, average rate and time remaining.
+     * @param _nowNanos
+     * @return
+     */
+    String format(long _nowNanos)
+    {
+        long _elapsedNanos = _nowNanos - _startNanos;
+        long _count = getDone();
+        long _totalCount = _total;
+        StringBuilder _sb = new StringBuilder();
+
+        if(_totalCount < 0)
+        {
+            _sb.append(String.format("%,d", _count));
+        }
+        else
+        {
+            double _percent = (_totalCount == 0) ? 100.0 : (100.0 * _count / _totalCount);
+            _sb.append(String.format("%,d of %,d (%.1f%%)", _count, _totalCount, _percent));
+        }
+
+        _sb.append(' ').append(formatRate(_count, _elapsedNanos)).append("/s");
+        if(_totalCount >= 0 && _count > 0 && _count < _totalCount)
+        {
+            long _remainingNanos = (long)((double)_elapsedNanos * (_totalCount - _count) / _count);
+            _sb.append(" ETA ").append(formatDuration(_remainingNanos));
+        }
+        return _sb.toString();
+    }
+
+    private static String formatRate(long _count, long _elapsedNanos)
+    {
+        if(_elapsedNanos <= 0)
+        {
+            return "-";
+        }
+
+        double _rate = _count * 1e9 / _elapsedNanos;
+        return (_rate < 10) ? String.format("%.2f", _rate) : String.format("%,d", Math.round(_rate));
+    }
+
+    private static String formatDuration(long _nanos)
+    {
+        long _seconds = TimeUnit.NANOSECONDS.toSeconds(_nanos);
+        return String.format("%d:%02d:%02d", _seconds / 3600, (_seconds / 60) % 60, _seconds % 60);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+/**
+ * Task definitions that were validated when the task enum was compiled.
+ * Implementations are generated from {@link TaskSpec} annotations with the
+ * name lookup and help text computed by the annotation processor so they are
+ * not built when the program starts.
+ * @author Chad Juliano
+ * @param <E> Enumeration of supported tasks.
+ */
+public interface TaskRegistry<E extends Enum<E>>
+{
+    /**
+     * Add the task definitions to a map.
+     * @param _taskMap
+     */
+    void define(TaskDriverMap<E> _taskMap);
+
+    /**
+     * Find a task by the name used on the command line.
+     * @param _name
+     * @return the task or null if there is no task with the name.
+     */
+    E find(String _name);
+
+    /**
+     * @return the one-line summary of the tasks for the help screen.
+     */
+    String getSummary();
+
+    /**
+     * @return the multi-line description of the tasks for the help screen.
+     */
+    String getDetails();
+}
@@ -0,0 +1,285 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the invocations of cacheable tasks that succeeded so an
+ * invocation with the same options, arguments and input files can be
+ * skipped. The keys are kept in an index file with the most recently used
+ * last and the oldest are removed when the index is full. The index is
+ * locked while it is updated so several processes can share it.
+ * <p>
+ * The directory and size can be changed with the system properties
+ * taskdriver.cache.dir and taskdriver.cache.size.
+ * @author Chad Juliano
+ */
+final class TaskResultCache
+{
+    private static final Logger LOG           = LoggerFactory.getLogger(TaskResultCache.class);
+    private static final int    DEFAULT_SIZE  = 1000;
+    private static final int    BUFFER_SIZE   = 64 * 1024;
+    private static final char   FIELD_SEP     = '\0';
+
+    private final Path          _indexFile;
+    private final Path          _lockFile;
+    private final int           _maxEntries;
+
+    /**
+     * Constructor
+     * @param _program Name of the program that owns the cache.
+     */
+    TaskResultCache(String _program)
+    {
+        String _name = _program.replaceAll("[^A-Za-z0-9._-]", "_");
+        String _dir = System.getProperty("taskdriver.cache.dir");
+        Path _cacheDir = (_dir != null) ? Paths.get(_dir)
+                : Paths.get(System.getProperty("user.home"), ".task-driver", "cache");
+
+        this._indexFile = _cacheDir.resolve(_name + ".index");
+        this._lockFile = _cacheDir.resolve(_name + ".lock");
+        this._maxEntries = Integer.getInteger("taskdriver.cache.size", DEFAULT_SIZE);
+    }
+
+    /**
+     * Compute the cache key of an invocation.
+     * @param _invocation
+     * @param _options Options that can change the result of the task.
+     * @return the key or null if the invocation can not be cached.
+     * @throws IOException if an input file could not be read.
+     */
+    static String createKey(TaskInvocation<?> _invocation, List<String> _options)
+            throws IOException
+    {
+        TaskDefinition<?> _taskDef = _invocation.getDefinition();
+        MessageDigest _digest = createDigest();
+        update(_digest, _taskDef.getEnum().getDeclaringClass().getName());
+        update(_digest, _taskDef.getEnum().name());
+        for(String _option : _options)
+        {
+            update(_digest, _option);
+        }
+
+        // positions of typed arguments are only known up to the first source.
+        boolean _positional = true;
+        List<String> _args = _invocation.getRawArgs();
+        for(int _idx = 0; _idx < _args.size(); _idx++)
+        {
+            String _arg = _args.get(_idx);
+            update(_digest, _arg);
+
+            if(TaskArgSource.STDIN.equals(_arg))
+            {
+                return null;
+            }
+            else if(TaskArgSource.isFileArg(_arg))
+            {
+                _positional = false;
+                updateFile(_digest, _invocation.getWorkingDir().resolve(_arg.substring(1)), _taskDef);
+            }
+            else if(_positional && _idx < _taskDef.getArgCount() && _taskDef.getArgConverter(_idx) != null
+                    && _taskDef.getArgConverter(_idx).getType() == Path.class)
+            {
+                updateFile(_digest, _invocation.getWorkingDir().resolve(_arg), _taskDef);
+            }
+        }
+        return toHex(_digest.digest());
+    }
+
+    /**
+     * Check if an invocation with the key succeeded and mark it as used.
+     * @param _key
+     * @return
+     * @throws IOException
+     */
+    boolean contains(String _key)
+            throws IOException
+    {
+        return update(_key, false);
+    }
+
+    /**
+     * Record that an invocation with the key succeeded.
+     * @param _key
+     * @throws IOException
+     */
+    void put(String _key)
+            throws IOException
+    {
+        update(_key, true);
+    }
+
+    /**
+     * Read the index, touch or add the key and write the index back.
+     * @return true if the key was in the index.
+     */
+    private boolean update(String _key, boolean _add)
+            throws IOException
+    {
+        // file locks are held by the JVM so threads are serialized here.
+        synchronized(TaskResultCache.class)
+        {
+            Files.createDirectories(_indexFile.getParent());
+            try (FileChannel _lockChannel = FileChannel.open(_lockFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE))
+            {
+                FileLock _lock = _lockChannel.lock();
+                try
+                {
+                    Map<String, Long> _index = readIndex();
+                    boolean _found = (_index.remove(_key) != null);
+                    if(!_found && !_add)
+                    {
+                        return false;
+                    }
+
+                    _index.put(_key, System.currentTimeMillis());
+                    writeIndex(_index);
+                    return _found;
+                }
+                finally
+                {
+                    _lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return keys with the time they were last used, oldest first.
+     */
+    private Map<String, Long> readIndex()
+            throws IOException
+    {
+        Map<String, Long> _index = new LinkedHashMap<>();
+        if(!Files.exists(_indexFile))
+        {
+            return _index;
+        }
+
+        for(String _line : Files.readAllLines(_indexFile, StandardCharsets.UTF_8))
+        {
+            int _sep = _line.indexOf(' ');
+            if(_sep < 0)
+            {
+                continue;
+            }
+
+            try
+            {
+                _index.put(_line.substring(0, _sep), Long.parseLong(_line.substring(_sep + 1)));
+            }
+            catch(NumberFormatException _ex)
+            {
+                LOG.debug("Ignoring cache index line: <{}>", _line);
+            }
+        }
+        return _index;
+    }
+
+    private void writeIndex(Map<String, Long> _index)
+            throws IOException
+    {
+        List<String> _lines = new ArrayList<>(Math.min(_index.size(), _maxEntries));
+        int _skip = Math.max(0, _index.size() - _maxEntries);
+        for(Map.Entry<String, Long> _entry : _index.entrySet())
+        {
+            if(_skip > 0)
+            {
+                _skip--;
+                continue;
+            }
+            _lines.add(_entry.getKey() + " " + _entry.getValue());
+        }
+
+        // replaced in one step so readers never see a partial index.
+        Path _tempFile = _indexFile.resolveSibling(_indexFile.getFileName() + ".tmp");
+        Files.write(_tempFile, _lines, StandardCharsets.UTF_8);
+        Files.move(_tempFile, _indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void updateFile(MessageDigest _digest, Path _path, TaskDefinition<?> _taskDef)
+            throws IOException
+    {
+        BasicFileAttributes _attrs = Files.readAttributes(_path, BasicFileAttributes.class);
+        update(_digest, _path.toAbsolutePath().normalize().toString());
+        update(_digest, Long.toString(_attrs.size()));
+
+        if(_taskDef.getFileCheck() == TaskDefinition.FileCheck.CONTENT)
+        {
+            ByteBuffer _buf = ByteBuffer.allocate(BUFFER_SIZE);
+            try (FileChannel _channel = FileChannel.open(_path, StandardOpenOption.READ))
+            {
+                while(_channel.read(_buf) >= 0)
+                {
+                    _buf.flip();
+                    _digest.update(_buf);
+                    _buf.clear();
+                }
+            }
+            _digest.update((byte)FIELD_SEP);
+        }
+        else
+        {
+            update(_digest, Long.toString(_attrs.lastModifiedTime().to(TimeUnit.MICROSECONDS)));
+        }
+    }
+
+    private static void update(MessageDigest _digest, String _value)
+    {
+        _digest.update(_value.getBytes(StandardCharsets.UTF_8));
+        _digest.update((byte)FIELD_SEP);
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException _ex)
+        {
+            // every JVM is required to support SHA-256.
+            throw new IllegalStateException(_ex);
+        }
+    }
+
+    private static String toHex(byte[] _bytes)
+    {
+        StringBuilder _sb = new StringBuilder(_bytes.length * 2);
+        for(byte _byte : _bytes)
+        {
+            _sb.append(Character.forDigit((_byte >> 4) & 0xF, 16)).append(Character.forDigit(_byte & 0xF, 16));
+        }
+        return _sb.toString();
+    }
+}
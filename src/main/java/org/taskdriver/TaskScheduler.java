@@ -0,0 +1,232 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs invocations in the order given by their task dependencies. A task is
+ * submitted to a work-stealing pool when all of its prerequisites have
+ * completed so independent branches run in parallel. Tasks whose
+ * prerequisites failed are skipped.
+ * @author Chad Juliano
+ * @param <E> Enumeration of supported tasks.
+ */
+final class TaskScheduler<E extends Enum<E>>
+{
+    /**
+     * Result of a scheduled invocation.
+     */
+    enum Status
+    {
+        OK,
+        FAILED,
+        SKIPPED;
+    }
+
+    /**
+     * Runs a single invocation. Errors are logged by the runner.
+     */
+    interface Runner<E extends Enum<E>>
+    {
+        void run(TaskInvocation<E> _invocation)
+                throws Exception;
+    }
+
+    private final List<TaskInvocation<E>> _nodes         = new ArrayList<>();
+    private final List<List<Integer>>     _prerequisites = new ArrayList<>();
+    private final List<List<Integer>>     _dependents    = new ArrayList<>();
+
+    private Status[]                      _status;
+    private long[]                        _elapsed;
+
+    /**
+     * Create the graph of the requested invocations and the transitive
+     * closure of their prerequisites. A prerequisite runs once even if
+     * several tasks depend on it and a requested invocation of the same task
+     * is used as the prerequisite.
+     * @param _requested Invocations given on the command line.
+     * @param _taskMap
+     * @param _factory Creates an invocation for a prerequisite.
+     */
+    TaskScheduler(List<TaskInvocation<E>> _requested, TaskDriverMap<E> _taskMap,
+            Function<TaskDefinition<E>, TaskInvocation<E>> _factory)
+    {
+        Map<E, Integer> _byTask = new HashMap<>();
+        for(TaskInvocation<E> _invocation : _requested)
+        {
+            _byTask.putIfAbsent(_invocation.getTask(), addNode(_invocation));
+        }
+
+        for(int _node = 0; _node < _requested.size(); _node++)
+        {
+            addPrerequisites(_node, _byTask, _taskMap, _factory);
+        }
+    }
+
+    private int addNode(TaskInvocation<E> _invocation)
+    {
+        _nodes.add(_invocation);
+        _prerequisites.add(new ArrayList<>());
+        _dependents.add(new ArrayList<>());
+        return _nodes.size() - 1;
+    }
+
+    private void addPrerequisites(int _node, Map<E, Integer> _byTask, TaskDriverMap<E> _taskMap,
+            Function<TaskDefinition<E>, TaskInvocation<E>> _factory)
+    {
+        for(E _task : _nodes.get(_node).getDefinition().getDependencies())
+        {
+            Integer _prerequisite = _byTask.get(_task);
+            if(_prerequisite == null)
+            {
+                _prerequisite = addNode(_factory.apply(_taskMap.get(_task)));
+                _byTask.put(_task, _prerequisite);
+
+                // cycles are rejected when the dependencies are declared.
+                addPrerequisites(_prerequisite, _byTask, _taskMap, _factory);
+            }
+
+            _prerequisites.get(_node).add(_prerequisite);
+            _dependents.get(_prerequisite).add(_node);
+        }
+    }
+
+    /**
+     * @return the invocations in the order of their results.
+     */
+    List<TaskInvocation<E>> getInvocations()
+    {
+        return Collections.unmodifiableList(_nodes);
+    }
+
+    /**
+     * @return true if any of the invocations has prerequisites.
+     */
+    boolean hasDependencies()
+    {
+        return _prerequisites.stream().anyMatch(_list -> !_list.isEmpty());
+    }
+
+    /**
+     * Run all of the invocations and wait for them to complete.
+     * @param _parallel Maximum number of tasks that run concurrently.
+     * @param _runner
+     * @throws InterruptedException if the waiting thread was interrupted.
+     */
+    void run(int _parallel, Runner<E> _runner)
+            throws InterruptedException
+    {
+        int _count = _nodes.size();
+        _status = new Status[_count];
+        _elapsed = new long[_count];
+
+        // the roots are found first because a running task submits its dependents.
+        AtomicInteger[] _waiting = new AtomicInteger[_count];
+        List<Integer> _roots = new ArrayList<>();
+        for(int _node = 0; _node < _count; _node++)
+        {
+            _waiting[_node] = new AtomicInteger(_prerequisites.get(_node).size());
+            if(_prerequisites.get(_node).isEmpty())
+            {
+                _roots.add(_node);
+            }
+        }
+
+        CountDownLatch _done = new CountDownLatch(_count);
+        ForkJoinPool _pool = ConsoleRouter.newPool(Math.max(1, Math.min(_parallel, _count)));
+        try
+        {
+            for(int _node : _roots)
+            {
+                submit(_pool, _node, _waiting, _done, _runner);
+            }
+            _done.await();
+        }
+        catch(InterruptedException _ex)
+        {
+            // interrupt the workers so they cancel their tasks.
+            _pool.shutdownNow();
+            throw _ex;
+        }
+        finally
+        {
+            _pool.shutdown();
+        }
+    }
+
+    private void submit(ForkJoinPool _pool, int _node, AtomicInteger[] _waiting, CountDownLatch _done,
+            Runner<E> _runner)
+    {
+        _pool.execute(() ->
+        {
+            long _startNanos = System.nanoTime();
+            try
+            {
+                if(_prerequisites.get(_node).stream().anyMatch(_prerequisite -> _status[_prerequisite] != Status.OK))
+                {
+                    _status[_node] = Status.SKIPPED;
+                }
+                else
+                {
+                    _status[_node] = Status.FAILED;
+                    _runner.run(_nodes.get(_node));
+                    _status[_node] = Status.OK;
+                }
+            }
+            catch(Throwable _ex)
+            {
+                // already logged. an Error must not keep run() from returning.
+                _status[_node] = Status.FAILED;
+            }
+            finally
+            {
+                _elapsed[_node] = System.nanoTime() - _startNanos;
+
+                // the counter publishes the status to the dependents.
+                for(int _dependent : _dependents.get(_node))
+                {
+                    if(_waiting[_dependent].decrementAndGet() == 0)
+                    {
+                        submit(_pool, _dependent, _waiting, _done, _runner);
+                    }
+                }
+                _done.countDown();
+            }
+        });
+    }
+
+    /**
+     * @param _node
+     * @return the result of an invocation after run() returned.
+     */
+    Status getStatus(int _node)
+    {
+        return _status[_node];
+    }
+
+    /**
+     * @param _node
+     * @return the elapsed time of an invocation after run() returned.
+     */
+    long getElapsedNanos(int _node)
+    {
+        return _elapsed[_node];
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a task on a constant of the task enum. The annotation processor
+ * generates a {@link TaskRegistry} named after the enum with the suffix
+ * "_Tasks" that is passed to TaskDriver.addTasks(). Mistakes like duplicate
+ * argument names, unknown prerequisites and dependency cycles are reported
+ * as compile errors.
+ * @author Chad Juliano
+ * @see TaskArg
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface TaskSpec
+{
+    /**
+     * @return description of the task on the help screen.
+     */
+    String value();
+
+    /**
+     * @return required arguments in the order they are taken.
+     */
+    TaskArg[] args() default {};
+
+    /**
+     * @return name of the variable arguments that follow the required
+     * arguments or an empty string if there are none.
+     */
+    String varArgs() default "";
+
+    /**
+     * @return names of the enum constants of tasks that must complete first.
+     */
+    String[] dependsOn() default {};
+}
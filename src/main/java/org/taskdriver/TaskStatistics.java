@@ -0,0 +1,118 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+/**
+ * Snapshot of the counters and latency percentiles of a task or of the
+ * command line parsing. Times are in milliseconds.
+ * @author Chad Juliano
+ */
+public class TaskStatistics
+{
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final String        _name;
+    private final long          _count;
+    private final long          _failures;
+    private final long          _meanNanos;
+    private final long          _p50Nanos;
+    private final long          _p99Nanos;
+    private final long          _p999Nanos;
+    private final long          _maxNanos;
+
+    /**
+     * Constructor
+     */
+    TaskStatistics(String _name, long _count, long _failures, long _meanNanos, long _p50Nanos,
+            long _p99Nanos, long _p999Nanos, long _maxNanos)
+    {
+        this._name = _name;
+        this._count = _count;
+        this._failures = _failures;
+        this._meanNanos = _meanNanos;
+        this._p50Nanos = _p50Nanos;
+        this._p99Nanos = _p99Nanos;
+        this._p999Nanos = _p999Nanos;
+        this._maxNanos = _maxNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-30s %10d %10d %10.3f %10.3f %10.3f %10.3f %10.3f",
+                _name, _count, _failures, getMeanMillis(), getP50Millis(), getP99Millis(),
+                getP999Millis(), getMaxMillis());
+    }
+
+    /**
+     * @return task name or "parse" for the command line parsing.
+     */
+    public String getName()
+    {
+        return _name;
+    }
+
+    /**
+     * @return number of times the operation ran.
+     */
+    public long getCount()
+    {
+        return _count;
+    }
+
+    /**
+     * @return number of times the operation failed.
+     */
+    public long getFailures()
+    {
+        return _failures;
+    }
+
+    /**
+     * @return mean time in milliseconds.
+     */
+    public double getMeanMillis()
+    {
+        return _meanNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return median time in milliseconds.
+     */
+    public double getP50Millis()
+    {
+        return _p50Nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return 99th percentile time in milliseconds.
+     */
+    public double getP99Millis()
+    {
+        return _p99Nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return 99.9th percentile time in milliseconds.
+     */
+    public double getP999Millis()
+    {
+        return _p999Nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return longest time in milliseconds.
+     */
+    public double getMaxMillis()
+    {
+        return _maxNanos / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.Closeable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a running task for a heap usage above its limit or progress that
+ * has stalled. When a limit is exceeded a thread dump and a summary of the
+ * heap and garbage collectors are logged and the task is cancelled. If the
+ * task has not stopped after a grace period the JVM is halted so a stuck
+ * process does not hold its slot in a scheduler. In a daemon only the client
+ * of the task fails and the daemon stops taking clients so it can be
+ * restarted.
+ * <p>
+ * The grace period can be changed with the system property
+ * taskdriver.watchdog.grace in seconds.
+ * @author Chad Juliano
+ */
+final class TaskWatchdog implements Closeable
+{
+    private static final Logger     LOG             = LoggerFactory.getLogger(TaskWatchdog.class);
+    private static final long       MAX_CHECK_MS    = 1000;
+    private static final long       MIN_CHECK_MS    = 10;
+    private static final long       GRACE_SEC       = 30;
+
+    /** Exit code of a JVM halted by the watchdog. This is the same as timeout(1). */
+    static final int                EXIT_CODE       = 124;
+
+    private final TaskInvocation<?> _invocation;
+    private final Duration          _stallTimeout;
+    private final long              _heapLimit;
+    private final Thread            _thread;
+    private final Runnable          _stuckHandler;
+    private volatile boolean        _closed         = false;
+
+    private TaskWatchdog(TaskInvocation<?> _invocation)
+    {
+        this._invocation = _invocation;
+        this._stallTimeout = _invocation.getDefinition().getStallTimeout();
+        this._heapLimit = _invocation.getDefinition().getHeapLimit();
+        this._thread = ConsoleRouter.newThread(this::watch, "task-driver-watchdog-" + _invocation);
+        this._thread.setDaemon(true);
+        this._stuckHandler = ConsoleRouter.getStuckHandler();
+    }
+
+    /**
+     * Start watching an invocation if its task has a stall timeout or heap
+     * limit. The thread uses the console of the calling thread.
+     * @param _invocation
+     * @return the watchdog or null if there is nothing to watch.
+     */
+    static TaskWatchdog start(TaskInvocation<?> _invocation)
+    {
+        TaskDefinition<?> _taskDef = _invocation.getDefinition();
+        if(_taskDef.getStallTimeout() == null && _taskDef.getHeapLimit() == 0)
+        {
+            return null;
+        }
+
+        TaskWatchdog _watchdog = new TaskWatchdog(_invocation);
+        _watchdog._thread.start();
+        return _watchdog;
+    }
+
+    /**
+     * Stop watching because the task completed.
+     */
+    @Override
+    public void close()
+    {
+        _closed = true;
+        _thread.interrupt();
+    }
+
+    private void watch()
+    {
+        long _checkMs = MAX_CHECK_MS;
+        if(_stallTimeout != null)
+        {
+            _checkMs = Math.max(MIN_CHECK_MS, Math.min(MAX_CHECK_MS, _stallTimeout.toMillis() / 4));
+        }
+
+        long _lastCount = 0;
+        long _lastChangeNanos = System.nanoTime();
+        try
+        {
+            while(!_closed)
+            {
+                Thread.sleep(_checkMs);
+
+                String _reason = null;
+                long _heapUsed = getHeapUsedAfterGc();
+                TaskProgress _progress = _invocation.getProgress();
+                long _count = (_progress == null) ? 0 : _progress.getDone();
+
+                if(_count != _lastCount)
+                {
+                    _lastCount = _count;
+                    _lastChangeNanos = System.nanoTime();
+                }
+
+                if(_heapLimit > 0 && _heapUsed > _heapLimit)
+                {
+                    _reason = String.format("Heap usage of %,d KB is over the limit of %,d KB", _heapUsed / 1024,
+                            _heapLimit / 1024);
+                }
+                else if(_stallTimeout != null && System.nanoTime() - _lastChangeNanos > _stallTimeout.toNanos())
+                {
+                    _reason = String.format("No progress for %s at %,d items", _stallTimeout, _count);
+                }
+
+                if(_reason != null)
+                {
+                    trip(_reason);
+                    return;
+                }
+            }
+        }
+        catch(InterruptedException _ex)
+        {
+            // closed
+        }
+    }
+
+    /**
+     * Log the diagnostics and cancel the task. Halt the JVM or fail the daemon
+     * client if the task does not stop.
+     */
+    private void trip(String _reason)
+            throws InterruptedException
+    {
+        LOG.error("Watchdog cancelling task <{}>: {}", _invocation, _reason);
+        LOG.error(formatDiagnostics());
+        _invocation.cancel();
+
+        long _graceSec = Long.getLong("taskdriver.watchdog.grace", GRACE_SEC);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(_graceSec));
+        if(_closed)
+        {
+            return;
+        }
+
+        if(_stuckHandler != null)
+        {
+            LOG.error("Task <{}> did not stop {} seconds after it was cancelled. Failing the client.", _invocation,
+                    _graceSec);
+            AsyncConsoleAppender.flushAll();
+            _stuckHandler.run();
+            return;
+        }
+
+        LOG.error("Task <{}> did not stop {} seconds after it was cancelled. Halting the JVM.", _invocation,
+                _graceSec);
+        AsyncConsoleAppender.flushAll();
+        Runtime.getRuntime().halt(EXIT_CODE);
+    }
+
+    /**
+     * @return the heap used after the last garbage collection of each pool.
+     */
+    private static long getHeapUsedAfterGc()
+    {
+        long _used = 0;
+        for(MemoryPoolMXBean _pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            MemoryUsage _usage = _pool.getCollectionUsage();
+            if(_pool.getType() == MemoryType.HEAP && _usage != null)
+            {
+                _used += _usage.getUsed();
+            }
+        }
+        return _used;
+    }
+
+    /**
+     * Format a dump of all threads and a summary of the heap and garbage
+     * collectors.
+     * @return
+     */
+    static String formatDiagnostics()
+    {
+        StringBuilder _sb = new StringBuilder();
+        _sb.append(String.format("Heap:%n"));
+        MemoryUsage _heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        _sb.append(String.format("  %-30s %,12d KB used %,12d KB committed %,12d KB max%n", "total",
+                _heap.getUsed() / 1024, _heap.getCommitted() / 1024, _heap.getMax() / 1024));
+        for(MemoryPoolMXBean _pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(_pool.getType() == MemoryType.HEAP)
+            {
+                MemoryUsage _usage = _pool.getUsage();
+                _sb.append(String.format("  %-30s %,12d KB used %,12d KB committed %,12d KB max%n", _pool.getName(),
+                        _usage.getUsed() / 1024, _usage.getCommitted() / 1024, _usage.getMax() / 1024));
+            }
+        }
+
+        _sb.append(String.format("Garbage collectors:%n"));
+        for(GarbageCollectorMXBean _gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            _sb.append(String.format("  %-30s %,12d collections %,12d ms%n", _gc.getName(),
+                    _gc.getCollectionCount(), _gc.getCollectionTime()));
+        }
+
+        _sb.append(String.format("Threads:%n"));
+        for(ThreadInfo _info : ManagementFactory.getThreadMXBean().dumpAllThreads(true, true))
+        {
+            formatThread(_sb, _info);
+        }
+        return _sb.toString();
+    }
+
+    private static void formatThread(StringBuilder _sb, ThreadInfo _info)
+    {
+        _sb.append(String.format("%n\"%s\" #%d %s", _info.getThreadName(), _info.getThreadId(),
+                _info.getThreadState()));
+        if(_info.getLockName() != null)
+        {
+            _sb.append(" on ").append(_info.getLockName());
+        }
+
+        if(_info.getLockOwnerName() != null)
+        {
+            _sb.append(" owned by \"").append(_info.getLockOwnerName()).append('"');
+        }
+        _sb.append(String.format("%n"));
+
+        StackTraceElement[] _stack = _info.getStackTrace();
+        for(int _idx = 0; _idx < _stack.length; _idx++)
+        {
+            _sb.append(String.format("    at %s%n", _stack[_idx]));
+            for(MonitorInfo _monitor : _info.getLockedMonitors())
+            {
+                if(_monitor.getLockedStackDepth() == _idx)
+                {
+                    _sb.append(String.format("    - locked %s%n", _monitor));
+                }
+            }
+        }
+
+        for(LockInfo _lock : _info.getLockedSynchronizers())
+        {
+            _sb.append(String.format("    - locked synchronizer %s%n", _lock));
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs units of blocking work for a task with a limit on how many run at the
+ * same time. A task gets an executor from TaskInvocation.work(int), submits
+ * the units and joins them before it returns:
+ * <pre>
+ * try (TaskWorkExecutor _work = _invocation.work(64);
+ *         Stream&lt;String&gt; _files = _invocation.takeRemainingArgs())
+ * {
+ *     _files.forEach(_file -&gt; _work.submit(() -&gt; copy(_file)));
+ *     _work.join();
+ * }
+ * </pre>
+ * Submitting a unit waits while the limit is reached so a large stream of
+ * arguments is not read ahead of the work. The units run on virtual threads
+ * on Java 21 and later and on a pool of platform threads before that.
+ * <p>
+ * The first unit that fails stops the executor: the running units are
+ * interrupted, units that have not started are skipped and join() throws the
+ * failure. Cancelling the task stops the executor in the same way. Closing
+ * the executor stops any units that were not joined and waits for them to
+ * end so no unit outlives the task. The time of each unit is included in the
+ * completion line of the task.
+ * @author Chad Juliano
+ */
+public final class TaskWorkExecutor implements AutoCloseable
+{
+    private static final Logger     LOG        = LoggerFactory.getLogger(TaskWorkExecutor.class);
+
+    /**
+     * A unit of work.
+     */
+    @FunctionalInterface
+    public interface Unit
+    {
+        /**
+         * Do the work. A unit should stop when its thread is interrupted.
+         * @throws Exception
+         */
+        void run()
+                throws Exception;
+    }
+
+    private final TaskInvocation<?> _invocation;
+    private final LatencyHistogram  _unitTimes;
+    private final int               _maxConcurrency;
+    private final Semaphore         _permits;
+    private final ExecutorService   _executor;
+
+    // guarded by this
+    private final Set<Thread>       _threads   = new HashSet<>();
+    private boolean                 _stopped   = false;
+    private boolean                 _cancelled = false;
+    private boolean                 _closed    = false;
+    private Throwable               _failure   = null;
+
+    /**
+     * Constructor
+     * @param _invocation Invocation the work is done for.
+     * @param _unitTimes Histogram of the unit times of the invocation.
+     * @param _maxConcurrency Number of units that can run at the same time.
+     */
+    TaskWorkExecutor(TaskInvocation<?> _invocation, LatencyHistogram _unitTimes, int _maxConcurrency)
+    {
+        if(_maxConcurrency < 1)
+        {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + _maxConcurrency);
+        }
+
+        this._invocation = _invocation;
+        this._unitTimes = _unitTimes;
+        this._maxConcurrency = _maxConcurrency;
+        this._permits = new Semaphore(_maxConcurrency);
+        this._executor = WorkThreads.newExecutor("task-driver-work-" + _invocation, _maxConcurrency);
+        LOG.debug("Work executor for <{}>: {} units on {} threads", _invocation, _maxConcurrency,
+                WorkThreads.isVirtual() ? "virtual" : "platform");
+    }
+
+    /**
+     * @return the number of units that can run at the same time.
+     */
+    public int getMaxConcurrency()
+    {
+        return _maxConcurrency;
+    }
+
+    /**
+     * @return true if the units run on virtual threads.
+     */
+    public boolean isVirtual()
+    {
+        return WorkThreads.isVirtual();
+    }
+
+    /**
+     * Submit a unit. This waits while the maximum number of units are
+     * running.
+     * @param _unit
+     * @return false if the unit was not submitted because a unit failed, the
+     * task was cancelled or the thread was interrupted.
+     * @throws IllegalStateException if the executor was closed.
+     */
+    public boolean submit(Unit _unit)
+    {
+        synchronized(this)
+        {
+            if(_closed)
+            {
+                throw new IllegalStateException("Work executor was closed: " + _invocation);
+            }
+        }
+
+        try
+        {
+            _permits.acquire();
+        }
+        catch(InterruptedException _ex)
+        {
+            Thread.currentThread().interrupt();
+            cancel();
+            return false;
+        }
+
+        synchronized(this)
+        {
+            if(_stopped)
+            {
+                _permits.release();
+                return false;
+            }
+        }
+
+        try
+        {
+            // each unit sets the console because the threads are pooled.
+            _executor.execute(ConsoleRouter.wrap(() -> runUnit(_unit)));
+        }
+        catch(RejectedExecutionException _ex)
+        {
+            _permits.release();
+            throw new IllegalStateException("Work executor was closed: " + _invocation, _ex);
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the submitted units to end.
+     * @throws CancellationException if the task was cancelled.
+     * @throws Exception the failure of the first unit that failed.
+     */
+    public void join()
+            throws Exception
+    {
+        try
+        {
+            awaitUnits();
+        }
+        catch(InterruptedException _ex)
+        {
+            cancel();
+            throw _ex;
+        }
+
+        Throwable _firstFailure;
+        synchronized(this)
+        {
+            if(_cancelled)
+            {
+                throw new CancellationException("Task was cancelled: " + _invocation);
+            }
+            _firstFailure = _failure;
+        }
+
+        if(_firstFailure instanceof Exception)
+        {
+            throw (Exception)_firstFailure;
+        }
+
+        if(_firstFailure instanceof Error)
+        {
+            throw (Error)_firstFailure;
+        }
+    }
+
+    /**
+     * Stop any units that were not joined, wait for them to end and release
+     * the threads.
+     */
+    @Override
+    public void close()
+    {
+        synchronized(this)
+        {
+            if(_closed)
+            {
+                return;
+            }
+            _closed = true;
+        }
+
+        stop();
+        _permits.acquireUninterruptibly(_maxConcurrency);
+        _permits.release(_maxConcurrency);
+        _executor.shutdown();
+        _invocation.removeWork(this);
+    }
+
+    /**
+     * Stop the units because the task was cancelled.
+     */
+    void cancel()
+    {
+        synchronized(this)
+        {
+            if(!_stopped)
+            {
+                _cancelled = true;
+            }
+        }
+        stop();
+    }
+
+    /**
+     * Interrupt the running units and skip the units that have not started.
+     */
+    private synchronized void stop()
+    {
+        _stopped = true;
+        for(Thread _thread : _threads)
+        {
+            _thread.interrupt();
+        }
+    }
+
+    /**
+     * Wait until no units are running by taking all of the permits.
+     */
+    private void awaitUnits()
+            throws InterruptedException
+    {
+        _permits.acquire(_maxConcurrency);
+        _permits.release(_maxConcurrency);
+    }
+
+    private void runUnit(Unit _unit)
+    {
+        Thread _thread = Thread.currentThread();
+        try
+        {
+            synchronized(this)
+            {
+                if(_stopped)
+                {
+                    return;
+                }
+                _threads.add(_thread);
+            }
+
+            long _startNanos = System.nanoTime();
+            boolean _failed = true;
+            try
+            {
+                _unit.run();
+                _failed = false;
+            }
+            catch(Throwable _ex)
+            {
+                fail(_ex);
+            }
+            finally
+            {
+                _unitTimes.record(System.nanoTime() - _startNanos, _failed);
+            }
+        }
+        finally
+        {
+            synchronized(this)
+            {
+                // an interrupt from stop() must not reach the next unit of a pooled thread.
+                _threads.remove(_thread);
+                Thread.interrupted();
+            }
+            _permits.release();
+        }
+    }
+
+    private void fail(Throwable _ex)
+    {
+        synchronized(this)
+        {
+            if(_stopped)
+            {
+                // units that were interrupted after the first failure.
+                LOG.debug("Unit of <{}> failed after the work was stopped: {}", _invocation, _ex.toString());
+                return;
+            }
+            _failure = _ex;
+        }
+
+        LOG.debug("Unit of <{}> failed. Stopping the work: {}", _invocation, _ex.toString());
+        stop();
+    }
+}
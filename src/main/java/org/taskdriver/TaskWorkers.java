@@ -0,0 +1,432 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the variable arguments of a task between worker JVMs so each part
+ * of the work has its own heap and garbage collector. The workers run the
+ * same main class with the options of the command line and --worker. Each
+ * worker asks for the next argument on its stdout when it is ready and gets
+ * it on its stdin, so a worker that finishes its arguments early takes more
+ * of the remaining ones.
+ * <p>
+ * Other lines written by a worker are copied to the console with the number
+ * of the worker. The task output of each worker is written to a temporary
+ * file and appended to the output of the run in the order of the workers
+ * when they have all exited.
+ * <p>
+ * JVM options are passed to the workers except for agents and debuggers.
+ * The main class is the class of the driver unless the system property
+ * taskdriver.worker.main names another one. It must exit with a non-zero
+ * status when the task fails.
+ * @author Chad Juliano
+ */
+final class TaskWorkers
+{
+    private static final Logger     LOG             = LoggerFactory.getLogger(TaskWorkers.class);
+
+    /** Line a worker writes to request the next argument. */
+    static final String             REQUEST         = "\u0001taskdriver-next\u0001";
+
+    private final TaskInvocation<?> _invocation;
+    private final List<String>      _command;
+    private final List<String>      _args;
+    private final int               _count;
+    private final PrintStream       _out;
+    private final PrintStream       _err;
+    private final List<Worker>      _workers        = new ArrayList<>();
+
+    // guarded by this
+    private Iterator<String>        _units          = null;
+    private boolean                 _stopped        = false;
+    private String                  _error          = null;
+
+    /**
+     * Constructor
+     * @param _invocation Invocation that takes the arguments.
+     * @param _mainClass Main class of the workers.
+     * @param _options Options of the workers.
+     * @param _count Number of workers.
+     */
+    TaskWorkers(TaskInvocation<?> _invocation, String _mainClass, List<String> _options, int _count)
+    {
+        this._invocation = _invocation;
+        this._count = _count;
+        this._out = ConsoleRouter.currentOut();
+        this._err = ConsoleRouter.currentErr();
+        this._args = new ArrayList<>(_options);
+
+        this._command = new ArrayList<>();
+        _command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for(String _jvmArg : ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            if(!_jvmArg.startsWith("-agentlib:") && !_jvmArg.startsWith("-javaagent:")
+                    && !_jvmArg.startsWith("-Xrunjdwp") && !_jvmArg.equals("-Xdebug"))
+            {
+                _command.add(_jvmArg);
+            }
+        }
+        // the pipes of a worker are read and relayed as UTF-8.
+        _command.add("-Dfile.encoding=UTF-8");
+        _command.add("-cp");
+        _command.add(System.getProperty("java.class.path"));
+        _command.add(System.getProperty("taskdriver.worker.main", _mainClass));
+    }
+
+    /**
+     * Start the workers from a new thread. Cancelling the future stops them.
+     * The workers are also stopped when the coordinator fails with any
+     * Throwable, which completes the future exceptionally.
+     * @return a future that completes when all workers have exited.
+     */
+    CompletableFuture<Void> start()
+    {
+        CompletableFuture<Void> _result = new CompletableFuture<>();
+        Thread _thread = ConsoleRouter.newThread(() ->
+        {
+            try
+            {
+                run();
+                _result.complete(null);
+            }
+            catch(Throwable _ex)
+            {
+                _result.completeExceptionally(_ex);
+            }
+        }, "task-driver-workers-" + _invocation);
+
+        _result.whenComplete((_value, _ex) ->
+        {
+            if(_result.isCancelled())
+            {
+                stop();
+            }
+        });
+        _thread.start();
+        return _result;
+    }
+
+    private void run()
+            throws Exception
+    {
+        // the required arguments are given to every worker.
+        TaskDefinition<?> _taskDef = _invocation.getDefinition();
+        _args.add(_taskDef.toString());
+        for(int _idx = 0; _idx < _taskDef.getArgCount(); _idx++)
+        {
+            String _value = _invocation.takeArg();
+            if(TaskArgSource.STDIN.equals(_value))
+            {
+                throw new ParseException("Argument " + _taskDef.getArgName(_idx) + " can not be passed to a worker: "
+                        + _value);
+            }
+            _args.add(_value.startsWith("@") ? "@" + _value : _value);
+        }
+        _args.add(TaskArgSource.STDIN);
+
+        TaskProgress _progress = _invocation.progress();
+        Path _outputDir = Files.createTempDirectory("task-driver-workers");
+        try (Stream<String> _unitStream = _invocation.takeRemainingArgs())
+        {
+            synchronized(this)
+            {
+                _units = _unitStream.iterator();
+            }
+
+            for(int _idx = 1; _idx <= _count; _idx++)
+            {
+                Worker _worker = new Worker(_idx, _outputDir.resolve("worker-" + _idx + ".out"), _progress);
+                _worker.start();
+                _workers.add(_worker);
+            }
+
+            for(Worker _worker : _workers)
+            {
+                _worker.waitFor();
+            }
+            report();
+        }
+        finally
+        {
+            stop();
+            for(Worker _worker : _workers)
+            {
+                Files.deleteIfExists(_worker._outputFile);
+            }
+            Files.deleteIfExists(_outputDir);
+        }
+    }
+
+    /**
+     * Log the result of each worker and append their output.
+     * @throws Exception if a worker failed or arguments were not taken.
+     */
+    private void report()
+            throws Exception
+    {
+        int _failCount = 0;
+        long _unitCount = 0;
+        for(Worker _worker : _workers)
+        {
+            _unitCount += _worker._done;
+            if(_worker._exitCode == 0)
+            {
+                LOG.info("Worker {}: OK ({} args, {} ms)", _worker._number, _worker._done, _worker._elapsedMs);
+            }
+            else
+            {
+                _failCount++;
+                LOG.error("Worker {}: FAILED with exit code {} ({} args, {} ms)", _worker._number,
+                        _worker._exitCode, _worker._done, _worker._elapsedMs);
+                if(_worker._current != null)
+                {
+                    LOG.error("Worker {} did not complete <{}>", _worker._number, _worker._current);
+                }
+            }
+        }
+
+        TaskOutput _output = _invocation.getOutput();
+        for(Worker _worker : _workers)
+        {
+            if(Files.exists(_worker._outputFile))
+            {
+                _output.append(_worker._outputFile);
+            }
+        }
+
+        LOG.info("Workers Complete: {} succeeded, {} failed, {} args", _count - _failCount, _failCount,
+                _unitCount);
+        if(_failCount > 0)
+        {
+            throw new Exception(String.format("%d of %d workers failed.", _failCount, _count));
+        }
+
+        synchronized(this)
+        {
+            if(_error != null)
+            {
+                throw new Exception(_error);
+            }
+
+            if(_units.hasNext())
+            {
+                throw new Exception("Workers exited before all arguments were taken.");
+            }
+        }
+    }
+
+    /**
+     * @return the next argument or null if there are no more.
+     */
+    private synchronized String nextUnit()
+    {
+        if(_stopped || !_units.hasNext())
+        {
+            return null;
+        }
+
+        String _unit = _units.next();
+        if(_unit.indexOf('\n') >= 0 || _unit.indexOf('\r') >= 0)
+        {
+            // the worker reads one argument per line.
+            _error = "Argument for a worker can not contain a line break: " + _unit;
+            _stopped = true;
+            return null;
+        }
+        return _unit;
+    }
+
+    /**
+     * Stop handing out arguments and end the worker processes.
+     */
+    private void stop()
+    {
+        synchronized(this)
+        {
+            _stopped = true;
+        }
+
+        for(Worker _worker : _workers)
+        {
+            _worker._process.destroy();
+        }
+    }
+
+    /**
+     * Write a line of a worker to the console as UTF-8 like the rest of the
+     * console output.
+     */
+    private static void relay(PrintStream _target, int _number, String _line)
+    {
+        byte[] _bytes = String.format("[worker %d] %s%n", _number, _line).getBytes(StandardCharsets.UTF_8);
+        _target.write(_bytes, 0, _bytes.length);
+        _target.flush();
+    }
+
+    /**
+     * A worker process and the threads that serve its requests and copy its
+     * stderr.
+     */
+    private class Worker
+    {
+        private final int          _number;
+        private final Path         _outputFile;
+        private final TaskProgress _progress;
+        private Process            _process;
+        private Thread             _requestThread;
+        private Thread             _errThread;
+        private long               _startNanos;
+
+        // written by the request thread and read after it ends.
+        private volatile String    _current   = null;
+        private volatile long      _done      = 0;
+        private int                _exitCode  = -1;
+        private long               _elapsedMs = 0;
+
+        Worker(int _number, Path _outputFile, TaskProgress _progress)
+        {
+            this._number = _number;
+            this._outputFile = _outputFile;
+            this._progress = _progress;
+        }
+
+        void start()
+                throws IOException
+        {
+            List<String> _cmdLine = new ArrayList<>(_command);
+            _cmdLine.add("--" + TaskDriver.OPT_WORKER);
+            _cmdLine.add("--output");
+            _cmdLine.add(_outputFile.toString());
+            _cmdLine.addAll(_args);
+
+            ProcessBuilder _builder = new ProcessBuilder(_cmdLine);
+            _builder.directory(_invocation.getWorkingDir().toFile());
+            Map<String, String> _environment = _invocation.getEnvironment();
+            if(_environment != null)
+            {
+                _builder.environment().clear();
+                _builder.environment().putAll(_environment);
+            }
+
+            LOG.debug("Starting worker {}: {}", _number, _cmdLine);
+            _startNanos = System.nanoTime();
+            _process = _builder.start();
+
+            // created with the console of the run thread so their log messages go to the same console.
+            _requestThread = ConsoleRouter.newThread(this::serve, "task-driver-worker-" + _number);
+            _errThread = ConsoleRouter.newThread(() -> copyErr(_process.getErrorStream()),
+                    "task-driver-worker-err-" + _number);
+            _requestThread.setDaemon(true);
+            _errThread.setDaemon(true);
+            _requestThread.start();
+            _errThread.start();
+        }
+
+        void waitFor()
+                throws InterruptedException
+        {
+            _exitCode = _process.waitFor();
+            _requestThread.join();
+            _errThread.join();
+            _elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _startNanos);
+        }
+
+        /**
+         * Answer the requests for arguments and copy the other lines to the
+         * console.
+         */
+        private void serve()
+        {
+            OutputStream _stdin = _process.getOutputStream();
+            try (BufferedReader _reader = new BufferedReader(
+                    new InputStreamReader(_process.getInputStream(), StandardCharsets.UTF_8)))
+            {
+                String _line;
+                while((_line = _reader.readLine()) != null)
+                {
+                    int _pos = _line.indexOf(REQUEST);
+                    if(_pos < 0)
+                    {
+                        relay(_out, _number, _line);
+                        continue;
+                    }
+
+                    // output that did not end with a newline comes before the request.
+                    if(_pos > 0)
+                    {
+                        relay(_out, _number, _line.substring(0, _pos));
+                    }
+
+                    if(_current != null)
+                    {
+                        _done++;
+                        _progress.advance();
+                    }
+
+                    _current = nextUnit();
+                    if(_current == null)
+                    {
+                        _stdin.close();
+                    }
+                    else
+                    {
+                        _stdin.write((_current + "\n").getBytes(StandardCharsets.UTF_8));
+                        _stdin.flush();
+                    }
+                }
+            }
+            catch(IOException _ex)
+            {
+                LOG.debug("Worker {} closed its streams: {}", _number, _ex.toString());
+            }
+        }
+
+        private void copyErr(InputStream _errStream)
+        {
+            try (BufferedReader _reader = new BufferedReader(
+                    new InputStreamReader(_errStream, StandardCharsets.UTF_8)))
+            {
+                String _line;
+                while((_line = _reader.readLine()) != null)
+                {
+                    relay(_err, _number, _line);
+                }
+            }
+            catch(IOException _ex)
+            {
+                LOG.debug("Worker {} closed stderr: {}", _number, _ex.toString());
+            }
+        }
+    }
+}
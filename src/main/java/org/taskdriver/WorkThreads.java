@@ -0,0 +1,62 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of a TaskWorkExecutor. This version is used before
+ * Java 21 and runs the units on a pool of platform threads. The jar has a
+ * version in META-INF/versions/21 that runs them on virtual threads.
+ * @author Chad Juliano
+ */
+final class WorkThreads
+{
+    private static final long IDLE_SEC = 10;
+
+    private WorkThreads()
+    {}
+
+    /**
+     * This is a method and not a constant so it is not compiled into the
+     * classes that are shared by both versions.
+     * @return true if the units run on virtual threads.
+     */
+    static boolean isVirtual()
+    {
+        return false;
+    }
+
+    /**
+     * Create an executor with up to a number of threads. The threads are
+     * started as they are needed and end when they are idle.
+     * @param _name Prefix of the thread names.
+     * @param _maxThreads Number of units that can run at the same time.
+     * @return
+     */
+    static ExecutorService newExecutor(String _name, int _maxThreads)
+    {
+        AtomicInteger _threadCount = new AtomicInteger();
+        ThreadPoolExecutor _executor = new ThreadPoolExecutor(_maxThreads, _maxThreads, IDLE_SEC, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), _runnable ->
+                {
+                    Thread _thread = new Thread(_runnable, _name + "-" + _threadCount.incrementAndGet());
+                    _thread.setDaemon(true);
+                    return _thread;
+                });
+        _executor.allowCoreThreadTimeOut(true);
+        return _executor;
+    }
+}
@@ -15,9 +15,9 @@ import java.io.PrintWriter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.taskdriver.TaskDefinition;
 import org.taskdriver.TaskDriver;
 import org.taskdriver.TaskDriverOptions;
+import org.taskdriver.TaskInvocation;
 
 /**
  * Demonstration implementation of the TaskDriver.
@@ -26,9 +26,7 @@ import org.taskdriver.TaskDriverOptions;
  */
 public class TaskDriverDemo extends TaskDriver<TaskDriverDemo.DemoTaskEnum>
 {
-    private static final Logger LOG          = LoggerFactory.getLogger(TaskDriverDemo.class);
-    private String              _optionalOpt = null;
-    private String              _requiredOpt = null;
+    private static final Logger LOG = LoggerFactory.getLogger(TaskDriverDemo.class);
 
     /**
      * Set of available tasks.
@@ -53,7 +51,7 @@ public class TaskDriverDemo extends TaskDriver<TaskDriverDemo.DemoTaskEnum>
         addTask(DemoTaskEnum.STR_PARAM, "Task with string param.")
                 .addArg("PARAM-STR");
         addTask(DemoTaskEnum.INT_PARAM, "Task with integer param.")
-                .addArg("PARAM-INT");
+                .addArg("PARAM-INT", Integer.class);
     }
 
     @Override
@@ -78,14 +76,19 @@ public class TaskDriverDemo extends TaskDriver<TaskDriverDemo.DemoTaskEnum>
             // add additional loggers here
         }
 
-        _optionalOpt = _cmdArgs.getOptionOrDefault("o", "default-val");
-        _requiredOpt = _cmdArgs.getRequiredOption("r");
+        // fail early if the required option is missing
+        _cmdArgs.getRequiredOption("r");
     }
 
     @Override
-    protected void handleDoTask(DemoTaskEnum _task, TaskDefinition<DemoTaskEnum> _taskDef)
+    protected void handleDoTask(DemoTaskEnum _task, TaskInvocation<DemoTaskEnum> _invocation)
             throws Exception
     {
+        // options are read from the invocation so the driver can be shared between threads.
+        TaskDriverOptions _cmdArgs = _invocation.getOptions();
+        String _optionalOpt = _cmdArgs.getOptionOrDefault("o", "default-val");
+        String _requiredOpt = _cmdArgs.getRequiredOption("r");
+
         LOG.info("Required Option Value: <{}>", _requiredOpt);
         LOG.info("Optional Option Value: <{}>", _optionalOpt);
 
@@ -99,12 +102,12 @@ public class TaskDriverDemo extends TaskDriver<TaskDriverDemo.DemoTaskEnum>
                 break;
 
             case STR_PARAM:
-                String _paramStr = _taskDef.takeArg();
+                String _paramStr = _invocation.takeArg();
                 LOG.info("Task {} was called with: <{}>", _task, _paramStr);
                 break;
 
             case INT_PARAM:
-                int _paramInt = _taskDef.takeArgInt();
+                int _paramInt = _invocation.takeArgInt();
                 LOG.info("Task {} was called with: <{}>", _task, _paramInt);
                 break;
 
@@ -0,0 +1,46 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the threads of a TaskWorkExecutor. This version is used on Java 21
+ * and later and runs each unit on a new virtual thread, so a unit that blocks
+ * on I/O does not hold a platform thread.
+ * @author Chad Juliano
+ */
+final class WorkThreads
+{
+    private WorkThreads()
+    {}
+
+    /**
+     * @return true if the units run on virtual threads.
+     */
+    static boolean isVirtual()
+    {
+        return true;
+    }
+
+    /**
+     * Create an executor that starts a virtual thread for each unit.
+     * @param _name Prefix of the thread names.
+     * @param _maxThreads Not used because the work executor limits the units
+     * that run at the same time.
+     * @return
+     */
+    static ExecutorService newExecutor(String _name, int _maxThreads)
+    {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(_name + "-", 1).factory());
+    }
+}
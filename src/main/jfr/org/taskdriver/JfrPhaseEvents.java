@@ -0,0 +1,49 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Writes the phases of a run as TaskPhaseEvent JFR events. TaskProfiler loads
+ * this class by name only when the JFR API is available.
+ * @author Chad Juliano
+ */
+final class JfrPhaseEvents implements TaskPhaseEvents
+{
+    @Override
+    public boolean isRecording()
+    {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Override
+    public Object start(String _phase, Object _task)
+    {
+        TaskPhaseEvent _event = new TaskPhaseEvent();
+        _event._phase = _phase;
+        _event._task = (_task == null) ? null : _task.toString();
+        _event.begin();
+        return _event;
+    }
+
+    @Override
+    public void end(Object _event, long _allocated)
+    {
+        TaskPhaseEvent _phaseEvent = (TaskPhaseEvent)_event;
+        _phaseEvent.end();
+        if(_phaseEvent.shouldCommit())
+        {
+            _phaseEvent._allocated = _allocated;
+            _phaseEvent.commit();
+        }
+    }
+}
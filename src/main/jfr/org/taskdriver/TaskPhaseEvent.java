@@ -0,0 +1,45 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a phase of a TaskDriver run. It is created by JfrPhaseEvents.
+ * @author Chad Juliano
+ */
+@Name("org.taskdriver.Phase")
+@Label("Task Driver Phase")
+@Description("A phase of a TaskDriver run.")
+@Category("Task Driver")
+@StackTrace(false)
+class TaskPhaseEvent extends Event
+{
+    @Label("Phase")
+    @Name("phase")
+    String _phase;
+
+    @Label("Task")
+    @Name("task")
+    String _task;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread during the phase or -1 if not known.")
+    @DataAmount
+    @Name("allocated")
+    long   _allocated;
+}
@@ -0,0 +1,891 @@
+/*
+ * TASK DRIVER - Command-line Task Framework
+ * Copyright 2016 by Chad Juliano
+ *
+ * Licensed under GNU Lesser General Public License v3.0 only. Some rights
+ * reserved. See LICENSE.
+ *
+ * @license LGPL-3.0 <http://spdx.org/licenses/LGPL-3.0>
+ */
+
+package org.taskdriver.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the task registries and option binders of a driver when it is
+ * compiled. Each enum with {@link org.taskdriver.TaskSpec} constants gets a
+ * TaskRegistry with a string switch for the name lookup and the help text
+ * already formatted. Each class with {@link org.taskdriver.TaskOption} fields
+ * gets an OptionBinder that assigns the fields directly.
+ * <p>
+ * Definitions that would fail when the driver starts are reported as
+ * compile errors on the annotated element.
+ * @author Chad Juliano
+ */
+@SupportedAnnotationTypes({ TaskDriverProcessor.TASK_SPEC, TaskDriverProcessor.TASK_OPTION })
+public class TaskDriverProcessor extends AbstractProcessor
+{
+    static final String               TASK_SPEC       = "org.taskdriver.TaskSpec";
+    static final String               TASK_OPTION     = "org.taskdriver.TaskOption";
+
+    // must match TaskDefinition.TASK_LINE_WIDTH so the help text is the same.
+    private static final int          TASK_LINE_WIDTH = 35;
+
+    // options added by the TaskDriver constructor.
+    private static final Set<String>  RESERVED_NAMES  = new HashSet<>(Arrays.asList("h", "help", "d", "debug",
+            "batch", "daemon", "daemon-timeout", "parallel", "profile", "metrics", "no-cache", "output",
+            "output-format", "progress-interval", "completion"));
+
+    // option field types and the converters of ArgConverters.
+    private static final Map<String, String> CONVERTERS = new HashMap<>();
+    static
+    {
+        CONVERTERS.put("java.lang.Integer", "ArgConverters.INTEGER");
+        CONVERTERS.put("java.lang.Long", "ArgConverters.LONG");
+        CONVERTERS.put("java.lang.Double", "ArgConverters.DOUBLE");
+        CONVERTERS.put("java.nio.file.Path", "ArgConverters.PATH");
+        CONVERTERS.put("java.time.Duration", "ArgConverters.DURATION");
+    }
+
+    private Elements                  _elements;
+    private Messager                  _messager;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment _processingEnv)
+    {
+        super.init(_processingEnv);
+        this._elements = _processingEnv.getElementUtils();
+        this._messager = _processingEnv.getMessager();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> _annotations, RoundEnvironment _roundEnv)
+    {
+        for(TypeElement _annotation : _annotations)
+        {
+            String _name = _annotation.getQualifiedName().toString();
+            Map<TypeElement, List<VariableElement>> _byType = groupByType(_roundEnv, _annotation);
+            for(Map.Entry<TypeElement, List<VariableElement>> _entry : _byType.entrySet())
+            {
+                if(TASK_SPEC.equals(_name))
+                {
+                    processTasks(_entry.getKey(), _entry.getValue());
+                }
+                else if(TASK_OPTION.equals(_name))
+                {
+                    processOptions(_entry.getKey(), _entry.getValue());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the annotated fields grouped by the type that declares them.
+     */
+    private static Map<TypeElement, List<VariableElement>> groupByType(RoundEnvironment _roundEnv,
+            TypeElement _annotation)
+    {
+        Map<TypeElement, List<VariableElement>> _byType = new LinkedHashMap<>();
+        for(VariableElement _field : ElementFilter.fieldsIn(_roundEnv.getElementsAnnotatedWith(_annotation)))
+        {
+            TypeElement _type = (TypeElement)_field.getEnclosingElement();
+            _byType.computeIfAbsent(_type, _key -> new ArrayList<>()).add(_field);
+        }
+        return _byType;
+    }
+
+    /*
+     * Tasks
+     */
+
+    private void processTasks(TypeElement _enum, List<VariableElement> _constants)
+    {
+        if(_enum.getKind() != ElementKind.ENUM)
+        {
+            error(_constants.get(0), "@TaskSpec must be on a constant of the task enum.");
+            return;
+        }
+
+        if(!checkAccessible(_enum, "Task enum"))
+        {
+            return;
+        }
+
+        // read and check each task on its own.
+        Map<String, TaskModel> _byConstant = new LinkedHashMap<>();
+        Map<String, TaskModel> _byName = new HashMap<>();
+        Set<String> _invalid = new HashSet<>();
+        for(VariableElement _constant : _constants)
+        {
+            TaskModel _task = readTask(_constant);
+            if(_task == null)
+            {
+                _invalid.add(_constant.getSimpleName().toString());
+                continue;
+            }
+
+            TaskModel _previous = _byName.put(_task._name, _task);
+            if(_previous != null)
+            {
+                error(_constant, "Task name %s is already used by %s.", _task._name, _previous._constant);
+                _invalid.add(_task._constant);
+            }
+            _byConstant.put(_task._constant, _task);
+        }
+
+        // check the dependencies between them. Errors were already reported for invalid tasks.
+        boolean _valid = _invalid.isEmpty();
+        for(TaskModel _task : _byConstant.values())
+        {
+            for(String _prerequisite : _task._dependsOn)
+            {
+                TaskModel _prerequisiteTask = _byConstant.get(_prerequisite);
+                if(_prerequisiteTask == null && !_invalid.contains(_prerequisite))
+                {
+                    error(_task._element, "Task %s depends on %s which is not a @TaskSpec constant of %s.",
+                            _task._name, _prerequisite, _enum.getSimpleName());
+                    _valid = false;
+                }
+                else if(_prerequisiteTask != null
+                        && (!_prerequisiteTask._args.isEmpty() || _prerequisiteTask._varArgs != null))
+                {
+                    error(_task._element, "Task %s depends on %s which takes arguments.", _task._name,
+                            _prerequisiteTask._name);
+                    _valid = false;
+                }
+            }
+
+            List<String> _cycle = findCycle(_byConstant, _task, _task._constant, new ArrayList<>());
+            if(_cycle != null)
+            {
+                error(_task._element, "Task dependency cycle: %s", _cycle.stream()
+                        .map(_name -> _byConstant.get(_name)._name)
+                        .collect(Collectors.joining(" -> ")));
+                _valid = false;
+            }
+        }
+
+        if(_valid)
+        {
+            writeRegistry(_enum, new ArrayList<>(_byConstant.values()));
+        }
+    }
+
+    /**
+     * Read the annotation of a task constant.
+     * @return the task or null if it is not valid.
+     */
+    private TaskModel readTask(VariableElement _constant)
+    {
+        AnnotationMirror _spec = getAnnotation(_constant, TASK_SPEC);
+        if(_constant.getKind() != ElementKind.ENUM_CONSTANT)
+        {
+            error(_constant, _spec, "@TaskSpec must be on a constant of the task enum.");
+            return null;
+        }
+
+        TaskModel _task = new TaskModel(_constant);
+        _task._description = (String)getValue(_spec, "value");
+        if(_task._description.trim().isEmpty())
+        {
+            error(_constant, _spec, "Task %s has no description.", _task._name);
+            return null;
+        }
+
+        Set<String> _argNames = new HashSet<>();
+        for(AnnotationValue _value : getValues(_spec, "args"))
+        {
+            AnnotationMirror _arg = (AnnotationMirror)_value.getValue();
+            String _argName = (String)getValue(_arg, "value");
+            TypeMirror _argType = (TypeMirror)getValue(_arg, "type");
+            if(!checkArgName(_constant, _spec, _task, _argNames, _argName))
+            {
+                return null;
+            }
+
+            String _converter = getArgConverter(_argType);
+            if(_converter == null)
+            {
+                error(_constant, _spec, "Argument %s of task %s has type %s which has no converter.", _argName,
+                        _task._name, _argType);
+                return null;
+            }
+            _task._args.add(new String[] { _argName, _converter });
+        }
+
+        String _varArgs = (String)getValue(_spec, "varArgs");
+        if(!_varArgs.isEmpty())
+        {
+            if(!checkArgName(_constant, _spec, _task, _argNames, _varArgs))
+            {
+                return null;
+            }
+            _task._varArgs = _varArgs;
+        }
+
+        for(AnnotationValue _value : getValues(_spec, "dependsOn"))
+        {
+            String _prerequisite = (String)_value.getValue();
+            if(!_task._dependsOn.contains(_prerequisite))
+            {
+                _task._dependsOn.add(_prerequisite);
+            }
+        }
+        return _task;
+    }
+
+    private boolean checkArgName(Element _element, AnnotationMirror _spec, TaskModel _task, Set<String> _argNames,
+            String _argName)
+    {
+        if(_argName.trim().isEmpty())
+        {
+            error(_element, _spec, "Task %s has an argument without a name.", _task._name);
+            return false;
+        }
+
+        if(!_argNames.add(_argName))
+        {
+            error(_element, _spec, "Task %s has more than one argument named %s.", _task._name, _argName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the expression that converts an argument of the type, an empty
+     * string if it is not converted or null if the type has no converter.
+     */
+    private String getArgConverter(TypeMirror _type)
+    {
+        if(_type.getKind() != TypeKind.DECLARED)
+        {
+            return null;
+        }
+
+        TypeElement _typeElement = (TypeElement)((DeclaredType)_type).asElement();
+        String _typeName = _typeElement.getQualifiedName().toString();
+        if("java.lang.String".equals(_typeName))
+        {
+            return "";
+        }
+
+        if(_typeElement.getKind() == ElementKind.ENUM && !isPrivate(_typeElement))
+        {
+            return _typeName + ".class";
+        }
+        return CONVERTERS.get(_typeName);
+    }
+
+    /**
+     * Follow the dependencies of a task depth first.
+     * @return the tasks of a cycle that starts at _start or null.
+     */
+    private static List<String> findCycle(Map<String, TaskModel> _byConstant, TaskModel _task, String _start,
+            List<String> _path)
+    {
+        _path.add(_task._constant);
+        for(String _prerequisite : _task._dependsOn)
+        {
+            if(_prerequisite.equals(_start))
+            {
+                List<String> _cycle = new ArrayList<>(_path);
+                _cycle.add(_start);
+                return _cycle;
+            }
+
+            TaskModel _next = _byConstant.get(_prerequisite);
+            if(_next != null && !_path.contains(_prerequisite))
+            {
+                List<String> _cycle = findCycle(_byConstant, _next, _start, _path);
+                if(_cycle != null)
+                {
+                    return _cycle;
+                }
+            }
+        }
+        _path.remove(_path.size() - 1);
+        return null;
+    }
+
+    private void writeRegistry(TypeElement _enum, List<TaskModel> _tasks)
+    {
+        String _enumName = _enum.getQualifiedName().toString();
+        String _className = getGeneratedName(_enum, "_Tasks");
+
+        List<TaskModel> _sorted = new ArrayList<>(_tasks);
+        _sorted.sort((_left, _right) -> _left._name.compareTo(_right._name));
+        String _summary = _sorted.stream().map(_task -> _task._name).collect(Collectors.joining("|", "[", "]"));
+        String _details = _sorted.stream().map(TaskModel::formatLine).sorted().collect(Collectors.joining("\n"));
+
+        StringBuilder _sb = new StringBuilder();
+        appendHeader(_sb, _enum);
+        _sb.append("import org.taskdriver.ArgConverters;\n");
+        _sb.append("import org.taskdriver.TaskDriverMap;\n");
+        _sb.append("import org.taskdriver.TaskRegistry;\n\n");
+        _sb.append("/**\n");
+        _sb.append(" * Tasks of {@link ").append(_enumName).append("} generated from the @TaskSpec annotations.\n");
+        _sb.append(" * Do not edit.\n");
+        _sb.append(" */\n");
+        _sb.append(getModifiers(_enum)).append("final class ").append(_className)
+                .append(" implements TaskRegistry<").append(_enumName).append(">\n{\n");
+        _sb.append("    public static final ").append(_className).append(" INSTANCE = new ").append(_className)
+                .append("();\n\n");
+        _sb.append("    private static final String SUMMARY = ").append(literal(_summary)).append(";\n");
+        _sb.append("    private static final String DETAILS = ").append(literal(_details)).append(";\n\n");
+        _sb.append("    private ").append(_className).append("()\n    {}\n\n");
+
+        _sb.append("    @Override\n");
+        _sb.append("    public void define(TaskDriverMap<").append(_enumName).append("> _taskMap)\n    {\n");
+        for(TaskModel _task : _tasks)
+        {
+            _sb.append("        _taskMap.add(").append(_enumName).append('.').append(_task._constant).append(", ")
+                    .append(literal(_task._description)).append(')');
+            for(String[] _arg : _task._args)
+            {
+                _sb.append("\n                .addArg(").append(literal(_arg[0]));
+                if(!_arg[1].isEmpty())
+                {
+                    _sb.append(", ").append(_arg[1]);
+                }
+                _sb.append(')');
+            }
+
+            if(_task._varArgs != null)
+            {
+                _sb.append("\n                .addVarArgs(").append(literal(_task._varArgs)).append(')');
+            }
+
+            if(!_task._dependsOn.isEmpty())
+            {
+                _sb.append("\n                .dependsOn(").append(_task._dependsOn.stream()
+                        .map(_constant -> _enumName + "." + _constant)
+                        .collect(Collectors.joining(", "))).append(')');
+            }
+            _sb.append(";\n");
+        }
+        _sb.append("    }\n\n");
+
+        _sb.append("    @Override\n");
+        _sb.append("    public ").append(_enumName).append(" find(String _name)\n    {\n");
+        _sb.append("        switch(_name)\n        {\n");
+        for(TaskModel _task : _tasks)
+        {
+            _sb.append("            case ").append(literal(_task._name)).append(":\n");
+            _sb.append("                return ").append(_enumName).append('.').append(_task._constant)
+                    .append(";\n");
+        }
+        _sb.append("            default:\n");
+        _sb.append("                return null;\n");
+        _sb.append("        }\n    }\n\n");
+
+        _sb.append("    @Override\n");
+        _sb.append("    public String getSummary()\n    {\n        return SUMMARY;\n    }\n\n");
+        _sb.append("    @Override\n");
+        _sb.append("    public String getDetails()\n    {\n        return DETAILS;\n    }\n");
+        _sb.append("}\n");
+
+        writeSource(_enum, _className, _sb);
+    }
+
+    /*
+     * Options
+     */
+
+    private void processOptions(TypeElement _type, List<VariableElement> _fields)
+    {
+        if(!checkAccessible(_type, "Options class"))
+        {
+            return;
+        }
+
+        if(_type.getKind() != ElementKind.CLASS || _type.getModifiers().contains(Modifier.ABSTRACT)
+                || (_type.getNestingKind().isNested() && !_type.getModifiers().contains(Modifier.STATIC)))
+        {
+            error(_type, "Options class %s must be a concrete top level or static class.", _type.getSimpleName());
+            return;
+        }
+
+        boolean _hasConstructor = ElementFilter.constructorsIn(_type.getEnclosedElements()).stream()
+                .anyMatch(_ctor -> _ctor.getParameters().isEmpty() && !isPrivate(_ctor));
+        if(!_hasConstructor)
+        {
+            error(_type, "Options class %s must have a constructor without parameters that is not private.",
+                    _type.getSimpleName());
+            return;
+        }
+
+        List<OptionModel> _options = new ArrayList<>();
+        Set<String> _names = new HashSet<>();
+        boolean _valid = true;
+        for(VariableElement _field : _fields)
+        {
+            OptionModel _option = readOption(_field);
+            if(_option == null)
+            {
+                _valid = false;
+                continue;
+            }
+
+            for(String _name : Arrays.asList(_option._opt, _option._longOpt))
+            {
+                if(_name == null)
+                {
+                    continue;
+                }
+
+                if(RESERVED_NAMES.contains(_name))
+                {
+                    error(_field, "Option name %s is used by TaskDriver.", _name);
+                    _valid = false;
+                }
+                else if(!_names.add(_name))
+                {
+                    error(_field, "Option name %s is used by more than one field.", _name);
+                    _valid = false;
+                }
+            }
+            _options.add(_option);
+        }
+
+        if(_valid)
+        {
+            writeBinder(_type, _options);
+        }
+    }
+
+    /**
+     * Read the annotation of an option field.
+     * @return the option or null if it is not valid.
+     */
+    private OptionModel readOption(VariableElement _field)
+    {
+        AnnotationMirror _annotation = getAnnotation(_field, TASK_OPTION);
+        Set<Modifier> _modifiers = _field.getModifiers();
+        if(_modifiers.contains(Modifier.PRIVATE) || _modifiers.contains(Modifier.STATIC)
+                || _modifiers.contains(Modifier.FINAL))
+        {
+            error(_field, _annotation, "Option field %s must not be private, static or final.",
+                    _field.getSimpleName());
+            return null;
+        }
+
+        OptionModel _option = new OptionModel(_field.getSimpleName().toString());
+        _option._description = (String)getValue(_annotation, "value");
+        _option._required = (Boolean)getValue(_annotation, "required");
+
+        String _longOpt = (String)getValue(_annotation, "longOpt");
+        _option._longOpt = _longOpt.isEmpty() ? toOptionName(_option._field) : _longOpt;
+        if(!_option._longOpt.matches("[A-Za-z0-9][A-Za-z0-9_-]*"))
+        {
+            error(_field, _annotation, "Option name %s must be letters, digits, '-' and '_'.", _option._longOpt);
+            return null;
+        }
+
+        String _opt = (String)getValue(_annotation, "opt");
+        if(!_opt.isEmpty())
+        {
+            if(_opt.length() != 1 || !Character.isLetterOrDigit(_opt.charAt(0)))
+            {
+                error(_field, _annotation, "Short option name %s must be one letter or digit.", _opt);
+                return null;
+            }
+            _option._opt = _opt;
+        }
+
+        TypeMirror _type = _field.asType();
+        if(_type.getKind() == TypeKind.BOOLEAN)
+        {
+            if(_option._required)
+            {
+                error(_field, _annotation, "Flag %s can not be required.", _option._longOpt);
+                return null;
+            }
+            _option._converter = null;
+            return _option;
+        }
+
+        TypeMirror _boxed = _type.getKind().isPrimitive()
+                ? processingEnv.getTypeUtils().boxedClass((PrimitiveType)_type).asType()
+                : _type;
+        String _converter = getArgConverter(_boxed);
+        if(_converter == null)
+        {
+            error(_field, _annotation, "Option field %s has type %s which has no converter.",
+                    _field.getSimpleName(), _type);
+            return null;
+        }
+
+        if(_converter.endsWith(".class"))
+        {
+            // enum converters are looked up once by the binder.
+            _option._enumType = _converter.substring(0, _converter.length() - ".class".length());
+            _converter = _option._field.toUpperCase(Locale.ROOT) + "_CONVERTER";
+        }
+        _option._converter = _converter;
+        return _option;
+    }
+
+    /**
+     * @return the name of a field with words separated by a dash.
+     */
+    private static String toOptionName(String _fieldName)
+    {
+        StringBuilder _sb = new StringBuilder();
+        for(char _char : _fieldName.toCharArray())
+        {
+            if(Character.isUpperCase(_char) && _sb.length() > 0)
+            {
+                _sb.append('-');
+            }
+            _sb.append(Character.toLowerCase(_char));
+        }
+        return _sb.toString();
+    }
+
+    private void writeBinder(TypeElement _type, List<OptionModel> _options)
+    {
+        String _typeName = _type.getQualifiedName().toString();
+        String _className = getGeneratedName(_type, "_Options");
+
+        StringBuilder _sb = new StringBuilder();
+        appendHeader(_sb, _type);
+        _sb.append("import org.apache.commons.cli.Options;\n");
+        _sb.append("import org.apache.commons.cli.ParseException;\n");
+        _sb.append("import org.taskdriver.ArgConverter;\n");
+        _sb.append("import org.taskdriver.ArgConverters;\n");
+        _sb.append("import org.taskdriver.OptionBinder;\n");
+        _sb.append("import org.taskdriver.TaskDriverOptions;\n\n");
+        _sb.append("/**\n");
+        _sb.append(" * Options of {@link ").append(_typeName).append("} generated from the @TaskOption annotations.\n");
+        _sb.append(" * Do not edit.\n");
+        _sb.append(" */\n");
+        _sb.append(getModifiers(_type)).append("final class ").append(_className)
+                .append(" implements OptionBinder<").append(_typeName).append(">\n{\n");
+        _sb.append("    public static final ").append(_className).append(" INSTANCE = new ").append(_className)
+                .append("();\n");
+        for(OptionModel _option : _options)
+        {
+            if(_option._enumType != null)
+            {
+                _sb.append("    private static final ArgConverter<").append(_option._enumType).append("> ")
+                        .append(_option._converter).append(" = ArgConverters.forClass(").append(_option._enumType)
+                        .append(".class);\n");
+            }
+        }
+        _sb.append('\n');
+        _sb.append("    private ").append(_className).append("()\n    {}\n\n");
+
+        _sb.append("    @Override\n");
+        _sb.append("    public void define(Options _optionDefs)\n    {\n");
+        for(OptionModel _option : _options)
+        {
+            _sb.append("        _optionDefs.addOption(").append(_option._opt == null ? "null" : literal(_option._opt))
+                    .append(", ").append(literal(_option._longOpt)).append(", ").append(_option._converter != null)
+                    .append(", ").append(literal(_option._description)).append(");\n");
+        }
+        _sb.append("    }\n\n");
+
+        _sb.append("    @Override\n");
+        _sb.append("    public ").append(_typeName).append(" bind(TaskDriverOptions _cmd)\n");
+        _sb.append("            throws ParseException\n    {\n");
+        _sb.append("        ").append(_typeName).append(" _result = new ").append(_typeName).append("();\n");
+        for(OptionModel _option : _options)
+        {
+            String _name = literal(_option._longOpt);
+            String _target = "_result." + _option._field;
+            if(_option._converter == null)
+            {
+                _sb.append("        if(_cmd.hasOption(").append(_name).append("))\n        {\n");
+                _sb.append("            ").append(_target).append(" = true;\n        }\n");
+            }
+            else if(_option._converter.isEmpty())
+            {
+                _sb.append("        ").append(_target).append(" = ").append(_option._required
+                        ? "_cmd.getRequiredOption(" + _name + ")"
+                        : "_cmd.getOptionOrDefault(" + _name + ", " + _target + ")").append(";\n");
+            }
+            else if(_option._required)
+            {
+                _sb.append("        _cmd.getRequiredOption(").append(_name).append(");\n");
+                _sb.append("        ").append(_target).append(" = _cmd.getOption(").append(_name).append(", ")
+                        .append(_option._converter).append(");\n");
+            }
+            else
+            {
+                _sb.append("        if(_cmd.hasOption(").append(_name).append("))\n        {\n");
+                _sb.append("            ").append(_target).append(" = _cmd.getOption(").append(_name)
+                        .append(", ").append(_option._converter).append(");\n        }\n");
+            }
+        }
+        _sb.append("        return _result;\n    }\n");
+        _sb.append("}\n");
+
+        writeSource(_type, _className, _sb);
+    }
+
+    /*
+     * Utilities
+     */
+
+    /**
+     * @return false after reporting an error if the type or a type that
+     * encloses it is private.
+     */
+    private boolean checkAccessible(TypeElement _type, String _kind)
+    {
+        for(Element _element = _type; _element instanceof TypeElement; _element = _element.getEnclosingElement())
+        {
+            if(isPrivate(_element))
+            {
+                error(_type, "%s %s must not be private.", _kind, _type.getSimpleName());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPrivate(Element _element)
+    {
+        return _element.getModifiers().contains(Modifier.PRIVATE);
+    }
+
+    /**
+     * @return the generated class name from the names of the type and the
+     * types that enclose it.
+     */
+    private static String getGeneratedName(TypeElement _type, String _suffix)
+    {
+        List<String> _names = new ArrayList<>();
+        for(Element _element = _type; _element instanceof TypeElement; _element = _element.getEnclosingElement())
+        {
+            _names.add(_element.getSimpleName().toString());
+        }
+        Collections.reverse(_names);
+        return String.join("_", _names) + _suffix;
+    }
+
+    /**
+     * @return "public " if the type and the types that enclose it are public.
+     */
+    private static String getModifiers(TypeElement _type)
+    {
+        for(Element _element = _type; _element instanceof TypeElement; _element = _element.getEnclosingElement())
+        {
+            if(!_element.getModifiers().contains(Modifier.PUBLIC))
+            {
+                return "";
+            }
+        }
+        return "public ";
+    }
+
+    private void appendHeader(StringBuilder _sb, TypeElement _type)
+    {
+        PackageElement _package = _elements.getPackageOf(_type);
+        _sb.append("// Generated by ").append(TaskDriverProcessor.class.getName()).append(". Do not edit.\n\n");
+        if(!_package.isUnnamed())
+        {
+            _sb.append("package ").append(_package.getQualifiedName()).append(";\n\n");
+        }
+    }
+
+    private void writeSource(TypeElement _type, String _className, StringBuilder _sb)
+    {
+        PackageElement _package = _elements.getPackageOf(_type);
+        String _name = _package.isUnnamed() ? _className : _package.getQualifiedName() + "." + _className;
+        try(Writer _writer = processingEnv.getFiler().createSourceFile(_name, _type).openWriter())
+        {
+            _writer.write(_sb.toString());
+        }
+        catch(IOException _ex)
+        {
+            error(_type, "Could not write %s: %s", _name, _ex.getMessage());
+        }
+    }
+
+    private static AnnotationMirror getAnnotation(Element _element, String _annotationName)
+    {
+        for(AnnotationMirror _mirror : _element.getAnnotationMirrors())
+        {
+            TypeElement _type = (TypeElement)_mirror.getAnnotationType().asElement();
+            if(_type.getQualifiedName().contentEquals(_annotationName))
+            {
+                return _mirror;
+            }
+        }
+        return null;
+    }
+
+    private Object getValue(AnnotationMirror _mirror, String _name)
+    {
+        for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> _entry : _elements
+                .getElementValuesWithDefaults(_mirror).entrySet())
+        {
+            if(_entry.getKey().getSimpleName().contentEquals(_name))
+            {
+                return _entry.getValue().getValue();
+            }
+        }
+        throw new IllegalArgumentException("No annotation value: " + _name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<? extends AnnotationValue> getValues(AnnotationMirror _mirror, String _name)
+    {
+        return (List<? extends AnnotationValue>)getValue(_mirror, _name);
+    }
+
+    /**
+     * @return a Java string literal with the characters that are not
+     * printable ASCII escaped.
+     */
+    private static String literal(String _value)
+    {
+        StringBuilder _sb = new StringBuilder("\"");
+        for(char _char : _value.toCharArray())
+        {
+            switch(_char)
+            {
+                case '"':
+                    _sb.append("\\\"");
+                    break;
+                case '\\':
+                    _sb.append("\\\\");
+                    break;
+                case '\n':
+                    _sb.append("\\n");
+                    break;
+                default:
+                    if(_char < 0x20 || _char > 0x7E)
+                    {
+                        _sb.append(String.format("\\u%04x", (int)_char));
+                    }
+                    else
+                    {
+                        _sb.append(_char);
+                    }
+                    break;
+            }
+        }
+        return _sb.append('"').toString();
+    }
+
+    private void error(Element _element, String _format, Object... _args)
+    {
+        error(_element, null, _format, _args);
+    }
+
+    private void error(Element _element, AnnotationMirror _mirror, String _format, Object... _args)
+    {
+        _messager.printMessage(Diagnostic.Kind.ERROR, String.format(_format, _args), _element, _mirror);
+    }
+
+    /**
+     * Task read from a @TaskSpec constant.
+     */
+    private static class TaskModel
+    {
+        private final VariableElement _element;
+        private final String          _constant;
+        private final String          _name;
+        private String                _description;
+        private final List<String[]>  _args      = new ArrayList<>();
+        private String                _varArgs   = null;
+        private final List<String>    _dependsOn = new ArrayList<>();
+
+        TaskModel(VariableElement _element)
+        {
+            this._element = _element;
+            this._constant = _element.getSimpleName().toString();
+            this._name = _constant.replace('_', '-').toLowerCase();
+        }
+
+        /**
+         * @return the line of the help screen the same as TaskDefinition.formatLine().
+         */
+        String formatLine()
+        {
+            List<String> _names = _args.stream().map(_arg -> _arg[0]).collect(Collectors.toList());
+            if(_varArgs != null)
+            {
+                _names.add(_varArgs + "...");
+            }
+
+            StringBuilder _usage = new StringBuilder(_name);
+            if(!_names.isEmpty())
+            {
+                _usage.append(_names.stream().collect(Collectors.joining("] [", " [", "]")));
+            }
+
+            while(_usage.length() < TASK_LINE_WIDTH)
+            {
+                _usage.append('.');
+            }
+            return String.format("   %s %s", _usage, _description);
+        }
+    }
+
+    /**
+     * Option read from a @TaskOption field.
+     */
+    private static class OptionModel
+    {
+        private final String _field;
+        private String       _description;
+        private String       _longOpt;
+        private String       _opt       = null;
+        private boolean      _required;
+
+        // null for a flag and empty for a string.
+        private String       _converter = null;
+        private String       _enumType  = null;
+
+        OptionModel(String _field)
+        {
+            this._field = _field;
+        }
+    }
+}
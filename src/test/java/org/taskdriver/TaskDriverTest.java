@@ -11,15 +11,65 @@
 
 package org.taskdriver;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.commons.cli.MissingArgumentException;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.junit.Assert;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
+import org.slf4j.LoggerFactory;
 import org.taskdriver.demo.TaskDriverDemo;
 
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class TaskDriverTest
 {
@@ -94,7 +144,15 @@ public class TaskDriverTest
         ArrayList<String> _argList = new ArrayList<>();
         _argList.add("--debug");
         _argList.addAll(Arrays.asList("int-param", "9999x"));
-        execTest(_argList);
+        try
+        {
+            execTest(_argList);
+        }
+        finally
+        {
+            // debug messages end with the run.
+            Assert.assertFalse(LoggerFactory.getLogger(TaskDriver.class).isDebugEnabled());
+        }
     }
 
     @Test()
@@ -107,6 +165,1157 @@ public class TaskDriverTest
         execTest(_argList);
     }
 
+    @Test()
+    public void t050_batch()
+            throws Exception
+    {
+        File _batchFile = createBatchFile(Arrays.asList(
+                "# comment line",
+                "no-param",
+                "",
+                "str-param \"Hello World!\"",
+                "--optional 'quoted value' int-param 42"));
+
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("--batch", _batchFile.getPath()));
+        execTest(_argList);
+    }
+
+    @Test(expected = Exception.class)
+    public void t051_batchError()
+            throws Exception
+    {
+        File _batchFile = createBatchFile(Arrays.asList(
+                "no-param",
+                "int-param 9999x",
+                "int-param 5"));
+
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("--batch", _batchFile.getPath()));
+        execTest(_argList);
+    }
+
+    @Test()
+    public void t060_daemon()
+            throws Exception
+    {
+        String _userHome = System.getProperty("user.home");
+        Path _home = Files.createTempDirectory("task-driver-home");
+        System.setProperty("user.home", _home.toString());
+        try
+        {
+            Thread _daemon = new Thread(() ->
+            {
+                try
+                {
+                    ArrayList<String> _argList = new ArrayList<>();
+                    _argList.addAll(Arrays.asList("--daemon", "--daemon-timeout", "1"));
+                    execTest(_argList);
+                }
+                catch(Exception _ex)
+                {
+                    throw new RuntimeException(_ex);
+                }
+            });
+            _daemon.start();
+
+            Path _daemonFile = TaskDriverClient.getDaemonFile("<Implementation-Title>");
+            for(int _idx = 0; _idx < 100 && !Files.exists(_daemonFile); _idx++)
+            {
+                Thread.sleep(100);
+            }
+
+            TaskDriverClient _client = new TaskDriverClient("<Implementation-Title>");
+            Assert.assertEquals(0, _client.execute(new String[] { "str-param", "Hello Daemon!" }));
+            Assert.assertEquals(1, _client.execute(new String[] { "int-param", "9999x" }));
+
+            _daemon.join(10000);
+            Assert.assertFalse(_daemon.isAlive());
+            Assert.assertFalse(Files.exists(_daemonFile));
+        }
+        finally
+        {
+            System.setProperty("user.home", _userHome);
+            deleteTree(_home);
+        }
+    }
+
+    @Test()
+    public void t070_rerun()
+            throws Exception
+    {
+        TaskDriverDemo _driver = new TaskDriverDemo();
+        _driver.run(new String[] { "--required", "reqired-opt-val", "int-param", "1" });
+        _driver.run(new String[] { "--required", "reqired-opt-val", "int-param", "2" });
+    }
+
+    @Test()
+    public void t071_concurrent()
+            throws Exception
+    {
+        TaskDriverDemo _driver = new TaskDriverDemo();
+        ExecutorService _executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<?>> _futures = new ArrayList<>();
+            for(int _idx = 0; _idx < 64; _idx++)
+            {
+                String[] _args = { "--required", "reqired-opt-val", "int-param", Integer.toString(_idx) };
+                _futures.add(_executor.submit(() ->
+                {
+                    _driver.run(_args);
+                    return null;
+                }));
+            }
+
+            for(Future<?> _future : _futures)
+            {
+                _future.get();
+            }
+        }
+        finally
+        {
+            _executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void t072_sealed()
+            throws Exception
+    {
+        TaskDriverDemo _driver = new TaskDriverDemo();
+        _driver.run(new String[] { "--required", "reqired-opt-val", "no-param" });
+        _driver.addOption("late", "Added after run", "l", false);
+    }
+
+    @Test()
+    public void t080_multiTask()
+            throws Exception
+    {
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("no-param", ",", "str-param", "Hello World!", ",", "int-param", "42"));
+        execTest(_argList);
+    }
+
+    @Test()
+    public void t081_multiTaskParallel()
+            throws Exception
+    {
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("--parallel", "2"));
+        _argList.addAll(Arrays.asList("int-param", "1", ",", "int-param", "2", ",", "int-param", "3"));
+        execTest(_argList);
+    }
+
+    @Test(expected = Exception.class)
+    public void t082_multiTaskParallelError()
+            throws Exception
+    {
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("--parallel", "3"));
+        _argList.addAll(Arrays.asList("int-param", "1", ",", "int-param", "9999x", ",", "no-param"));
+        execTest(_argList);
+    }
+
+    @Test(expected = ParseException.class)
+    public void t083_multiTaskMissing()
+            throws Exception
+    {
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("no-param", ","));
+        execTest(_argList);
+    }
+
+    @Test()
+    public void t085_profile()
+            throws Exception
+    {
+        LoggerContext _context = (LoggerContext)LoggerFactory.getILoggerFactory();
+        ListAppender<ILoggingEvent> _appender = new ListAppender<>();
+        _appender.setContext(_context);
+        _appender.start();
+
+        ch.qos.logback.classic.Logger _logger = _context.getLogger(TaskDriver.class);
+        _logger.addAppender(_appender);
+        try
+        {
+            ArrayList<String> _argList = new ArrayList<>();
+            _argList.addAll(Arrays.asList("--profile", "--parallel", "2", "no-param", ",", "int-param", "42"));
+            execTest(_argList);
+        }
+        finally
+        {
+            _logger.detachAppender(_appender);
+            _appender.stop();
+        }
+
+        List<String> _summaries = _appender.list.stream().map(ILoggingEvent::getFormattedMessage)
+                .filter(_message -> _message.startsWith("Profile:")).collect(Collectors.toList());
+        Assert.assertEquals(1, _summaries.size());
+
+        List<String> _phases = Arrays.stream(_summaries.get(0).split("\\R")).skip(2)
+                .map(_row -> _row.substring(0, 40).trim()).collect(Collectors.toList());
+        Assert.assertTrue(_phases.toString(), _phases.containsAll(Arrays.asList("jvm-start", "parse-options",
+                "do-task <no-param>", "do-task <int-param>", "run")));
+        Assert.assertTrue(_summaries.get(0), _summaries.get(0).matches("(?s).*\\nrun +\\d+\\.\\d{3} +- .*"));
+    }
+
+    @Test()
+    public void t086_metrics()
+            throws Exception
+    {
+        File _metricsFile = File.createTempFile("task-driver-metrics", ".txt");
+        _metricsFile.deleteOnExit();
+
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("--metrics", _metricsFile.getPath(), "no-param", ",", "int-param", "42"));
+        execTest(_argList);
+
+        String _report = new String(Files.readAllBytes(_metricsFile.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(_report, _report.contains("parse"));
+        Assert.assertTrue(_report, _report.contains("int-param"));
+        Assert.assertTrue(_report, _report.contains("no-param"));
+
+        // the MXBean is registered by a batch or daemon run.
+        TaskMetrics _metrics = TaskMetrics.forDriver(TaskDriverDemo.class);
+        long _taskCount = _metrics.getTaskCount();
+        _argList.clear();
+        _argList.addAll(Arrays.asList("--batch", createBatchFile(Arrays.asList("no-param", "int-param 42")).getPath()));
+        execTest(_argList);
+        Assert.assertEquals(_taskCount + 2, _metrics.getTaskCount());
+
+        MBeanServer _server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName _name = new ObjectName("org.taskdriver:type=TaskMetrics,name="
+                + ObjectName.quote("<Implementation-Title>"));
+        Assert.assertEquals(_taskCount + 2, _server.getAttribute(_name, "TaskCount"));
+        Assert.assertEquals(_metrics.getFailureCount(), _server.getAttribute(_name, "FailureCount"));
+
+        CompositeData _parse = (CompositeData)_server.getAttribute(_name, "ParseStatistics");
+        Assert.assertEquals("parse", _parse.get("name"));
+        Assert.assertEquals(_metrics.getParseStatistics().getCount(), _parse.get("count"));
+        Assert.assertTrue((Double)_parse.get("maxMillis") > 0);
+
+        Map<String, Long> _taskCounts = Arrays.stream((CompositeData[])_server.getAttribute(_name, "TaskStatistics"))
+                .collect(Collectors.toMap(_stats -> (String)_stats.get("name"), _stats -> (Long)_stats.get("count")));
+        Assert.assertTrue(_taskCounts.toString(), _taskCounts.get("no-param") >= 2);
+        Assert.assertTrue(_taskCounts.toString(), _taskCounts.get("int-param") >= 2);
+    }
+
+    @Test()
+    public void t090_parserCompatible()
+            throws Exception
+    {
+        Options _optionDefs = new Options();
+        _optionDefs.addOption(Option.builder("h").longOpt("help").build());
+        _optionDefs.addOption(Option.builder("r").longOpt("required").hasArg().build());
+        _optionDefs.addOption(Option.builder("v").longOpt("verbose").build());
+        _optionDefs.addOption(Option.builder().longOpt("parallel").hasArg().build());
+        _optionDefs.addOption(Option.builder().longOpt("parse").build());
+
+        CompiledOptions _spec = new CompiledOptions(_optionDefs);
+        OptionParser _compiled = new CompiledOptionParser(_spec);
+        OptionParser _commons = new CommonsCliOptionParser(_optionDefs, _spec);
+
+        String[][] _cases = {
+                { "-r", "val", "task", "arg" },
+                { "--required=val", "-hv", "task" },
+                { "-rval", "--verb", "task", "-", "\"quoted\"" },
+                { "--par", "task" },
+                { "--parallel", "-5", "task" },
+                { "--parallel" },
+                { "-x", "task" },
+                { "--unknown=1" },
+                { "-r", "first", "-r", "second", "--", "-h", "task" },
+        };
+
+        for(String[] _args : _cases)
+        {
+            Assert.assertEquals(Arrays.toString(_args), parseResult(_commons, _args), parseResult(_compiled, _args));
+        }
+    }
+
+    @Test()
+    public void t095_argConverters()
+            throws Exception
+    {
+        TaskDefinition<TimeUnit> _taskDef = new TaskDefinition<>(TimeUnit.SECONDS, "Converter test")
+                .addArg("COUNT")
+                .addArg("RATIO", Double.class)
+                .addArg("FILE", Path.class)
+                .addArg("TIMEOUT", Duration.class)
+                .addArg("UNIT", TimeUnit.class);
+        _taskDef.seal();
+
+        Path _workingDir = Paths.get("/tmp/work");
+        TaskInvocation<TimeUnit> _invocation = new TaskInvocation<>(_taskDef, null,
+                Arrays.asList("-9223372036854775808", "1.5e3", "data.txt", "1h30m", "milliseconds"), _workingDir, null);
+        Assert.assertEquals(Long.MIN_VALUE, _invocation.takeArgLong());
+        Assert.assertEquals(1500.0, _invocation.takeArgDouble(), 0.0);
+        Assert.assertEquals(_workingDir.resolve("data.txt"), _invocation.takeArgPath());
+        Assert.assertEquals(Duration.ofMinutes(90), _invocation.takeArgDuration());
+        Assert.assertEquals(TimeUnit.MILLISECONDS, _invocation.takeArgEnum(TimeUnit.class));
+
+        for(String _badValue : Arrays.asList("9223372036854775808", "1e", "", "1.5.2", "5x"))
+        {
+            TaskInvocation<TimeUnit> _badInvocation = new TaskInvocation<>(_taskDef, null,
+                    Arrays.asList(_badValue), null, null);
+            try
+            {
+                _badInvocation.takeArgLong();
+                Assert.fail("Converted: " + _badValue);
+            }
+            catch(ParseException _ex)
+            {
+                Assert.assertTrue(_ex.getMessage(), _ex.getMessage().startsWith("Could not convert COUNT to long"));
+            }
+        }
+
+        // a declared argument can only be taken as its type.
+        TaskInvocation<TimeUnit> _wrongType = new TaskInvocation<>(_taskDef, null,
+                Arrays.asList("1", "2"), null, null);
+        _wrongType.takeArg();
+        try
+        {
+            _wrongType.takeArgInt();
+            Assert.fail("Took double argument as int");
+        }
+        catch(IllegalStateException _ex)
+        {
+            // expected
+        }
+
+        try
+        {
+            _taskDef.addArg("BAD", Object.class);
+            Assert.fail("Added argument without converter");
+        }
+        catch(IllegalArgumentException _ex)
+        {
+            // expected
+        }
+    }
+
+    @Test()
+    public void t096_argFile()
+            throws Exception
+    {
+        File _argFile = createBatchFile(Arrays.asList("second", "", "third"));
+        TaskDefinition<TimeUnit> _taskDef = new TaskDefinition<>(TimeUnit.SECONDS, "Argument file test")
+                .addArg("FIRST")
+                .addArg("SECOND")
+                .addArg("THIRD")
+                .addArg("FOURTH");
+        _taskDef.seal();
+
+        try (TaskInvocation<TimeUnit> _invocation = new TaskInvocation<>(_taskDef, null,
+                Arrays.asList("first", "@" + _argFile.getName(), "@@literal"), _argFile.getParentFile().toPath(), null))
+        {
+            Assert.assertEquals("first", _invocation.takeArg());
+            Assert.assertEquals("second", _invocation.takeArg());
+            Assert.assertEquals("third", _invocation.takeArg());
+            Assert.assertEquals("@literal", _invocation.takeArg());
+            Assert.assertFalse(_invocation.hasMoreArgs());
+        }
+
+        ArrayList<String> _argList = new ArrayList<>();
+        _argList.addAll(Arrays.asList("str-param", "@" + _argFile.getPath()));
+        execTest(_argList);
+
+        try
+        {
+            _argList = new ArrayList<>();
+            _argList.addAll(Arrays.asList("str-param", "@" + _argFile.getPath() + ".missing"));
+            execTest(_argList);
+            Assert.fail("Missing argument file was not reported");
+        }
+        catch(ParseException _ex)
+        {
+            Assert.assertTrue(_ex.getMessage(), _ex.getMessage().startsWith("Can not read argument file"));
+        }
+    }
+
+    @Test()
+    public void t097_varArgs()
+            throws Exception
+    {
+        List<String> _lines = new ArrayList<>();
+        for(int _idx = 1; _idx <= 100000; _idx++)
+        {
+            _lines.add(Integer.toString(_idx));
+        }
+        File _argFile = createBatchFile(_lines);
+
+        TaskDefinition<TimeUnit> _taskDef = new TaskDefinition<>(TimeUnit.SECONDS, "Variable argument test")
+                .addArg("FIRST")
+                .addVarArgs("VALUES");
+        _taskDef.seal();
+        Assert.assertEquals("seconds [FIRST] [VALUES...]", _taskDef.getUsage());
+
+        try (TaskInvocation<TimeUnit> _invocation = new TaskInvocation<>(_taskDef, null,
+                Arrays.asList("first", "@" + _argFile.getPath(), "0"), null, null))
+        {
+            Assert.assertEquals("first", _invocation.takeArg());
+            try (Stream<String> _values = _invocation.takeRemainingArgs())
+            {
+                long _sum = _values.parallel().mapToLong(Long::parseLong).sum();
+                Assert.assertEquals(100000L * 100001L / 2, _sum);
+            }
+        }
+
+        try
+        {
+            new TaskDefinition<>(TimeUnit.SECONDS, "Bad definition")
+                    .addVarArgs("VALUES")
+                    .addArg("LAST");
+            Assert.fail("Argument was added after variable arguments");
+        }
+        catch(IllegalStateException _ex)
+        {
+            // expected
+        }
+    }
+
+    @Test()
+    public void t098_asyncTasks()
+            throws Exception
+    {
+        AsyncTestDriver _driver = new AsyncTestDriver();
+        _driver.run(new String[] { "milliseconds" });
+
+        long _start = System.nanoTime();
+        try
+        {
+            _driver.run(new String[] { "seconds" });
+            Assert.fail("Task did not time out");
+        }
+        catch(TimeoutException _ex)
+        {
+            Assert.assertTrue(_ex.getMessage(), _ex.getMessage().startsWith("Task timed out after PT0.2S"));
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - _start) < 5);
+
+        // cancelling the run interrupts the task.
+        CompletableFuture<Void> _run = _driver.runAsync(new String[] { "minutes" });
+        Assert.assertTrue(_driver._started.await(5, TimeUnit.SECONDS));
+        _run.cancel(true);
+        Assert.assertTrue(_driver._interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test()
+    public void t099_taskGraph()
+            throws Exception
+    {
+        GraphTestDriver _driver = new GraphTestDriver();
+        _driver.run(new String[] { "--parallel", "4", "days" });
+        Assert.assertEquals(4, _driver._order.size());
+        Assert.assertEquals(TimeUnit.SECONDS, _driver._order.get(0));
+        Assert.assertEquals(TimeUnit.DAYS, _driver._order.get(3));
+
+        // a requested task is used as the prerequisite.
+        _driver._order.clear();
+        _driver.run(new String[] { "hours", ",", "seconds" });
+        Assert.assertEquals(Arrays.asList(TimeUnit.SECONDS, TimeUnit.HOURS), _driver._order);
+
+        try
+        {
+            new TaskDriverMap<TimeUnit>().add(TimeUnit.SECONDS, "Self").dependsOn(TimeUnit.SECONDS);
+            Assert.fail("Self dependency was not detected");
+        }
+        catch(IllegalArgumentException _ex)
+        {
+            Assert.assertEquals("Task dependency cycle: seconds -> seconds", _ex.getMessage());
+        }
+
+        TaskDriverMap<TimeUnit> _taskMap = new TaskDriverMap<>();
+        _taskMap.add(TimeUnit.MINUTES, "Minutes").dependsOn(TimeUnit.SECONDS);
+        _taskMap.add(TimeUnit.SECONDS, "Seconds").dependsOn(TimeUnit.MILLISECONDS);
+        try
+        {
+            _taskMap.add(TimeUnit.MILLISECONDS, "Millis").dependsOn(TimeUnit.MINUTES);
+            Assert.fail("Dependency cycle was not detected");
+        }
+        catch(IllegalArgumentException _ex)
+        {
+            Assert.assertEquals("Task dependency cycle: milliseconds -> minutes -> seconds -> milliseconds",
+                    _ex.getMessage());
+        }
+    }
+
+    @Test()
+    public void t100_resultCache()
+            throws Exception
+    {
+        Path _cacheDir = Files.createTempDirectory("task-driver-cache");
+        System.setProperty("taskdriver.cache.dir", _cacheDir.toString());
+        try
+        {
+            File _inputFile = createBatchFile(Arrays.asList("input"));
+            String[] _args = { "seconds", _inputFile.getPath() };
+
+            CacheTestDriver _driver = new CacheTestDriver();
+            _driver.run(_args);
+            _driver.run(_args);
+            Assert.assertEquals(1, _driver._runCount.get());
+
+            // changed input, different option and --no-cache all run the task.
+            Files.write(_inputFile.toPath(), Arrays.asList("changed input"), StandardCharsets.UTF_8);
+            _driver.run(_args);
+            _driver.run(new String[] { "--verbose", "seconds", _inputFile.getPath() });
+            _driver.run(new String[] { "--no-cache", "seconds", _inputFile.getPath() });
+            Assert.assertEquals(4, _driver._runCount.get());
+
+            _driver.run(new String[] { "--profile", "seconds", _inputFile.getPath() });
+            _driver.run(new String[] { "--daemon-timeout", "60", "seconds", _inputFile.getPath() });
+            Assert.assertEquals(4, _driver._runCount.get());
+        }
+        finally
+        {
+            System.clearProperty("taskdriver.cache.dir");
+            deleteTree(_cacheDir);
+        }
+    }
+
+    @Test()
+    public void t101_asyncConsole()
+            throws Exception
+    {
+        LoggerContext _context = (LoggerContext)LoggerFactory.getILoggerFactory();
+        PatternLayout _layout = new PatternLayout();
+        _layout.setContext(_context);
+        _layout.setPattern("%msg%n");
+        _layout.start();
+
+        AsyncConsoleAppender _appender = new AsyncConsoleAppender();
+        _appender.setContext(_context);
+        _appender.setLayout(_layout);
+        _appender.setCapacity(64);
+        _appender.start();
+
+        ch.qos.logback.classic.Logger _logger = _context.getLogger("org.taskdriver.test.console");
+        _logger.setAdditive(false);
+        _logger.addAppender(_appender);
+
+        ByteArrayOutputStream _out = new ByteArrayOutputStream();
+        ConsoleRouter.route(new PrintStream(_out, true), System.err, System.in);
+        try
+        {
+            List<String> _expected = new ArrayList<>();
+            for(int _idx = 0; _idx < 10000; _idx++)
+            {
+                _expected.add("line " + _idx);
+                _logger.info("line {}", _idx);
+            }
+
+            AsyncConsoleAppender.flushAll();
+            Assert.assertEquals(_expected, Arrays.asList(_out.toString().split("\n")));
+
+            // debug output of the route is written before the call returns.
+            _out.reset();
+            Assert.assertFalse(_logger.isDebugEnabled());
+            ConsoleRouter.addDebugPackage("org.taskdriver.test");
+            TaskDebugFilter.install();
+            _logger.debug("blocking");
+            Assert.assertEquals("blocking\n", _out.toString());
+
+            // other threads do not get the debug messages of the route.
+            CompletableFuture<Boolean> _otherDebug = CompletableFuture.supplyAsync(_logger::isDebugEnabled);
+            Assert.assertFalse(_otherDebug.get());
+        }
+        finally
+        {
+            ConsoleRouter.clear();
+            _logger.detachAppender(_appender);
+            _appender.stop();
+        }
+    }
+
+    @Test()
+    public void t102_taskOutput()
+            throws Exception
+    {
+        File _outFile = File.createTempFile("task-driver-output", ".txt");
+        _outFile.deleteOnExit();
+
+        OutputTestDriver _driver = new OutputTestDriver();
+        _driver.run(new String[] { "--output", _outFile.getPath(), "seconds", "a\"b", "\u00e9\u20ac" });
+        Assert.assertEquals(Arrays.asList("a\"b", "1\ta\"b\t0.5\ttrue", "\u00e9\u20ac", "2\t\u00e9\u20ac\t0.5\ttrue"),
+                Files.readAllLines(_outFile.toPath(), StandardCharsets.UTF_8));
+
+        _driver.run(new String[] { "--output", _outFile.getPath(), "--output-format", "jsonl", "seconds", "a\"b" });
+        Assert.assertEquals(Arrays.asList("\"a\\\"b\"", "{\"index\":1,\"value\":\"a\\\"b\",\"ratio\":0.5,\"ok\":true}"),
+                Files.readAllLines(_outFile.toPath(), StandardCharsets.UTF_8));
+
+        try
+        {
+            _driver.run(new String[] { "--output-format", "xml", "seconds" });
+            Assert.fail("Invalid output format was accepted");
+        }
+        catch(ParseException _ex)
+        {
+            Assert.assertEquals("Could not convert --output-format to one of text|jsonl: xml", _ex.getMessage());
+        }
+    }
+
+    @Test()
+    public void t103_progress()
+            throws Exception
+    {
+        TaskProgress _progress = new TaskProgress("test", 200);
+        IntStream.range(0, 50).parallel().forEach(_idx -> _progress.advance());
+        Assert.assertEquals(50, _progress.getDone());
+        Assert.assertTrue(_progress.format(System.nanoTime()).startsWith("50 of 200 (25.0%) "));
+        Assert.assertTrue(_progress.format(System.nanoTime()).contains(" ETA "));
+
+        ProgressTestDriver _driver = new ProgressTestDriver();
+        _driver.run(new String[] { "--progress-interval", "20ms", "seconds", "2000" });
+        Assert.assertEquals(2000, _driver._lastProgress.getDone());
+        Assert.assertTrue(_driver._lastProgress.formatSummary().startsWith("2,000 items, "));
+
+        try
+        {
+            _driver.run(new String[] { "--progress-interval", "soon", "seconds", "1" });
+            Assert.fail("Invalid progress interval was accepted");
+        }
+        catch(ParseException _ex)
+        {
+            Assert.assertEquals("Could not convert --progress-interval to a duration: soon", _ex.getMessage());
+        }
+    }
+
+    @Test()
+    public void t104_watchdog()
+            throws Exception
+    {
+        WatchdogTestDriver _driver = new WatchdogTestDriver();
+        for(String _task : Arrays.asList("milliseconds", "seconds"))
+        {
+            long _startNanos = System.nanoTime();
+            try
+            {
+                _driver.run(new String[] { _task });
+                Assert.fail("Stuck task was not cancelled: " + _task);
+            }
+            catch(InterruptedException _ex)
+            {
+                Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - _startNanos) < 10);
+            }
+        }
+
+        String _diagnostics = TaskWatchdog.formatDiagnostics();
+        Assert.assertTrue(_diagnostics.contains("Garbage collectors:"));
+        Assert.assertTrue(_diagnostics.contains("\"main\""));
+    }
+
+    @Test()
+    public void t105_completion()
+            throws Exception
+    {
+        File _outFile = File.createTempFile("task-driver-completion", ".bash");
+        _outFile.deleteOnExit();
+
+        System.setProperty("taskdriver.program", "cache-test");
+        try
+        {
+            new CacheTestDriver().run(new String[] { "--completion", "bash", "--output", _outFile.getPath() });
+        }
+        finally
+        {
+            System.clearProperty("taskdriver.program");
+        }
+
+        String _script = new String(Files.readAllBytes(_outFile.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(_script.contains("compgen -W \"-h --help -d --debug --batch"));
+        Assert.assertTrue(_script.contains("--workers"));
+        Assert.assertFalse(_script.contains("--worker "));
+        Assert.assertTrue(_script.contains("        seconds:0)\n            COMPREPLY=( $(compgen -f -- \"$cur\") ) ;;"));
+        Assert.assertTrue(_script.contains("        --output-format)\n            COMPREPLY=( $(compgen -W \"text jsonl\" -- \"$cur\") )"));
+        Assert.assertTrue(_script.contains("        --completion)\n            COMPREPLY=( $(compgen -W \"bash zsh\" -- \"$cur\") )"));
+        Assert.assertTrue(_script.endsWith("complete -o default -F _cache_test_complete cache-test cache-test.sh\n"));
+
+        StringWriter _help = new StringWriter();
+        new CacheTestDriver().printHelp(new PrintWriter(_help));
+        Assert.assertTrue(_help.toString().contains("--workers"));
+        Assert.assertFalse(_help.toString().contains("--worker "));
+
+        TaskDriverMap<TimeUnit> _taskMap = new TaskDriverMap<>();
+        _taskMap.add(TimeUnit.HOURS, "Converts it's unit.").addArg("UNIT", TimeUnit.class).addArg("COUNT", Integer.class);
+        Options _options = new Options();
+        _options.addOption(null, "unit", true, "a unit");
+        TaskCompletion _completion = new TaskCompletion(Arrays.asList("test"), _options,
+                Collections.singletonMap("unit", TimeUnit.class), _taskMap.values());
+
+        String _zsh = _completion.generate(TaskCompletion.Shell.ZSH);
+        Assert.assertTrue(_zsh.contains("'hours:Converts it'\\''s unit.'"));
+        Assert.assertTrue(_zsh.contains("_values 'UNIT' nanoseconds microseconds milliseconds seconds minutes hours days"));
+        Assert.assertTrue(_zsh.contains("'--unit[a unit]:value:(nanoseconds microseconds milliseconds seconds minutes hours days)'"));
+
+        String _bash = _completion.generate(TaskCompletion.Shell.BASH);
+        Assert.assertTrue(_bash.contains("        hours:1)\n            [[ -z \"$cur\" ]] && COMPREPLY=( '<COUNT>' \"\" ) ;;"));
+    }
+
+    @Test()
+    public void t106_taskRegistry()
+            throws Exception
+    {
+        TaskDriverMap<RegistryTaskEnum> _taskMap = new TaskDriverMap<>();
+        _taskMap.add(RegistryTaskEnum.NO_PARAM, "Task with no params.");
+        _taskMap.add(RegistryTaskEnum.STR_PARAM, "Task with string param.").addArg("PARAM-STR");
+        _taskMap.add(RegistryTaskEnum.SUM_VALUES, "Sums the values.").addArg("UNIT", TimeUnit.class)
+                .addVarArgs("VALUE");
+
+        TaskRegistry<RegistryTaskEnum> _registry = TaskDriverTest_RegistryTaskEnum_Tasks.INSTANCE;
+        Assert.assertEquals(_taskMap.getSummary(), _registry.getSummary());
+        Assert.assertEquals(_taskMap.getDetails(), _registry.getDetails());
+        for(RegistryTaskEnum _task : RegistryTaskEnum.values())
+        {
+            Assert.assertEquals(_task, _registry.find(_taskMap.get(_task).toString()));
+        }
+        Assert.assertNull(_registry.find("no_param"));
+
+        RegistryTestDriver _driver = new RegistryTestDriver();
+        _driver.run(new String[] { "-v", "--item-count", "7", "--unit", "minutes", "sum-values", "hours", "1", "2" });
+        Assert.assertEquals(Arrays.asList(RegistryTaskEnum.NO_PARAM, RegistryTaskEnum.SUM_VALUES), _driver._tasksRun);
+        Assert.assertTrue(_driver._lastOptions.verbose);
+        Assert.assertEquals(7, _driver._lastOptions.itemCount);
+        Assert.assertEquals(TimeUnit.MINUTES, _driver._lastOptions.unit);
+        Assert.assertEquals("none", _driver._lastOptions.label);
+
+        _driver.run(new String[] { "--unit", "seconds", "--name", "x", "no-param" });
+        Assert.assertFalse(_driver._lastOptions.verbose);
+        Assert.assertEquals(5, _driver._lastOptions.itemCount);
+        Assert.assertEquals("x", _driver._lastOptions.label);
+
+        try
+        {
+            _driver.run(new String[] { "--unit", "seconds", "--item-count", "many", "no-param" });
+            Assert.fail("Invalid option value was accepted");
+        }
+        catch(ParseException _ex)
+        {
+            Assert.assertEquals("Could not convert --item-count to integer: many", _ex.getMessage());
+        }
+
+        try
+        {
+            _driver.run(new String[] { "no-param" });
+            Assert.fail("Missing required option was accepted");
+        }
+        catch(MissingArgumentException _ex)
+        {
+            Assert.assertEquals("Missing option: --unit <Time unit of the values.>", _ex.getMessage());
+        }
+    }
+
+    @Test()
+    public void t107_workers()
+            throws Exception
+    {
+        File _outFile = File.createTempFile("task-driver-workers", ".txt");
+        _outFile.deleteOnExit();
+
+        List<String> _values = new ArrayList<>();
+        for(int _idx = 0; _idx < 40; _idx++)
+        {
+            _values.add("value-" + _idx);
+        }
+
+        List<String> _args = new ArrayList<>(Arrays.asList("--workers", "3", "--output", _outFile.getPath(),
+                "seconds", "prefix"));
+        _args.addAll(_values);
+        WorkerTestDriver _driver = new WorkerTestDriver();
+        _driver.run(_args.toArray(new String[0]));
+
+        List<String> _lines = Files.readAllLines(_outFile.toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(_values.size(), _lines.size());
+        Assert.assertEquals(_values.size(), _lines.stream().map(_line -> _line.split("\t")[1]).distinct().count());
+        Assert.assertTrue(_lines.stream().allMatch(_line -> _line.startsWith("prefix\t")));
+        Assert.assertTrue(_lines.stream().map(_line -> _line.split("\t")[2]).distinct().count() > 1);
+
+        try
+        {
+            _driver.run(new String[] { "--workers", "2", "seconds", "prefix", "a", "fail", "b" });
+            Assert.fail("Failed worker was not reported");
+        }
+        catch(Exception _ex)
+        {
+            Assert.assertEquals("1 of 2 workers failed.", _ex.getMessage());
+        }
+
+        try
+        {
+            _driver.run(new String[] { "--workers", "2", "minutes" });
+            Assert.fail("Task without variable arguments was accepted");
+        }
+        catch(ParseException _ex)
+        {
+            Assert.assertEquals("Option --workers can only be used with a task that has variable arguments: minutes",
+                    _ex.getMessage());
+        }
+    }
+
+    @Test()
+    public void t108_workExecutor()
+            throws Exception
+    {
+        WorkTestDriver _driver = new WorkTestDriver();
+        _driver.run(new String[] { "seconds", "3", "20", "20", "20", "20", "20", "20", "20", "20" });
+        Assert.assertEquals(8, _driver._done.get());
+        Assert.assertTrue(_driver._maxRunning.get() <= 3);
+        Assert.assertTrue(_driver._threadName.startsWith("task-driver-work-seconds-"));
+        Assert.assertTrue(_driver._summary.startsWith("8 units, p50 "));
+
+        // the failure interrupts the units that are sleeping.
+        long _startNanos = System.nanoTime();
+        try
+        {
+            _driver.run(new String[] { "seconds", "4", "30000", "30000", "30000", "fail", "30000" });
+            Assert.fail("Failed unit was not reported");
+        }
+        catch(IllegalStateException _ex)
+        {
+            Assert.assertEquals("Failed on purpose.", _ex.getMessage());
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - _startNanos) < 10);
+        }
+        Assert.assertEquals(0, _driver._running.get());
+    }
+
+    @Test()
+    public void t109_fileChunks()
+            throws Exception
+    {
+        File _file = File.createTempFile("task-driver-chunks", ".txt");
+        _file.deleteOnExit();
+
+        List<String> _lines = new ArrayList<>();
+        StringBuilder _sb = new StringBuilder();
+        for(int _idx = 0; _idx < 20000; _idx++)
+        {
+            String _line = (_idx % 1000 == 0) ? String.join("", Collections.nCopies(3000, "x")) : "line-" + _idx;
+            _lines.add(_line);
+            _sb.append(_line).append((_idx % 7 == 0) ? "\r\n" : "\n");
+        }
+        _lines.add("last \u00e9");
+        _sb.append("last \u00e9");
+        Files.write(_file.toPath(), _sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (TaskFileChunks _chunks = TaskFileChunks.open(_file.toPath(), StandardCharsets.UTF_8, 1000))
+        {
+            Assert.assertTrue(_chunks.getChunkCount() > 100);
+            Assert.assertEquals(_lines, _chunks.lines().collect(Collectors.toList()));
+            Assert.assertEquals(_lines.stream().mapToInt(String::length).sum(),
+                    _chunks.lines().mapToInt(String::length).sum());
+            Assert.assertTrue(_chunks.chunks().limit(_chunks.getChunkCount() - 1)
+                    .allMatch(_buffer -> _buffer.get(_buffer.limit() - 1) == '\n'));
+        }
+
+        try (TaskFileChunks _chunks = TaskFileChunks.open(_file.toPath()))
+        {
+            Assert.assertEquals(_lines, _chunks.lines().collect(Collectors.toList()));
+        }
+
+        Files.write(_file.toPath(), new byte[0]);
+        try (TaskFileChunks _chunks = TaskFileChunks.open(_file.toPath()))
+        {
+            Assert.assertEquals(0, _chunks.getChunkCount());
+            Assert.assertEquals(0, _chunks.lines().count());
+        }
+    }
+
+    @Test()
+    public void t110_daemonParallelStreams()
+            throws Exception
+    {
+        String _userHome = System.getProperty("user.home");
+        Path _home = Files.createTempDirectory("task-driver-home");
+        System.setProperty("user.home", _home.toString());
+        try
+        {
+            Thread _daemon = new Thread(() ->
+            {
+                try
+                {
+                    new ParallelTestDriver().run(new String[] { "--daemon", "--daemon-timeout", "1" });
+                }
+                catch(Exception _ex)
+                {
+                    throw new RuntimeException(_ex);
+                }
+            });
+            _daemon.start();
+
+            Path _daemonFile = TaskDriverClient.getDaemonFile("<Implementation-Title>");
+            for(int _idx = 0; _idx < 100 && !Files.exists(_daemonFile); _idx++)
+            {
+                Thread.sleep(100);
+            }
+
+            // each client writes its console to its own buffer.
+            List<String> _names = Arrays.asList("first", "second", "third", "fourth");
+            List<ByteArrayOutputStream> _outputs = new ArrayList<>();
+            List<Future<Integer>> _results = new ArrayList<>();
+            ExecutorService _executor = Executors.newFixedThreadPool(_names.size());
+            try
+            {
+                for(String _name : _names)
+                {
+                    ByteArrayOutputStream _output = new ByteArrayOutputStream();
+                    _outputs.add(_output);
+                    _results.add(_executor.submit(() ->
+                    {
+                        PrintStream _console = new PrintStream(_output, true, "UTF-8");
+                        ConsoleRouter.route(_console, _console, new ByteArrayInputStream(new byte[0]));
+                        TaskDriverClient _client = new TaskDriverClient("<Implementation-Title>");
+                        return _client.execute(new String[] { "seconds", _name });
+                    }));
+                }
+
+                for(int _idx = 0; _idx < _names.size(); _idx++)
+                {
+                    Assert.assertEquals(0, _results.get(_idx).get().intValue());
+                    List<String> _lines = Arrays.stream(_outputs.get(_idx).toString("UTF-8").split("\r?\n"))
+                            .filter(_line -> _line.startsWith("line "))
+                            .collect(Collectors.toList());
+                    String _expected = "line " + _names.get(_idx) + " ";
+                    Assert.assertEquals(ParallelTestDriver.LINES, _lines.size());
+                    Assert.assertTrue(_lines.stream().allMatch(_line -> _line.startsWith(_expected)));
+                }
+            }
+            finally
+            {
+                _executor.shutdown();
+            }
+
+            _daemon.join(10000);
+            Assert.assertFalse(_daemon.isAlive());
+        }
+        finally
+        {
+            System.setProperty("user.home", _userHome);
+            deleteTree(_home);
+        }
+    }
+
+    @Test()
+    public void t111_daemonStuckTask()
+            throws Exception
+    {
+        String _userHome = System.getProperty("user.home");
+        Path _home = Files.createTempDirectory("task-driver-home");
+        System.setProperty("user.home", _home.toString());
+        System.setProperty("taskdriver.watchdog.grace", "1");
+        WatchdogTestDriver _driver = new WatchdogTestDriver();
+        try
+        {
+            AtomicReference<Exception> _failure = new AtomicReference<>();
+            Thread _daemon = new Thread(() ->
+            {
+                try
+                {
+                    _driver.run(new String[] { "--daemon", "--daemon-timeout", "60" });
+                }
+                catch(Exception _ex)
+                {
+                    _failure.set(_ex);
+                }
+            });
+            _daemon.start();
+
+            Path _daemonFile = TaskDriverClient.getDaemonFile("<Implementation-Title>");
+            for(int _idx = 0; _idx < 100 && !Files.exists(_daemonFile); _idx++)
+            {
+                Thread.sleep(100);
+            }
+
+            // only the client fails and the daemon exits without waiting for the idle timeout.
+            TaskDriverClient _client = new TaskDriverClient("<Implementation-Title>");
+            Assert.assertEquals(TaskWatchdog.EXIT_CODE, _client.execute(new String[] { "hours" }));
+            _daemon.join(10000);
+            Assert.assertFalse(_daemon.isAlive());
+            Assert.assertTrue(String.valueOf(_failure.get()), _failure.get() instanceof IllegalStateException);
+            Assert.assertFalse(Files.exists(_daemonFile));
+        }
+        finally
+        {
+            _driver._released = true;
+            System.clearProperty("taskdriver.watchdog.grace");
+            System.setProperty("user.home", _userHome);
+            deleteTree(_home);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void t112_taskGraphError()
+            throws Exception
+    {
+        // an Error fails the task and skips its dependents instead of hanging the run.
+        GraphTestDriver _driver = new GraphTestDriver();
+        _driver._errorTask = TimeUnit.HOURS;
+        try
+        {
+            _driver.run(new String[] { "--parallel", "4", "days" });
+            Assert.fail("Failed task was not reported");
+        }
+        catch(Exception _ex)
+        {
+            Assert.assertEquals("2 of 4 tasks failed.", _ex.getMessage());
+        }
+        Assert.assertEquals(Arrays.asList(TimeUnit.SECONDS, TimeUnit.MINUTES), _driver._order);
+    }
+
+    @Test(timeout = 20000)
+    public void t113_daemonClientDisconnect()
+            throws Exception
+    {
+        String _userHome = System.getProperty("user.home");
+        Path _home = Files.createTempDirectory("task-driver-home");
+        System.setProperty("user.home", _home.toString());
+        AsyncTestDriver _driver = new AsyncTestDriver();
+        try
+        {
+            Thread _daemon = new Thread(() ->
+            {
+                try
+                {
+                    _driver.run(new String[] { "--daemon", "--daemon-timeout", "1" });
+                }
+                catch(Exception _ex)
+                {
+                    throw new RuntimeException(_ex);
+                }
+            });
+            _daemon.start();
+
+            Path _daemonFile = TaskDriverClient.getDaemonFile("<Implementation-Title>");
+            for(int _idx = 0; _idx < 100 && !Files.exists(_daemonFile); _idx++)
+            {
+                Thread.sleep(100);
+            }
+
+            Properties _props = new Properties();
+            try (InputStream _is = Files.newInputStream(_daemonFile))
+            {
+                _props.load(_is);
+            }
+
+            // the client goes away like after Ctrl-C while its task is blocked.
+            int _port = Integer.parseInt(_props.getProperty(TaskDriverClient.PROP_PORT));
+            try (Socket _socket = new Socket(InetAddress.getLoopbackAddress(), _port);
+                    DataOutputStream _out = new DataOutputStream(_socket.getOutputStream()))
+            {
+                _out.writeInt(TaskDriverClient.PROTOCOL_VERSION);
+                TaskDriverClient.writeString(_out, _props.getProperty(TaskDriverClient.PROP_TOKEN));
+                _out.writeInt(1);
+                TaskDriverClient.writeString(_out, "minutes");
+                TaskDriverClient.writeString(_out, Paths.get("").toAbsolutePath().toString());
+                _out.writeInt(0);
+                _out.flush();
+                Assert.assertTrue(_driver._started.await(5, TimeUnit.SECONDS));
+            }
+            Assert.assertTrue(_driver._interrupted.await(5, TimeUnit.SECONDS));
+
+            _daemon.join(10000);
+            Assert.assertFalse(_daemon.isAlive());
+        }
+        finally
+        {
+            System.setProperty("user.home", _userHome);
+            deleteTree(_home);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void t114_slowDaemonClient()
+            throws Exception
+    {
+        // a client that does not read holds up its own writes for a limited time only.
+        CountDownLatch _release = new CountDownLatch(1);
+        ByteArrayOutputStream _received = new ByteArrayOutputStream();
+        OutputStream _slowClient = new OutputStream()
+        {
+            @Override
+            public void write(int _byte)
+                    throws IOException
+            {
+                write(new byte[] { (byte)_byte }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] _buf, int _off, int _len)
+                    throws IOException
+            {
+                try
+                {
+                    _release.await();
+                }
+                catch(InterruptedException _ex)
+                {
+                    throw new IOException(_ex);
+                }
+                _received.write(_buf, _off, _len);
+            }
+        };
+
+        FrameSender _sender = new FrameSender(new DataOutputStream(_slowClient), "task-driver-test-out");
+        OutputStream _stream = _sender.stream(TaskDriverClient.FRAME_STDOUT);
+        long _start = System.nanoTime();
+        byte[] _chunk = new byte[64 * 1024];
+        for(int _idx = 0; _idx < 64; _idx++)
+        {
+            _stream.write(_chunk);
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - _start) < 5);
+
+        _release.countDown();
+        _sender.close();
+        String _text = new String(_received.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(_text, _text.contains("bytes of output were dropped because the client did not keep up"));
+    }
+
+    private static String parseResult(OptionParser _parser, String[] _args)
+    {
+        TaskDriverOptions _cmd;
+        try
+        {
+            _cmd = _parser.parse(_args);
+        }
+        catch(ParseException _ex)
+        {
+            return _ex.getClass().getSimpleName() + ": " + _ex.getMessage();
+        }
+
+        StringBuilder _sb = new StringBuilder();
+        for(String _opt : Arrays.asList("h", "r", "v", "parallel", "parse"))
+        {
+            _sb.append(_opt).append('=').append(_cmd.hasOption(_opt))
+                    .append('/').append(_cmd.getOptionValue(_opt)).append(' ');
+        }
+        return _sb.append(_cmd.getArgList()).toString();
+    }
+
+    private static File createBatchFile(List<String> _lines)
+            throws Exception
+    {
+        File _batchFile = File.createTempFile("task-driver-batch", ".txt");
+        _batchFile.deleteOnExit();
+        Files.write(_batchFile.toPath(), _lines, StandardCharsets.UTF_8);
+        return _batchFile;
+    }
+
+    /**
+     * Delete a temporary directory and everything in it.
+     */
+    private static void deleteTree(Path _dir)
+            throws Exception
+    {
+        try (Stream<Path> _paths = Files.walk(_dir))
+        {
+            for(Path _path : _paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            {
+                Files.deleteIfExists(_path);
+            }
+        }
+    }
+
     private static void execTest(ArrayList<String> _argList)
             throws Exception
     {
@@ -116,4 +1325,454 @@ public class TaskDriverTest
         TaskDriverDemo _testClass = new TaskDriverDemo();
         _testClass.run(_argList.toArray(new String[0]));
     }
+
+    /**
+     * Driver with tasks that block, time out and complete asynchronously.
+     */
+    private static class AsyncTestDriver extends TaskDriver<TimeUnit>
+    {
+        private final CountDownLatch _started     = new CountDownLatch(1);
+        private final CountDownLatch _interrupted = new CountDownLatch(1);
+
+        AsyncTestDriver()
+        {
+            addTask(TimeUnit.MILLISECONDS, "Completes asynchronously.");
+            addTask(TimeUnit.SECONDS, "Times out.")
+                    .setTimeout(Duration.ofMillis(200));
+            addTask(TimeUnit.MINUTES, "Blocks until interrupted.");
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected CompletableFuture<?> handleDoTaskAsync(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            if(_task == TimeUnit.MILLISECONDS)
+            {
+                return CompletableFuture.supplyAsync(() -> _task.toMillis(1));
+            }
+            return super.handleDoTaskAsync(_task, _invocation);
+        }
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            try
+            {
+                _started.countDown();
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            }
+            catch(InterruptedException _ex)
+            {
+                Assert.assertTrue(_invocation.isCancelled());
+                _interrupted.countDown();
+                throw _ex;
+            }
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Driver with a diamond of task dependencies.
+     */
+    private static class GraphTestDriver extends TaskDriver<TimeUnit>
+    {
+        private final List<TimeUnit> _order    = Collections.synchronizedList(new ArrayList<>());
+        private volatile TimeUnit    _errorTask = null;
+
+        GraphTestDriver()
+        {
+            addTask(TimeUnit.DAYS, "Needs hours and minutes.")
+                    .dependsOn(TimeUnit.HOURS, TimeUnit.MINUTES);
+            addTask(TimeUnit.HOURS, "Needs seconds.")
+                    .dependsOn(TimeUnit.SECONDS);
+            addTask(TimeUnit.MINUTES, "Needs seconds.")
+                    .dependsOn(TimeUnit.SECONDS);
+            addTask(TimeUnit.SECONDS, "No prerequisites.");
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+        {
+            if(_task == _errorTask)
+            {
+                throw new AssertionError("Error in " + _task);
+            }
+            _order.add(_task);
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Driver with a cacheable task that counts its runs.
+     */
+    private static class CacheTestDriver extends TaskDriver<TimeUnit>
+    {
+        private final AtomicInteger _runCount = new AtomicInteger();
+
+        CacheTestDriver()
+        {
+            addOption("verbose", "Verbose mode.", "v", false);
+            addTask(TimeUnit.SECONDS, "Reads a file.")
+                    .addArg("FILE", Path.class)
+                    .setCacheable(TaskDefinition.FileCheck.CONTENT);
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            Files.readAllBytes(_invocation.takeArgPath());
+            _runCount.incrementAndGet();
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Driver with a task that writes its arguments to the task output.
+     */
+    private static class OutputTestDriver extends TaskDriver<TimeUnit>
+    {
+        OutputTestDriver()
+        {
+            addTask(TimeUnit.SECONDS, "Writes the arguments.").addVarArgs("VALUE");
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            TaskOutput _output = _invocation.getOutput();
+            int _index = 0;
+            while(_invocation.hasMoreArgs())
+            {
+                String _value = _invocation.takeArg();
+                _output.println(_value);
+                _output.record().field("index", ++_index).field("value", _value).field("ratio", 0.5)
+                        .field("ok", true).end();
+            }
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Driver with a task that reports progress from several threads.
+     */
+    private static class ProgressTestDriver extends TaskDriver<TimeUnit>
+    {
+        private volatile TaskProgress _lastProgress;
+
+        ProgressTestDriver()
+        {
+            addTask(TimeUnit.SECONDS, "Counts to a number.").addArg("COUNT", Integer.class);
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            int _count = _invocation.takeArgInt();
+            TaskProgress _progress = _invocation.progress(_count);
+            IntStream.range(0, _count).parallel().forEach(_idx ->
+            {
+                _progress.advance();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            });
+            _lastProgress = _progress;
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Driver with tasks that stall or use too much heap until they are
+     * cancelled.
+     */
+    private static class WatchdogTestDriver extends TaskDriver<TimeUnit>
+    {
+        private volatile boolean _released = false;
+
+        WatchdogTestDriver()
+        {
+            addTask(TimeUnit.MILLISECONDS, "Stops making progress.").setStallTimeout(Duration.ofMillis(200));
+            addTask(TimeUnit.SECONDS, "Uses more than the heap limit.").setHeapLimit(1);
+            addTask(TimeUnit.HOURS, "Ignores the interrupt until it is released.")
+                    .setStallTimeout(Duration.ofMillis(200));
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            if(_task == TimeUnit.HOURS)
+            {
+                while(!_released)
+                {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+                return;
+            }
+
+            _invocation.progress().advance(10);
+            System.gc();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Tasks declared with annotations for the generated registry.
+     */
+    enum RegistryTaskEnum
+    {
+        @TaskSpec("Task with no params.")
+        NO_PARAM,
+
+        @TaskSpec(value = "Task with string param.", args = @TaskArg("PARAM-STR"))
+        STR_PARAM,
+
+        @TaskSpec(value = "Sums the values.", args = @TaskArg(value = "UNIT", type = TimeUnit.class),
+                varArgs = "VALUE", dependsOn = "NO_PARAM")
+        SUM_VALUES;
+    }
+
+    /**
+     * Options declared with annotations for the generated binder.
+     */
+    static class RegistryTestOptions
+    {
+        @TaskOption(value = "Verbose mode.", opt = "v")
+        boolean  verbose;
+
+        @TaskOption("Number of items.")
+        int      itemCount = 5;
+
+        @TaskOption(value = "Time unit of the values.", required = true)
+        TimeUnit unit;
+
+        @TaskOption(value = "Label of the run.", longOpt = "name")
+        String   label     = "none";
+    }
+
+    /**
+     * Driver with the generated task registry and option binder.
+     */
+    private static class RegistryTestDriver extends TaskDriver<RegistryTaskEnum>
+    {
+        private final OptionBinder<RegistryTestOptions> _options;
+        private final List<RegistryTaskEnum>            _tasksRun = Collections.synchronizedList(new ArrayList<>());
+        private volatile RegistryTestOptions            _lastOptions;
+
+        RegistryTestDriver()
+        {
+            _options = addOptions(TaskDriverTest_RegistryTestOptions_Options.INSTANCE);
+            addTasks(TaskDriverTest_RegistryTaskEnum_Tasks.INSTANCE);
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {
+            _tasksRun.clear();
+        }
+
+        @Override
+        protected void handleDoTask(RegistryTaskEnum _task, TaskInvocation<RegistryTaskEnum> _invocation)
+                throws Exception
+        {
+            _lastOptions = _options.bind(_invocation.getOptions());
+            _tasksRun.add(_task);
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Driver whose task is split between worker JVMs. It is also the main
+     * class of the workers.
+     */
+    private static class WorkerTestDriver extends TaskDriver<TimeUnit>
+    {
+        WorkerTestDriver()
+        {
+            addTask(TimeUnit.SECONDS, "Writes the values with the worker.").addArg("PREFIX").addVarArgs("VALUE");
+            addTask(TimeUnit.MINUTES, "Has no variable arguments.");
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            String _prefix = _invocation.takeArg();
+            String _pid = ManagementFactory.getRuntimeMXBean().getName();
+            try (Stream<String> _values = _invocation.takeRemainingArgs())
+            {
+                _values.forEach(_value ->
+                {
+                    if(_value.equals("fail"))
+                    {
+                        throw new IllegalStateException("Failed on purpose.");
+                    }
+
+                    // slow enough that every worker gets some of the values.
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+                    _invocation.getOutput().record().field("prefix", _prefix).field("value", _value)
+                            .field("pid", _pid).end();
+                });
+            }
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+
+        public static void main(String[] _args)
+        {
+            try
+            {
+                new WorkerTestDriver().run(_args);
+            }
+            catch(Exception _ex)
+            {
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Driver with a task that sleeps for each value on a work executor.
+     */
+    private static class WorkTestDriver extends TaskDriver<TimeUnit>
+    {
+        private final AtomicInteger _running    = new AtomicInteger();
+        private final AtomicInteger _maxRunning = new AtomicInteger();
+        private final AtomicInteger _done       = new AtomicInteger();
+        private volatile String     _threadName;
+        private volatile String     _summary;
+
+        WorkTestDriver()
+        {
+            addTask(TimeUnit.SECONDS, "Sleeps for each value.").addArg("LIMIT", Integer.class).addVarArgs("MILLIS");
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {
+            _maxRunning.set(0);
+            _done.set(0);
+        }
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            try (TaskWorkExecutor _work = _invocation.work(_invocation.takeArgInt());
+                    Stream<String> _values = _invocation.takeRemainingArgs())
+            {
+                _values.forEach(_value -> _work.submit(() -> sleep(_value)));
+                _work.join();
+            }
+            _summary = _invocation.formatWorkSummary();
+        }
+
+        private void sleep(String _value)
+                throws InterruptedException
+        {
+            _maxRunning.accumulateAndGet(_running.incrementAndGet(), Math::max);
+            try
+            {
+                _threadName = Thread.currentThread().getName();
+                if(_value.equals("fail"))
+                {
+                    throw new IllegalStateException("Failed on purpose.");
+                }
+                Thread.sleep(Long.parseLong(_value));
+                _done.incrementAndGet();
+            }
+            finally
+            {
+                _running.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
+
+    /**
+     * Driver with a task that prints from a parallel stream.
+     */
+    private static class ParallelTestDriver extends TaskDriver<TimeUnit>
+    {
+        private static final int LINES = 2000;
+
+        ParallelTestDriver()
+        {
+            addTask(TimeUnit.SECONDS, "Prints lines from a parallel stream.").addArg("NAME");
+        }
+
+        @Override
+        protected void handleGetArgs(TaskDriverOptions _cmdArgs)
+        {}
+
+        @Override
+        protected void handleDoTask(TimeUnit _task, TaskInvocation<TimeUnit> _invocation)
+                throws Exception
+        {
+            String _name = _invocation.takeArg();
+            IntStream.range(0, LINES).parallel().forEach(_idx -> System.out.println("line " + _name + " " + _idx));
+        }
+
+        @Override
+        protected void printHelpFooter(PrintWriter _pw)
+        {}
+    }
 }